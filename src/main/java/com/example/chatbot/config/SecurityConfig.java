@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -55,6 +56,8 @@ public class SecurityConfig {
                 .requestMatchers("/css/**", "/js/**", "/images/**", "/webjars/**").permitAll()
                 // 允许访问根路径下的HTML文件
                 .requestMatchers("/*.html").permitAll()
+                // 重新索引全部片段、重建向量索引只允许管理员发起
+                .requestMatchers(HttpMethod.POST, "/api/knowledge/reindex", "/api/knowledge/index/rebuild").hasRole("ADMIN")
                 // 其他请求需要认证
                 .anyRequest().authenticated()
             )
@@ -0,0 +1,128 @@
+package com.example.chatbot.config;
+
+import com.example.chatbot.model.Segment;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.logging.Logger;
+
+/**
+ * 片段表的启动检查，在 Hibernate 建好表之后、任何服务读写片段之前执行。
+ *
+ * 片段主键由自增改为号段表分配后，号段表的起始值必须越过已有的最大ID，否则新片段会与旧片段主键冲突。
+ * 向量从 segments 表移到 segment_vectors 表后，旧库中仍在 segments 表里的向量在这里复制过去，
+ * 核对无遗漏后登记迁移完成，之后的启动不再复制。旧列（ddl-auto=update 只会加列、不会删列）默认保留，
+ * 确认新表数据无误后设置 knowledge.segments.dropLegacyVectorColumns=true 再启动一次才会删除。
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class SegmentStorageInitializer {
+
+    private static final Logger logger = Logger.getLogger(SegmentStorageInitializer.class.getName());
+
+    // 号段表中不存在片段的行时插入，已存在时只会调大：下一个号段的所有ID都大于 max(id)
+    // （insert ... select 不能直接加行别名，通过派生表别名 new 引用待插入的值）
+    private static final String ALIGN_ID_GENERATOR_SQL =
+            "insert into " + Segment.ID_GENERATOR_TABLE + " (sequence_name, next_val) "
+                    + "select * from (select ? as sequence_name, coalesce(max(id), 0) + ? + 1 as next_val "
+                    + "from segments) as new "
+                    + "on duplicate key update next_val = greatest(" + Segment.ID_GENERATOR_TABLE + ".next_val, new.next_val)";
+
+    // 迁移向量时每条 insert ... select 复制的片段ID区间长度
+    private static final long MIGRATE_ID_RANGE = 1000;
+
+    // 已完成的存储迁移登记表
+    private static final String MIGRATIONS_TABLE = "segment_storage_migrations";
+    private static final String VECTOR_COPY_MIGRATION = "copy_segment_vectors";
+
+    // 向量迁移完成后是否删除 segments 表中的旧向量列（删除后不可恢复，需显式开启）
+    @Value("${knowledge.segments.dropLegacyVectorColumns:false}")
+    private boolean dropLegacyVectorColumns;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void initialize() {
+        alignIdGenerator();
+        migrateSegmentVectors();
+    }
+
+    private void alignIdGenerator() {
+        jdbcTemplate.update(ALIGN_ID_GENERATOR_SQL, Segment.ID_GENERATOR_NAME, Segment.ID_ALLOCATION_SIZE);
+        Long next = jdbcTemplate.queryForObject(
+                "select next_val from " + Segment.ID_GENERATOR_TABLE + " where sequence_name = ?",
+                Long.class, Segment.ID_GENERATOR_NAME);
+        logger.info("片段主键号段表已就绪，下一个号段值: " + next);
+    }
+
+    /**
+     * 把 segments.vector / vector_model 按ID区间复制到 segment_vectors，核对每个有旧向量的片段都已复制后登记完成。
+     * 复制不完整时不登记，下次启动只补复制缺少的行；登记完成后才会按配置删除旧列
+     */
+    private void migrateSegmentVectors() {
+        Integer legacy = jdbcTemplate.queryForObject(
+                "select count(*) from information_schema.columns "
+                        + "where table_schema = database() and table_name = 'segments' and column_name = 'vector'",
+                Integer.class);
+        if (legacy == null || legacy == 0) {
+            return;
+        }
+        jdbcTemplate.execute("create table if not exists " + MIGRATIONS_TABLE
+                + " (name varchar(64) primary key, completed_at datetime not null)");
+        Integer done = jdbcTemplate.queryForObject(
+                "select count(*) from " + MIGRATIONS_TABLE + " where name = ?", Integer.class, VECTOR_COPY_MIGRATION);
+        if (done == null || done == 0) {
+            if (!copyLegacyVectors()) {
+                return;
+            }
+            jdbcTemplate.update("insert into " + MIGRATIONS_TABLE + " (name, completed_at) values (?, now())",
+                    VECTOR_COPY_MIGRATION);
+        }
+
+        if (dropLegacyVectorColumns) {
+            jdbcTemplate.execute("alter table segments drop column vector, drop column vector_model");
+            logger.info("已删除 segments 表中的旧向量列");
+        } else {
+            logger.info("segments 表中仍保留旧向量列（向量已迁移到 segment_vectors），"
+                    + "确认无误后可设置 knowledge.segments.dropLegacyVectorColumns=true 删除");
+        }
+    }
+
+    /**
+     * 复制尚未复制的旧向量，并核对结果
+     * @return 每个有旧向量的片段在 segment_vectors 中都有对应的行时返回 true
+     */
+    private boolean copyLegacyVectors() {
+        long start = System.currentTimeMillis();
+        Long maxId = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from segments", Long.class);
+        long copied = 0;
+        for (long from = 1; from <= maxId; from += MIGRATE_ID_RANGE) {
+            // 不用 insert ignore：写入出错时直接失败，而不是降级为警告后跳过
+            copied += jdbcTemplate.update(
+                    "insert into segment_vectors (segment_id, vector, vector_model) "
+                            + "select s.id, s.vector, s.vector_model from segments s "
+                            + "where s.vector is not null and s.id between ? and ? "
+                            + "and not exists (select 1 from segment_vectors v where v.segment_id = s.id)",
+                    from, from + MIGRATE_ID_RANGE - 1);
+        }
+        Long legacyCount = jdbcTemplate.queryForObject(
+                "select count(*) from segments where vector is not null", Long.class);
+        Long missing = jdbcTemplate.queryForObject(
+                "select count(*) from segments s where s.vector is not null "
+                        + "and not exists (select 1 from segment_vectors v where v.segment_id = s.id)",
+                Long.class);
+        if (missing == null || missing != 0) {
+            logger.severe("片段向量迁移不完整：" + legacyCount + " 个旧向量中有 " + missing
+                    + " 个未复制到 segment_vectors，保留旧列，下次启动时重试");
+            return false;
+        }
+        logger.info("已将 " + copied + " 个片段向量复制到 segment_vectors 表（旧向量共 " + legacyCount + " 个），耗时: "
+                + (System.currentTimeMillis() - start) + "ms");
+        return true;
+    }
+}
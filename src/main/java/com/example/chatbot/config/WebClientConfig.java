@@ -11,6 +11,10 @@ public class WebClientConfig {
     @Value("${ollama.api.url:http://localhost:11434}")
     private String ollamaUrl;
     
+    // 批量嵌入的响应体较大（每条向量数百个浮点数），放宽默认 256KB 的内存缓冲上限
+    @Value("${ollama.maxResponseBytes:16777216}")
+    private int ollamaMaxResponseBytes;
+    
     @Value("${deepseek.api.url:https://api.deepseek.com/v1}")
     private String deepseekUrl;
     
@@ -21,6 +25,7 @@ public class WebClientConfig {
     public WebClient ollamaClient() {
         return WebClient.builder()
                 .baseUrl(ollamaUrl)
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(ollamaMaxResponseBytes))
                 .build();
     }
     
@@ -6,6 +6,9 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * AI 聊天接口
  */
@@ -21,6 +24,17 @@ public class ChatBotController {
         return "pong";
     }
 
+    /**
+     * 语义回答缓存的命中统计
+     */
+    @GetMapping("/answer-cache/stats")
+    public ResponseEntity<Map<String, Object>> answerCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", chatService.getAnswerCacheStats());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * 用户提问接口
      * @param req 包含字段: question(用户问题), sessionId(会话ID)
@@ -1,6 +1,8 @@
 package com.example.chatbot.controller;
 
 import com.example.chatbot.model.Document;
+import com.example.chatbot.model.IngestionJob;
+import com.example.chatbot.service.IngestionJobService;
 import com.example.chatbot.service.KnowledgeService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -25,8 +27,12 @@ public class KnowledgeController {
     @Autowired
     private KnowledgeService knowledgeService;
 
+    @Autowired
+    private IngestionJobService ingestionJobService;
+
     /**
-     * 上传知识库文件
+     * 上传知识库文件：保存文件并提交后台导入任务后立即返回任务ID，
+     * 解析、分段和建立索引的进度通过 GET /api/knowledge/jobs/{jobId} 查询
      * @param file MultipartFile（支持 txt、pdf、docx…）
      * @param userId 上传用户的ID（可选，如未提供则使用当前登录用户ID）
      */
@@ -41,18 +47,18 @@ public class KnowledgeController {
                        ", 用户ID: " + (userId != null ? userId : "当前登录用户"));
             
             // 如果提供了userId参数，则使用它，否则让服务层处理
-            Document doc = userId != null ? 
-                    knowledgeService.uploadAndProcess(file, userId) : 
-                    knowledgeService.uploadAndProcess(file);
+            IngestionJob job = ingestionJobService.submit(file, userId);
             
             // 构建标准的响应格式
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("message", "文件上传成功");
-            response.put("document", doc);
+            response.put("message", "文件上传成功，正在后台处理");
+            response.put("jobId", job.getId());
+            response.put("documentId", job.getDocumentId());
+            response.put("job", IngestionJobService.describe(job));
             
-            logger.info("文件上传成功: " + file.getOriginalFilename());
-            return ResponseEntity.ok(response);
+            logger.info("文件上传成功: " + file.getOriginalFilename() + "，导入任务ID: " + job.getId());
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
         } catch (Exception e) {
             logger.severe("文件上传失败: " + e.getMessage());
             e.printStackTrace();
@@ -66,6 +72,24 @@ public class KnowledgeController {
                                 .body(errorResponse);
         }
     }
+
+    /**
+     * 查询导入任务的进度（仅上传者本人或管理员）
+     * @param jobId 上传接口返回的任务ID
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> jobStatus(@PathVariable Long jobId) {
+        Map<String, Object> status = ingestionJobService.status(jobId);
+        Map<String, Object> response = new HashMap<>();
+        if (status == null) {
+            response.put("success", false);
+            response.put("message", "找不到导入任务：" + jobId);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        response.put("success", true);
+        response.put("job", status);
+        return ResponseEntity.ok(response);
+    }
     
     /**
      * 获取所有上传的知识库文件
@@ -80,6 +104,64 @@ public class KnowledgeController {
         return ResponseEntity.ok(files);
     }
     
+    /**
+     * 在后台重新训练向量索引（仅 ivf 索引模式需要，仅管理员）
+     */
+    @PostMapping("/index/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildIndex() {
+        boolean submitted = knowledgeService.rebuildVectorIndex();
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", submitted);
+        response.put("message", submitted ? "索引重建任务已提交" : "当前索引类型无需重建，或已有重建任务在进行");
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 在后台重新生成全部片段的向量（切换嵌入模型后使用，仅管理员），进度通过 GET /api/knowledge/reindex/status 查询
+     */
+    @PostMapping("/reindex")
+    public ResponseEntity<Map<String, Object>> startReindex() {
+        boolean started = knowledgeService.startReindex();
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", started);
+        response.put("message", started ? "重新索引任务已启动" : "已有重新索引任务在进行");
+        response.put("status", knowledgeService.getReindexStatus());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 查询重新索引任务的进度
+     */
+    @GetMapping("/reindex/status")
+    public ResponseEntity<Map<String, Object>> reindexStatus() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("status", knowledgeService.getReindexStatus());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 查询向量缓存的命中统计
+     */
+    @GetMapping("/embedding-cache/stats")
+    public ResponseEntity<Map<String, Object>> queryCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", knowledgeService.getQueryCacheStats());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 查询片段内容缓存的命中统计
+     */
+    @GetMapping("/segment-cache/stats")
+    public ResponseEntity<Map<String, Object>> segmentCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", knowledgeService.getSegmentCacheStats());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * 获取指定用户上传的知识库文件
      * 注意：只有管理员可调用此接口查看其他用户的文件
@@ -0,0 +1,290 @@
+package com.example.chatbot.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+
+/**
+ * 内存 BM25 倒排索引，用于与向量检索互补的关键词检索（产品型号、人名等精确词）。
+ *
+ * 分词：连续的中日韩字符切成字符二元组（单字时保留单字），连续的字母数字切成小写单词，其余字符作为分隔符。
+ * 两个汉字组成的字符串 hashCode 冲突非常严重（31 × c0 + c1），因此中日韩词项用码点混合后的 long 作为键，单词仍用 String。
+ * 每个片段分配一个递增的内部文档号，倒排列表按文档号递增追加，
+ * 以 varint 编码的（文档号差值，词频）对压缩存储。
+ * 同一片段重新写入时旧文档号标记为删除，新内容追加为新文档号。
+ */
+public class Bm25Index {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    // 奇数乘子，对 long 是双射，用来打散码点组合后的高低位
+    private static final long MIX = 0x9E3779B97F4A7C15L;
+    private static final long UNIGRAM_MARK = 0xFFFFFFFFL;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // 词项（Long 或 String）-> 倒排列表
+    private final Map<Object, Postings> postings = new HashMap<>();
+    // 片段ID -> 当前文档号
+    private final LongIntHashMap idToDoc = new LongIntHashMap();
+    private long[] docIds = new long[1024];
+    private int[] docLengths = new int[1024];
+    private final BitSet deleted = new BitSet();
+    private int docCount;
+    private int liveCount;
+    private long totalLength;
+
+    /**
+     * 写入（或替换）一个片段的文本
+     */
+    public void add(long id, String content) {
+        Map<Object, Integer> termFrequencies = termFrequencies(content);
+        int length = 0;
+        for (int tf : termFrequencies.values()) {
+            length += tf;
+        }
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            if (termFrequencies.isEmpty()) {
+                return;
+            }
+            int doc = docCount++;
+            if (doc == docIds.length) {
+                docIds = Arrays.copyOf(docIds, doc * 2);
+                docLengths = Arrays.copyOf(docLengths, doc * 2);
+            }
+            docIds[doc] = id;
+            docLengths[doc] = length;
+            idToDoc.put(id, doc, -1);
+            liveCount++;
+            totalLength += length;
+            for (Map.Entry<Object, Integer> e : termFrequencies.entrySet()) {
+                postings.computeIfAbsent(e.getKey(), t -> new Postings()).append(doc, e.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            idToDoc.clear();
+            deleted.clear();
+            docIds = new long[1024];
+            docLengths = new int[1024];
+            docCount = 0;
+            liveCount = 0;
+            totalLength = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 已索引的有效片段数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 检索
+     * @param filter 片段ID过滤条件，为 null 时不限制
+     * @return 按 BM25 得分降序排列的结果
+     */
+    public List<SearchHit> search(String query, int k, LongPredicate filter) {
+        Map<Object, Integer> queryTerms = termFrequencies(query);
+        if (queryTerms.isEmpty() || k <= 0) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            if (liveCount == 0) {
+                return Collections.emptyList();
+            }
+            float avgLength = (float) totalLength / liveCount;
+            float[] scores = new float[docCount];
+            BitSet touched = new BitSet(docCount);
+            int[] docAndTf = new int[2];
+            for (Map.Entry<Object, Integer> e : queryTerms.entrySet()) {
+                Postings p = postings.get(e.getKey());
+                if (p == null) {
+                    continue;
+                }
+                float idf = (float) Math.log(1 + (liveCount - p.docFrequency + 0.5) / (p.docFrequency + 0.5));
+                float weight = idf * e.getValue();
+                int offset = 0;
+                int doc = 0;
+                while (offset < p.length) {
+                    offset = p.next(offset, docAndTf);
+                    doc += docAndTf[0];
+                    if (deleted.get(doc)) {
+                        continue;
+                    }
+                    int tf = docAndTf[1];
+                    float norm = K1 * (1 - B + B * docLengths[doc] / avgLength);
+                    scores[doc] += weight * tf * (K1 + 1) / (tf + norm);
+                    touched.set(doc);
+                }
+            }
+
+            TopKCollector top = new TopKCollector(k);
+            for (int doc = touched.nextSetBit(0); doc >= 0; doc = touched.nextSetBit(doc + 1)) {
+                if (filter == null || filter.test(docIds[doc])) {
+                    top.offer(doc, scores[doc]);
+                }
+            }
+            float[] topScores = new float[top.size()];
+            int[] docs = top.drainDescending(topScores);
+            List<SearchHit> hits = new ArrayList<>(docs.length);
+            for (int i = 0; i < docs.length; i++) {
+                hits.add(new SearchHit(docIds[docs[i]], topScores[i]));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeLocked(long id) {
+        int doc = idToDoc.remove(id, -1);
+        if (doc >= 0) {
+            deleted.set(doc);
+            liveCount--;
+            totalLength -= docLengths[doc];
+        }
+    }
+
+    /**
+     * 分词并统计词频
+     */
+    static Map<Object, Integer> termFrequencies(String text) {
+        Map<Object, Integer> tf = new HashMap<>();
+        if (text == null) {
+            return tf;
+        }
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            int cp = text.codePointAt(i);
+            if (isCjk(cp)) {
+                int count = 0;
+                int prev = -1;
+                while (i < n && isCjk(cp = text.codePointAt(i))) {
+                    if (prev >= 0) {
+                        tf.merge(gram(prev, cp), 1, Integer::sum);
+                    }
+                    prev = cp;
+                    i += Character.charCount(cp);
+                    count++;
+                }
+                if (count == 1) {
+                    tf.merge(gram(prev, -1), 1, Integer::sum);
+                }
+            } else if (Character.isLetterOrDigit(cp)) {
+                int start = i;
+                while (i < n && Character.isLetterOrDigit(cp = text.codePointAt(i)) && !isCjk(cp)) {
+                    i += Character.charCount(cp);
+                }
+                tf.merge(text.substring(start, i).toLowerCase(), 1, Integer::sum);
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+        return tf;
+    }
+
+    /**
+     * 中日韩字符二元组（second 为 -1 时表示单字）的词项键
+     */
+    private static Long gram(int first, int second) {
+        long pair = ((long) first << 32) | (second < 0 ? UNIGRAM_MARK : second);
+        return pair * MIX;
+    }
+
+    private static boolean isCjk(int cp) {
+        // 常用汉字区间直接判定，其余再查 Unicode 脚本
+        if (cp >= 0x4E00 && cp <= 0x9FFF) {
+            return true;
+        }
+        if (cp < 0x2E80) {
+            return false;
+        }
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    /**
+     * 单个词的倒排列表：varint 编码的（文档号差值，词频）序列
+     */
+    private static final class Postings {
+        private byte[] data = new byte[8];
+        private int length;
+        private int lastDoc;
+        private int docFrequency;
+
+        void append(int doc, int tf) {
+            if (length + 10 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            length = writeVarint(doc - lastDoc, length);
+            length = writeVarint(tf, length);
+            lastDoc = doc;
+            docFrequency++;
+        }
+
+        /**
+         * 从 offset 处解码一对（文档号差值，词频）
+         * @return 下一对的起始位置
+         */
+        int next(int offset, int[] out) {
+            for (int k = 0; k < 2; k++) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[offset++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                out[k] = value;
+            }
+            return offset;
+        }
+
+        private int writeVarint(int value, int offset) {
+            while ((value & ~0x7F) != 0) {
+                data[offset++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[offset++] = (byte) value;
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.example.chatbot.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 连续内存的向量存储：所有向量按序号（ordinal）依次存放在大块 float 数组中，
+ * 每块容纳 PAGE_SIZE 个向量，扩容时只追加新块，已写入的数据从不移动。
+ * 向量在写入时做 L2 归一化，检索打分只需一次点积。
+ *
+ * 写操作串行化；读操作无锁：每次写入后发布一个新的不可变快照（数据块引用 + 序号上界），
+ * 读线程只访问快照内序号小于 size 的数据。片段ID到序号的映射用乐观读查询，只在与写入冲突时才加读锁。
+ * 更新某个片段时旧序号被标记为墓碑（NO_ID），新向量追加到末尾，已发布的数据保持不可变。
+ *
+ * 检索可以附带一个允许序号的 BitSet（例如某个用户或某些文档的片段），扫描时只访问其中置位的序号。
+ * 序号集合随写入变化，调用方可以用 {@link #version()} 判断缓存的 BitSet 是否仍然有效。
+ *
+ * 由 {@link #withoutVectors()} 创建的存储只维护片段ID与序号的分配关系，不在堆内保存向量数据
+ * （例如 int8 模式下原始向量只保存在向量文件中），此时不能读取向量或做精确检索。
+ */
+public class FlatVectorStore {
+
+    /** 已删除或被覆盖的序号对应的片段ID */
+    public static final long NO_ID = -1L;
+
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    // 并行扫描时单个分片的最大序号数
+    private static final int PARALLEL_SPLIT_SIZE = 8 * PAGE_SIZE;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile int liveCount;
+    // 每次序号分配关系变化（写入、删除、清空）时递增
+    private volatile long version;
+
+    // 片段ID -> 当前有效序号；在 synchronized 写方法内修改，修改时另持有 idLock 的写锁供 ordinalOf 校验
+    private final LongIntHashMap idToOrdinal = new LongIntHashMap(PAGE_SIZE);
+    private final StampedLock idLock = new StampedLock();
+    private final boolean storesVectors;
+
+    public FlatVectorStore() {
+        this(true);
+    }
+
+    private FlatVectorStore(boolean storesVectors) {
+        this.storesVectors = storesVectors;
+    }
+
+    /**
+     * 只分配序号、不保存向量数据的存储，写入的向量仍做零向量和维度检查
+     */
+    public static FlatVectorStore withoutVectors() {
+        return new FlatVectorStore(false);
+    }
+
+    /**
+     * 是否在堆内保存了向量数据
+     */
+    public boolean storesVectors() {
+        return storesVectors;
+    }
+
+    /**
+     * 写入（或覆盖）一个片段的向量
+     * @return 分配的序号；零向量返回 -1
+     * @throws IllegalArgumentException 维度与已有向量不一致
+     */
+    public synchronized int add(long id, float[] vector) {
+        float[] normalized = VectorOps.normalize(vector);
+        if (normalized == null) {
+            return -1;
+        }
+        Snapshot s = snapshot;
+        int dim = s.dimension == -1 ? normalized.length : s.dimension;
+        if (dim != normalized.length) {
+            throw new IllegalArgumentException("向量维度不一致：存储为 " + dim + "，写入为 " + normalized.length);
+        }
+
+        int ordinal = s.size;
+        int page = ordinal >>> PAGE_SHIFT;
+        float[][] pages = s.pages;
+        long[][] idPages = s.idPages;
+        if (page == pages.length) {
+            pages = Arrays.copyOf(pages, page + 1);
+            idPages = Arrays.copyOf(idPages, page + 1);
+            if (storesVectors) {
+                pages[page] = new float[PAGE_SIZE * dim];
+            }
+            idPages[page] = new long[PAGE_SIZE];
+        }
+        if (storesVectors) {
+            System.arraycopy(normalized, 0, pages[page], (ordinal & PAGE_MASK) * dim, dim);
+        }
+        idPages[page][ordinal & PAGE_MASK] = id;
+
+        int previous;
+        long stamp = idLock.writeLock();
+        try {
+            previous = idToOrdinal.put(id, ordinal, -1);
+        } finally {
+            idLock.unlockWrite(stamp);
+        }
+        if (previous >= 0) {
+            setId(s, previous, NO_ID);
+        } else {
+            liveCount++;
+        }
+        // 最后发布快照，保证读线程看到完整的向量数据
+        snapshot = new Snapshot(pages, idPages, dim, ordinal + 1);
+        version++;
+        return ordinal;
+    }
+
+    /**
+     * 删除某个片段的向量（序号保留为墓碑）
+     */
+    public synchronized boolean remove(long id) {
+        int ordinal;
+        long stamp = idLock.writeLock();
+        try {
+            ordinal = idToOrdinal.remove(id, -1);
+        } finally {
+            idLock.unlockWrite(stamp);
+        }
+        if (ordinal < 0) {
+            return false;
+        }
+        setId(snapshot, ordinal, NO_ID);
+        liveCount--;
+        version++;
+        return true;
+    }
+
+    /**
+     * 清空所有向量（例如切换嵌入模型、维度变化后重建）
+     */
+    public synchronized void clear() {
+        snapshot = Snapshot.EMPTY;
+        liveCount = 0;
+        long stamp = idLock.writeLock();
+        try {
+            idToOrdinal.clear();
+        } finally {
+            idLock.unlockWrite(stamp);
+        }
+        version++;
+    }
+
+    /**
+     * 把版本号推进到大于 previous：后台重建的存储替换旧存储时调用，保证切换前后版本号单调递增
+     */
+    public synchronized void advanceVersionPast(long previous) {
+        if (version <= previous) {
+            version = previous + 1;
+        }
+    }
+
+    /**
+     * 序号分配关系的版本号，基于序号构建的过滤集合在版本变化后需要重建
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return 片段当前的序号，不存在时返回 -1
+     */
+    public int ordinalOf(long id) {
+        long stamp = idLock.tryOptimisticRead();
+        int ordinal = idToOrdinal.getOptimistic(id, -1);
+        if (idLock.validate(stamp)) {
+            return ordinal;
+        }
+        stamp = idLock.readLock();
+        try {
+            return idToOrdinal.get(id, -1);
+        } finally {
+            idLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 有效向量数量（不含墓碑）
+     */
+    public int size() {
+        return liveCount;
+    }
+
+    /**
+     * 已分配的序号数量（包括墓碑），可用作遍历上界
+     */
+    public int ordinalCount() {
+        return snapshot.size;
+    }
+
+    public int dimension() {
+        return snapshot.dimension;
+    }
+
+    /**
+     * @return 序号对应的片段ID，已删除时返回 NO_ID
+     */
+    public long idAt(int ordinal) {
+        return snapshot.idAt(ordinal);
+    }
+
+    /**
+     * 归一化查询向量与某个序号向量的点积（即余弦相似度）
+     */
+    public float dot(float[] normalizedQuery, int ordinal) {
+        return snapshot.dot(normalizedQuery, ordinal);
+    }
+
+    /**
+     * 两个已存储向量之间的点积
+     */
+    public float dot(int ordinalA, int ordinalB) {
+        Snapshot s = snapshot;
+        int dim = s.dimension;
+        float[] pageA = s.pages[ordinalA >>> PAGE_SHIFT];
+        float[] pageB = s.pages[ordinalB >>> PAGE_SHIFT];
+        return VectorOps.dot(pageA, (ordinalA & PAGE_MASK) * dim, pageB, (ordinalB & PAGE_MASK) * dim, dim);
+    }
+
+    /**
+     * 复制出某个序号的（已归一化）向量
+     */
+    public float[] vector(int ordinal) {
+        checkStoresVectors();
+        Snapshot s = snapshot;
+        float[] result = new float[s.dimension];
+        System.arraycopy(s.pages[ordinal >>> PAGE_SHIFT], (ordinal & PAGE_MASK) * s.dimension, result, 0, s.dimension);
+        return result;
+    }
+
+    /**
+     * 精确暴力检索：在当前线程顺序扫描所有有效向量
+     * @return 按相似度降序排列的 Top-K 结果
+     */
+    public List<SearchHit> searchExact(float[] queryVector, int k, float minSimilarity) {
+        return searchExact(queryVector, k, minSimilarity, null);
+    }
+
+    /**
+     * 精确并行检索：把序号区间切分到 ForkJoin 线程池中扫描，
+     * 每个分片维护容量为 K 的最小堆并提前应用相似度阈值，最后合并各分片的堆。
+     * @param pool 执行扫描的线程池，为 null 时在当前线程顺序扫描
+     * @return 按相似度降序排列的 Top-K 结果
+     */
+    public List<SearchHit> searchExact(float[] queryVector, int k, float minSimilarity, ForkJoinPool pool) {
+        return searchExact(queryVector, k, minSimilarity, null, pool);
+    }
+
+    /**
+     * 限定范围的精确检索：只扫描 allowed 中置位的序号，范围越小扫描越快
+     * @param allowed 允许参与检索的序号集合，为 null 时扫描全部向量
+     * @param pool 执行扫描的线程池，为 null 时在当前线程顺序扫描
+     * @return 按相似度降序排列的 Top-K 结果
+     */
+    public List<SearchHit> searchExact(float[] queryVector, int k, float minSimilarity, BitSet allowed,
+                                       ForkJoinPool pool) {
+        checkStoresVectors();
+        Snapshot s = snapshot;
+        float[] query = VectorOps.normalize(queryVector);
+        if (query == null || s.size == 0 || k <= 0 || query.length != s.dimension) {
+            return Collections.emptyList();
+        }
+
+        int candidates = allowed == null ? s.size : allowed.cardinality();
+        TopKCollector top;
+        if (pool == null || candidates <= PARALLEL_SPLIT_SIZE) {
+            top = new TopKCollector(k);
+            scan(s, query, minSimilarity, allowed, 0, s.size, top);
+        } else {
+            top = pool.invoke(new ScanTask(s, query, k, minSimilarity, allowed, 0, s.size));
+        }
+        return toHits(s, top);
+    }
+
+    /**
+     * 扫描 [from, to) 区间内的有效向量，内层循环不分配对象
+     */
+    private static void scan(Snapshot s, float[] query, float minSimilarity, BitSet allowed,
+                             int from, int to, TopKCollector top) {
+        if (allowed == null) {
+            for (int ordinal = from; ordinal < to; ordinal++) {
+                offer(s, query, minSimilarity, ordinal, top);
+            }
+            return;
+        }
+        for (int ordinal = allowed.nextSetBit(from); ordinal >= 0 && ordinal < to;
+             ordinal = allowed.nextSetBit(ordinal + 1)) {
+            offer(s, query, minSimilarity, ordinal, top);
+        }
+    }
+
+    private static void offer(Snapshot s, float[] query, float minSimilarity, int ordinal, TopKCollector top) {
+        if (s.idAt(ordinal) == NO_ID) {
+            return;
+        }
+        float score = s.dot(query, ordinal);
+        if (score >= minSimilarity) {
+            top.offer(ordinal, score);
+        }
+    }
+
+    private static List<SearchHit> toHits(Snapshot s, TopKCollector top) {
+        float[] scores = new float[top.size()];
+        int[] ordinals = top.drainDescending(scores);
+        List<SearchHit> hits = new ArrayList<>(ordinals.length);
+        for (int i = 0; i < ordinals.length; i++) {
+            long id = s.idAt(ordinals[i]);
+            // 扫描期间可能被并发删除
+            if (id != NO_ID) {
+                hits.add(new SearchHit(id, scores[i]));
+            }
+        }
+        return hits;
+    }
+
+    private void checkStoresVectors() {
+        if (!storesVectors) {
+            throw new IllegalStateException("该存储不保存向量数据");
+        }
+    }
+
+    private static void setId(Snapshot s, int ordinal, long id) {
+        s.idPages[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK] = id;
+    }
+
+    /**
+     * 并行扫描任务：区间足够小时直接扫描，否则二分后分别执行并合并两侧的 Top-K
+     */
+    private static final class ScanTask extends RecursiveTask<TopKCollector> {
+        private final Snapshot snapshot;
+        private final float[] query;
+        private final int k;
+        private final float minSimilarity;
+        private final BitSet allowed;
+        private final int from;
+        private final int to;
+
+        ScanTask(Snapshot snapshot, float[] query, int k, float minSimilarity, BitSet allowed, int from, int to) {
+            this.snapshot = snapshot;
+            this.query = query;
+            this.k = k;
+            this.minSimilarity = minSimilarity;
+            this.allowed = allowed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopKCollector compute() {
+            if (to - from <= PARALLEL_SPLIT_SIZE) {
+                TopKCollector top = new TopKCollector(k);
+                scan(snapshot, query, minSimilarity, allowed, from, to, top);
+                return top;
+            }
+            int mid = (from + to) >>> 1;
+            ScanTask left = new ScanTask(snapshot, query, k, minSimilarity, allowed, from, mid);
+            left.fork();
+            TopKCollector right = new ScanTask(snapshot, query, k, minSimilarity, allowed, mid, to).compute();
+            TopKCollector merged = left.join();
+            merged.merge(right);
+            return merged;
+        }
+    }
+
+    /**
+     * 不可变的存储快照：数据块引用、维度和已发布的序号上界
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new float[0][], new long[0][], -1, 0);
+
+        final float[][] pages;
+        final long[][] idPages;
+        final int dimension;
+        final int size;
+
+        Snapshot(float[][] pages, long[][] idPages, int dimension, int size) {
+            this.pages = pages;
+            this.idPages = idPages;
+            this.dimension = dimension;
+            this.size = size;
+        }
+
+        long idAt(int ordinal) {
+            return idPages[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK];
+        }
+
+        float dot(float[] normalizedQuery, int ordinal) {
+            float[] page = pages[ordinal >>> PAGE_SHIFT];
+            return VectorOps.dot(normalizedQuery, 0, page, (ordinal & PAGE_MASK) * dimension, dimension);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.example.chatbot.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * HNSW（分层可导航小世界图）近似最近邻索引。
+ * 图节点与 {@link FlatVectorStore} 的序号一一对应，向量本身只存放在存储中，
+ * 图上的相似度即归一化向量的点积（等价于余弦相似度）。
+ * 支持多线程并发插入：节点邻接表按节点加锁，只有产生新的最高层时才持有全局锁。
+ * 存储中被覆盖或删除的序号（墓碑）仍参与图遍历，但检索时不进入候选结果集，不占用 ef 个名额。
+ */
+public class HnswIndex {
+
+    private static final Comparator<Candidate> BY_SCORE_DESC = (a, b) -> Float.compare(b.score, a.score);
+    private static final Comparator<Candidate> BY_SCORE_ASC = (a, b) -> Float.compare(a.score, b.score);
+
+    // 每个节点在第 1 层及以上的最大邻居数
+    private final int m;
+    // 第 0 层的最大邻居数（通常为 2M）
+    private final int maxM0;
+    // 构建时的候选集大小
+    private final int efConstruction;
+    // 查询时的候选集大小，可在运行时调整
+    private volatile int efSearch;
+    // 随机层数的归一化因子 1/ln(M)
+    private final double levelMultiplier;
+
+    private final FlatVectorStore store;
+    private final Object growLock = new Object();
+    private final ReentrantLock globalLock = new ReentrantLock();
+    private volatile Node[] nodes = new Node[1024];
+    private int nodeCount = 0;
+    private volatile Node entryPoint;
+
+    public HnswIndex(FlatVectorStore store, int m, int efConstruction, int efSearch) {
+        if (m < 2) {
+            throw new IllegalArgumentException("HNSW 参数 M 必须不小于 2");
+        }
+        this.store = store;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = Math.max(efSearch, 1);
+        this.levelMultiplier = 1.0 / Math.log(m);
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = Math.max(efSearch, 1);
+    }
+
+    /**
+     * 图中的节点数量（包括已成为墓碑的节点）
+     */
+    public int size() {
+        synchronized (growLock) {
+            return nodeCount;
+        }
+    }
+
+    /**
+     * 图中墓碑节点的比例（存储中已删除或被覆盖的序号）。墓碑只用于导航，比例过高时图的连通性变差、召回率下降，
+     * 调用方应基于当前存储重新构建索引
+     */
+    public double tombstoneRatio() {
+        int nodes = size();
+        return nodes == 0 ? 0 : Math.max(0, 1.0 - (double) store.size() / nodes);
+    }
+
+    /**
+     * 把存储中的某个序号加入图索引，已存在的序号直接忽略
+     * @return 是否新插入了节点
+     */
+    public boolean add(int ordinal) {
+        Node node = allocate(ordinal, randomLevel());
+        if (node == null) {
+            return false;
+        }
+
+        // 新节点层数超过当前最高层时，需要独占全局锁以便最后替换入口点
+        boolean globallyLocked = false;
+        Node ep = entryPoint;
+        if (ep == null || node.level > ep.level) {
+            globalLock.lock();
+            globallyLocked = true;
+            ep = entryPoint;
+            if (ep == null) {
+                entryPoint = node;
+                globalLock.unlock();
+                return true;
+            }
+            if (node.level <= ep.level) {
+                globalLock.unlock();
+                globallyLocked = false;
+            }
+        }
+
+        try {
+            float[] vector = store.vector(ordinal);
+            Candidate current = new Candidate(ep.ordinal, store.dot(vector, ep.ordinal));
+            for (int level = ep.level; level > node.level; level--) {
+                current = greedySearch(vector, current, level);
+            }
+            for (int level = Math.min(node.level, ep.level); level >= 0; level--) {
+                List<Candidate> found = searchLayer(vector, current, efConstruction, level);
+                int maxLinks = level == 0 ? maxM0 : m;
+                List<Candidate> selected = selectNeighbors(found, m);
+                for (Candidate c : selected) {
+                    // 并发插入的节点可能已把自己连到新节点上，新节点的邻接表同样经过有界、可剪枝的路径写入
+                    Node neighbor = nodeAt(c.ordinal);
+                    connect(node, neighbor, level, maxLinks);
+                    connect(neighbor, node, level, maxLinks);
+                }
+                current = found.get(0);
+            }
+            if (globallyLocked) {
+                entryPoint = node;
+            }
+        } finally {
+            if (globallyLocked) {
+                globalLock.unlock();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 清空索引（例如切换嵌入模型后重建）
+     */
+    public void clear() {
+        globalLock.lock();
+        try {
+            synchronized (growLock) {
+                nodes = new Node[1024];
+                nodeCount = 0;
+                entryPoint = null;
+            }
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
+    /**
+     * 近似检索与查询向量最相似的 Top-K 片段
+     * @param queryVector 查询向量（无需预先归一化）
+     * @param k 返回数量
+     * @param minSimilarity 最低相似度阈值
+     * @return 按相似度降序排列的结果
+     */
+    public List<SearchHit> search(float[] queryVector, int k, float minSimilarity) {
+        return search(queryVector, k, minSimilarity, null);
+    }
+
+    /**
+     * 限定范围的近似检索：图遍历仍经过所有节点，但只有 allowed 中的序号进入结果集。
+     * 允许集合很小时遍历的节点数会大幅增加，此时应改用 {@link FlatVectorStore} 的精确检索。
+     * @param allowed 允许返回的序号集合，为 null 时不限制
+     */
+    public List<SearchHit> search(float[] queryVector, int k, float minSimilarity, BitSet allowed) {
+        float[] query = VectorOps.normalize(queryVector);
+        Node ep = entryPoint;
+        if (query == null || ep == null || k <= 0 || query.length != store.dimension()) {
+            return Collections.emptyList();
+        }
+
+        Candidate current = new Candidate(ep.ordinal, store.dot(query, ep.ordinal));
+        for (int level = ep.level; level > 0; level--) {
+            current = greedySearch(query, current, level);
+        }
+        List<Candidate> found = searchLayer(query, current, Math.max(efSearch, k), 0, allowed, true);
+
+        List<SearchHit> hits = new ArrayList<>(k);
+        for (Candidate c : found) {
+            if (c.score < minSimilarity || hits.size() >= k) {
+                break;
+            }
+            // 遍历结束后序号仍可能被并发删除
+            long id = store.idAt(c.ordinal);
+            if (id != FlatVectorStore.NO_ID) {
+                hits.add(new SearchHit(id, c.score));
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 在某一层上贪心移动到与查询最接近的节点
+     */
+    private Candidate greedySearch(float[] query, Candidate start, int level) {
+        Candidate current = start;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int neighbor : neighbors(nodeAt(current.ordinal), level)) {
+                float score = store.dot(query, neighbor);
+                if (score > current.score) {
+                    current = new Candidate(neighbor, score);
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 单层束搜索，返回按相似度降序排列的最多 ef 个候选
+     */
+    private List<Candidate> searchLayer(float[] query, Candidate entry, int ef, int level) {
+        return searchLayer(query, entry, ef, level, null, false);
+    }
+
+    /**
+     * @param allowed 只有其中的序号进入结果集（不在其中的节点仍用于导航），为 null 时不限制
+     * @param liveOnly 墓碑序号只用于导航、不进入结果集（检索时使用；构建时墓碑仍可作为邻居）
+     */
+    private List<Candidate> searchLayer(float[] query, Candidate entry, int ef, int level, BitSet allowed,
+                                        boolean liveOnly) {
+        BitSet visited = new BitSet(store.ordinalCount());
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(BY_SCORE_DESC);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(BY_SCORE_ASC);
+        visited.set(entry.ordinal);
+        candidates.add(entry);
+        if (admissible(entry.ordinal, allowed, liveOnly)) {
+            results.add(entry);
+        }
+
+        while (!candidates.isEmpty()) {
+            Candidate c = candidates.poll();
+            if (results.size() >= ef && c.score < results.peek().score) {
+                break;
+            }
+            for (int neighbor : neighbors(nodeAt(c.ordinal), level)) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float score = store.dot(query, neighbor);
+                if (results.size() < ef || score > results.peek().score) {
+                    Candidate next = new Candidate(neighbor, score);
+                    candidates.add(next);
+                    if (admissible(neighbor, allowed, liveOnly)) {
+                        results.add(next);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(BY_SCORE_DESC);
+        return sorted;
+    }
+
+    private boolean admissible(int ordinal, BitSet allowed, boolean liveOnly) {
+        return (allowed == null || allowed.get(ordinal))
+                && (!liveOnly || store.idAt(ordinal) != FlatVectorStore.NO_ID);
+    }
+
+    /**
+     * 启发式邻居选择：优先保留彼此方向差异较大的候选，不足 max 时用被剪掉的候选补齐
+     * @param candidates 按与基准向量相似度降序排列的候选
+     */
+    private List<Candidate> selectNeighbors(List<Candidate> candidates, int max) {
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> pruned = new ArrayList<>();
+        for (Candidate c : candidates) {
+            if (selected.size() >= max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Candidate s : selected) {
+                if (store.dot(c.ordinal, s.ordinal) > c.score) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(c);
+            } else {
+                pruned.add(c);
+            }
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < max; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * 把新节点加入已有邻居的邻接表（已存在时忽略），溢出时按启发式重新挑选
+     */
+    private void connect(Node neighbor, Node newNode, int level, int maxLinks) {
+        synchronized (neighbor) {
+            int count = neighbor.linkCounts[level];
+            int[] links = neighbor.links[level];
+            for (int i = 0; i < count; i++) {
+                if (links[i] == newNode.ordinal) {
+                    return;
+                }
+            }
+            if (count < maxLinks) {
+                links[count] = newNode.ordinal;
+                neighbor.linkCounts[level] = count + 1;
+                return;
+            }
+            List<Candidate> all = new ArrayList<>(count + 1);
+            for (int i = 0; i < count; i++) {
+                all.add(new Candidate(links[i], store.dot(neighbor.ordinal, links[i])));
+            }
+            all.add(new Candidate(newNode.ordinal, store.dot(neighbor.ordinal, newNode.ordinal)));
+            all.sort(BY_SCORE_DESC);
+            List<Candidate> kept = selectNeighbors(all, maxLinks);
+            for (int i = 0; i < kept.size(); i++) {
+                links[i] = kept.get(i).ordinal;
+            }
+            neighbor.linkCounts[level] = kept.size();
+        }
+    }
+
+    private int[] neighbors(Node node, int level) {
+        synchronized (node) {
+            return Arrays.copyOf(node.links[level], node.linkCounts[level]);
+        }
+    }
+
+    /**
+     * 为序号分配图节点，序号已在图中时返回 null
+     */
+    private Node allocate(int ordinal, int level) {
+        synchronized (growLock) {
+            Node[] current = nodes;
+            if (ordinal >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, ordinal + 1));
+                nodes = current;
+            } else if (current[ordinal] != null) {
+                return null;
+            }
+            Node node = new Node(ordinal, level, m, maxM0);
+            current[ordinal] = node;
+            nodeCount++;
+            return node;
+        }
+    }
+
+    private Node nodeAt(int ordinal) {
+        return nodes[ordinal];
+    }
+
+    private int randomLevel() {
+        double r = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return (int) (-Math.log(r) * levelMultiplier);
+    }
+
+    private record Candidate(int ordinal, float score) {
+    }
+
+    private static final class Node {
+        final int ordinal;
+        final int level;
+        final int[][] links;
+        final int[] linkCounts;
+
+        Node(int ordinal, int level, int m, int maxM0) {
+            this.ordinal = ordinal;
+            this.level = level;
+            this.links = new int[level + 1][];
+            this.linkCounts = new int[level + 1];
+            for (int l = 0; l <= level; l++) {
+                links[l] = new int[l == 0 ? maxM0 : m];
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.chatbot.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * IVF（倒排文件）索引：用 k-means 把向量划分到 nlist 个簇，每个簇维护一个倒排列表（存储序号），
+ * 查询时只扫描与查询最接近的 nprobe 个簇。
+ *
+ * 可选乘积量化：倒排列表中同时保存向量相对簇中心残差的 PQ 编码，
+ * 候选阶段用查表近似打分，再对 K × rescoreFactor 个候选用原始向量精确重打分。
+ *
+ * 索引通过 {@link #build} 一次性训练并装入当前存储中的全部向量，之后新增的向量按最近中心追加；
+ * 语料规模显著变化后应重新调用 build 训练新的中心，再整体替换旧索引。
+ */
+public class IvfIndex {
+
+    private static final Logger logger = Logger.getLogger(IvfIndex.class.getName());
+
+    private static final int KMEANS_ITERATIONS = 10;
+    // 每个簇至少需要的训练样本数
+    private static final int MIN_POINTS_PER_LIST = 32;
+    // 训练样本上限，避免在超大语料上训练过慢
+    private static final int MAX_TRAINING_SAMPLES = 100_000;
+
+    private final FlatVectorStore store;
+    private final float[][] centroids;
+    private final float[] centroidNorms;
+    private final PostingList[] lists;
+    private final ProductQuantizer pq;
+    private volatile int nprobe;
+    private final int rescoreFactor;
+    // 已分配到倒排列表的序号，防止重建替换期间同一序号被追加两次
+    private final BitSet assigned = new BitSet();
+    // 训练时的有效向量数
+    private int trainedSize;
+
+    private IvfIndex(FlatVectorStore store, float[][] centroids, ProductQuantizer pq, int nprobe, int rescoreFactor) {
+        this.store = store;
+        this.centroids = centroids;
+        this.centroidNorms = KMeans.squaredNorms(centroids);
+        this.pq = pq;
+        this.nprobe = Math.max(1, nprobe);
+        this.rescoreFactor = Math.max(1, rescoreFactor);
+        this.lists = new PostingList[centroids.length];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = new PostingList(pq != null ? pq.codeSize() : 0);
+        }
+    }
+
+    /**
+     * 在当前存储上训练并构建 IVF 索引
+     * @param nlist 簇数量，0 表示按 4√N 自动选择
+     * @param pqSubspaces PQ 子空间数，0 表示不使用 PQ
+     * @return 存储为空时返回 null
+     */
+    public static IvfIndex build(FlatVectorStore store, int nlist, int nprobe,
+                                 int pqSubspaces, int rescoreFactor, long seed) {
+        int n = store.ordinalCount();
+        if (store.size() == 0) {
+            return null;
+        }
+        Random random = new Random(seed);
+        if (nlist <= 0) {
+            nlist = (int) (4 * Math.sqrt(store.size()));
+        }
+        nlist = Math.max(1, Math.min(nlist, store.size() / MIN_POINTS_PER_LIST));
+
+        float[][] samples = sample(store, n, Math.min(MAX_TRAINING_SAMPLES, Math.max(nlist * 256, 10_000)), random);
+        float[][] centroids = KMeans.train(samples, nlist, KMEANS_ITERATIONS, true, random);
+
+        ProductQuantizer pq = null;
+        if (pqSubspaces > 0) {
+            try {
+                float[] norms = KMeans.squaredNorms(centroids);
+                float[][] residuals = new float[samples.length][];
+                for (int i = 0; i < samples.length; i++) {
+                    residuals[i] = residual(samples[i], centroids[KMeans.nearest(samples[i], centroids, norms)]);
+                }
+                pq = ProductQuantizer.train(residuals, pqSubspaces, KMEANS_ITERATIONS, random);
+            } catch (IllegalArgumentException e) {
+                logger.warning("PQ 训练跳过: " + e.getMessage());
+            }
+        }
+
+        IvfIndex index = new IvfIndex(store, centroids, pq, nprobe, rescoreFactor);
+        index.trainedSize = samples.length == 0 ? 0 : store.size();
+        for (int ordinal = 0; ordinal < n; ordinal++) {
+            if (store.idAt(ordinal) != FlatVectorStore.NO_ID) {
+                index.add(ordinal);
+            }
+        }
+        return index;
+    }
+
+    public int nlist() {
+        return centroids.length;
+    }
+
+    /**
+     * 训练时的有效向量数，可据此判断语料增长后是否需要重建
+     */
+    public int trainedSize() {
+        return trainedSize;
+    }
+
+    public boolean usesProductQuantization() {
+        return pq != null;
+    }
+
+    public void setNprobe(int nprobe) {
+        this.nprobe = Math.max(1, nprobe);
+    }
+
+    /**
+     * 把存储中的某个序号分配到最近的簇
+     * @return 该序号此前已分配过时返回 false
+     */
+    public boolean add(int ordinal) {
+        synchronized (assigned) {
+            if (assigned.get(ordinal)) {
+                return false;
+            }
+            assigned.set(ordinal);
+        }
+        float[] vector = store.vector(ordinal);
+        int list = KMeans.nearest(vector, centroids, centroidNorms);
+        byte[] code = null;
+        if (pq != null) {
+            code = new byte[pq.codeSize()];
+            pq.encode(residual(vector, centroids[list]), code, 0);
+        }
+        lists[list].append(ordinal, code);
+        return true;
+    }
+
+    /**
+     * 检索最相似的 Top-K 片段
+     * @return 按相似度降序排列的结果，得分为精确余弦相似度
+     */
+    public List<SearchHit> search(float[] queryVector, int k, float minSimilarity) {
+        return search(queryVector, k, minSimilarity, null);
+    }
+
+    /**
+     * 限定范围的检索，倒排列表扫描时跳过不在 allowed 中的序号
+     * @param allowed 允许参与检索的序号集合，为 null 时不限制
+     */
+    public List<SearchHit> search(float[] queryVector, int k, float minSimilarity, BitSet allowed) {
+        float[] query = VectorOps.normalize(queryVector);
+        if (query == null || k <= 0 || query.length != store.dimension()) {
+            return Collections.emptyList();
+        }
+
+        // 选出与查询点积最大的 nprobe 个簇
+        int probes = Math.min(nprobe, centroids.length);
+        TopKCollector nearestLists = new TopKCollector(probes);
+        for (int c = 0; c < centroids.length; c++) {
+            nearestLists.offer(c, VectorOps.dot(query, centroids[c]));
+        }
+        float[] listScores = new float[probes];
+        int[] probed = nearestLists.drainDescending(listScores);
+
+        TopKCollector top;
+        if (pq == null) {
+            top = new TopKCollector(k);
+            for (int list : probed) {
+                lists[list].scanExact(store, query, minSimilarity, allowed, top);
+            }
+        } else {
+            float[] table = pq.lookupTable(query);
+            top = new TopKCollector(Math.max(k, k * rescoreFactor));
+            for (int i = 0; i < probed.length; i++) {
+                lists[probed[i]].scanApproximate(store, pq, table, listScores[i], allowed, top);
+            }
+        }
+
+        float[] scores = new float[top.size()];
+        int[] ordinals = top.drainDescending(scores);
+        List<SearchHit> hits = new ArrayList<>(ordinals.length);
+        for (int i = 0; i < ordinals.length; i++) {
+            long id = store.idAt(ordinals[i]);
+            if (id == FlatVectorStore.NO_ID) {
+                continue;
+            }
+            float score = pq == null ? scores[i] : store.dot(query, ordinals[i]);
+            if (score >= minSimilarity) {
+                hits.add(new SearchHit(id, score));
+            }
+        }
+        if (pq != null) {
+            hits.sort((a, b) -> Float.compare(b.score(), a.score()));
+            if (hits.size() > k) {
+                hits = new ArrayList<>(hits.subList(0, k));
+            }
+        }
+        return hits;
+    }
+
+    private static float[][] sample(FlatVectorStore store, int n, int maxSamples, Random random) {
+        int[] live = new int[store.size()];
+        int count = 0;
+        for (int ordinal = 0; ordinal < n && count < live.length; ordinal++) {
+            if (store.idAt(ordinal) != FlatVectorStore.NO_ID) {
+                live[count++] = ordinal;
+            }
+        }
+        int sampleSize = Math.min(count, maxSamples);
+        // 部分 Fisher-Yates 洗牌，取前 sampleSize 个
+        for (int i = 0; i < sampleSize; i++) {
+            int j = i + random.nextInt(count - i);
+            int tmp = live[i];
+            live[i] = live[j];
+            live[j] = tmp;
+        }
+        float[][] samples = new float[sampleSize][];
+        for (int i = 0; i < sampleSize; i++) {
+            samples[i] = store.vector(live[i]);
+        }
+        return samples;
+    }
+
+    private static float[] residual(float[] vector, float[] centroid) {
+        float[] r = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            r[i] = vector[i] - centroid[i];
+        }
+        return r;
+    }
+
+    /**
+     * 单个簇的倒排列表。追加串行化；读线程先读 volatile 的 size，再访问数组中 size 以内的元素。
+     */
+    private static final class PostingList {
+        private final int codeSize;
+        private int[] ordinals = new int[16];
+        private byte[] codes;
+        private volatile int size;
+
+        PostingList(int codeSize) {
+            this.codeSize = codeSize;
+            this.codes = new byte[16 * codeSize];
+        }
+
+        synchronized void append(int ordinal, byte[] code) {
+            int n = size;
+            if (n == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, n * 2);
+                codes = Arrays.copyOf(codes, n * 2 * codeSize);
+            }
+            ordinals[n] = ordinal;
+            if (code != null) {
+                System.arraycopy(code, 0, codes, n * codeSize, codeSize);
+            }
+            size = n + 1;
+        }
+
+        void scanExact(FlatVectorStore store, float[] query, float minSimilarity, BitSet allowed,
+                       TopKCollector top) {
+            int n = size;
+            int[] ords = ordinals;
+            for (int i = 0; i < n; i++) {
+                int ordinal = ords[i];
+                if ((allowed != null && !allowed.get(ordinal)) || store.idAt(ordinal) == FlatVectorStore.NO_ID) {
+                    continue;
+                }
+                float score = store.dot(query, ordinal);
+                if (score >= minSimilarity) {
+                    top.offer(ordinal, score);
+                }
+            }
+        }
+
+        /**
+         * 近似得分 = 查询·簇中心 + 查询·残差（PQ 查表）
+         */
+        void scanApproximate(FlatVectorStore store, ProductQuantizer pq, float[] table, float centroidScore,
+                             BitSet allowed, TopKCollector top) {
+            int n = size;
+            int[] ords = ordinals;
+            byte[] c = codes;
+            for (int i = 0; i < n; i++) {
+                int ordinal = ords[i];
+                if ((allowed != null && !allowed.get(ordinal)) || store.idAt(ordinal) == FlatVectorStore.NO_ID) {
+                    continue;
+                }
+                top.offer(ordinal, centroidScore + pq.score(table, c, i * codeSize));
+            }
+        }
+    }
+}
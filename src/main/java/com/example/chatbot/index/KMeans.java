@@ -0,0 +1,104 @@
+package com.example.chatbot.index;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Lloyd k-means（欧氏距离），用于训练 IVF 粗量化中心和 PQ 码本
+ */
+final class KMeans {
+
+    private KMeans() {
+    }
+
+    /**
+     * @param points 训练样本，每行一个向量
+     * @param k 聚类中心数量
+     * @param iterations 迭代次数
+     * @param normalizeCentroids 是否把中心归一化到单位球面（用于余弦相似度的粗量化）
+     * @return k 个聚类中心
+     */
+    static float[][] train(float[][] points, int k, int iterations, boolean normalizeCentroids, Random random) {
+        int n = points.length;
+        int dim = points[0].length;
+        k = Math.min(k, n);
+
+        // 随机挑选 k 个不同样本作为初始中心
+        float[][] centroids = new float[k][];
+        int[] perm = IntStream.range(0, n).toArray();
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(n - i);
+            int tmp = perm[i];
+            perm[i] = perm[j];
+            perm[j] = tmp;
+            centroids[i] = points[perm[i]].clone();
+        }
+
+        int[] assignment = new int[n];
+        for (int iter = 0; iter < iterations; iter++) {
+            float[][] current = centroids;
+            float[] norms = squaredNorms(current);
+            IntStream.range(0, n).parallel().forEach(i -> assignment[i] = nearest(points[i], current, norms));
+
+            float[][] sums = new float[k][dim];
+            int[] counts = new int[k];
+            for (int i = 0; i < n; i++) {
+                float[] sum = sums[assignment[i]];
+                float[] p = points[i];
+                for (int d = 0; d < dim; d++) {
+                    sum[d] += p[d];
+                }
+                counts[assignment[i]]++;
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    // 空簇：重新随机取一个样本作为中心
+                    sums[c] = points[random.nextInt(n)].clone();
+                } else {
+                    for (int d = 0; d < dim; d++) {
+                        sums[c][d] /= counts[c];
+                    }
+                }
+                if (normalizeCentroids) {
+                    float[] normalized = VectorOps.normalize(sums[c]);
+                    if (normalized != null) {
+                        sums[c] = normalized;
+                    }
+                }
+            }
+            centroids = sums;
+        }
+        return centroids;
+    }
+
+    static float[] squaredNorms(float[][] centroids) {
+        float[] norms = new float[centroids.length];
+        for (int c = 0; c < centroids.length; c++) {
+            norms[c] = VectorOps.dot(centroids[c], centroids[c]);
+        }
+        return norms;
+    }
+
+    /**
+     * 最近中心：argmin ||x - c||² = argmin (||c||² - 2 x·c)
+     */
+    static int nearest(float[] x, float[][] centroids, float[] squaredNorms) {
+        return nearest(x, 0, x.length, centroids, squaredNorms);
+    }
+
+    /**
+     * 对向量的 [offset, offset + length) 子区间求最近中心（PQ 子空间编码使用）
+     */
+    static int nearest(float[] x, int offset, int length, float[][] centroids, float[] squaredNorms) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < centroids.length; c++) {
+            float distance = squaredNorms[c] - 2 * VectorOps.dot(x, offset, centroids[c], 0, length);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+}
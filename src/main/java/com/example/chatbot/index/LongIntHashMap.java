@@ -0,0 +1,184 @@
+package com.example.chatbot.index;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * long -> int 的开放寻址哈希表（线性探测），避免 Long 装箱和 Map.Entry 节点开销。
+ * 非线程安全，由调用方负责同步；{@link #getOptimistic} 可在不加锁的情况下与写入并发调用，由调用方校验结果。
+ */
+class LongIntHashMap {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    LongIntHashMap() {
+        this(16);
+    }
+
+    LongIntHashMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected * 2, 16) - 1) << 1;
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return 对应的值，不存在时返回 missing
+     */
+    int get(long key, int missing) {
+        int slot = slot(key);
+        while (true) {
+            long k = keys[slot];
+            if (k == EMPTY) {
+                return missing;
+            }
+            if (k == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * 供乐观读（例如 {@link java.util.concurrent.locks.StampedLock#tryOptimisticRead()}）使用的查找：
+     * 与写入并发时结果可能不正确，需要调用方校验后重试，但不会抛出异常或陷入死循环
+     * @return 对应的值，不存在时返回 missing
+     */
+    int getOptimistic(long key, int missing) {
+        long[] k = keys;
+        int[] v = values;
+        if (k.length != v.length) {
+            // 扩容过程中读到了新旧两代数组
+            return missing;
+        }
+        int m = k.length - 1;
+        int slot = slot(key, m);
+        for (int probes = 0; probes <= m; probes++) {
+            long current = k[slot];
+            if (current == EMPTY) {
+                return missing;
+            }
+            if (current == key) {
+                return v[slot];
+            }
+            slot = (slot + 1) & m;
+        }
+        return missing;
+    }
+
+    /**
+     * @return 旧值，不存在时返回 missing
+     */
+    int put(long key, int value, int missing) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("不支持的键: " + key);
+        }
+        int slot = slot(key);
+        while (true) {
+            long k = keys[slot];
+            if (k == EMPTY) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size * 4 > keys.length * 3) {
+                    rehash(keys.length * 2);
+                }
+                return missing;
+            }
+            if (k == key) {
+                int old = values[slot];
+                values[slot] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return 被删除的值，不存在时返回 missing
+     */
+    int remove(long key, int missing) {
+        int slot = slot(key);
+        while (true) {
+            long k = keys[slot];
+            if (k == EMPTY) {
+                return missing;
+            }
+            if (k == key) {
+                int old = values[slot];
+                shiftBack(slot);
+                size--;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    void forEachKey(LongConsumer action) {
+        for (long key : keys) {
+            if (key != EMPTY) {
+                action.accept(key);
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * 删除后把同一探测链上的后续元素前移，保证查找不会提前遇到空槽
+     */
+    private void shiftBack(int hole) {
+        int current = (hole + 1) & mask;
+        while (keys[current] != EMPTY) {
+            int ideal = slot(keys[current]);
+            // ideal 不在 (hole, current] 区间内时，该元素可以前移到 hole
+            boolean movable = hole <= current
+                    ? ideal <= hole || ideal > current
+                    : ideal <= hole && ideal > current;
+            if (movable) {
+                keys[hole] = keys[current];
+                values[hole] = values[current];
+                hole = current;
+            }
+            current = (current + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+    }
+
+    private int slot(long key) {
+        return slot(key, mask);
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i], -1);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.chatbot.index;
+
+import java.util.Random;
+
+/**
+ * 乘积量化（PQ）：把向量切成 m 个子空间，每个子空间用 256 个码字的码本编码为 1 个字节。
+ * 查询时为每个子空间预先计算查询子向量与全部码字的点积（查找表），
+ * 一个编码向量的近似点积即 m 次查表求和。
+ */
+final class ProductQuantizer {
+
+    private static final int CODEBOOK_SIZE = 256;
+
+    private final int subspaces;
+    private final int subDim;
+    // [子空间][码字][子维度]
+    private final float[][][] codebooks;
+    private final float[][] codebookNorms;
+
+    private ProductQuantizer(int subspaces, int subDim, float[][][] codebooks) {
+        this.subspaces = subspaces;
+        this.subDim = subDim;
+        this.codebooks = codebooks;
+        this.codebookNorms = new float[subspaces][];
+        for (int m = 0; m < subspaces; m++) {
+            codebookNorms[m] = KMeans.squaredNorms(codebooks[m]);
+        }
+    }
+
+    /**
+     * 在样本（通常是相对粗量化中心的残差）上训练各子空间的码本
+     * @throws IllegalArgumentException 维度不能被子空间数整除
+     */
+    static ProductQuantizer train(float[][] samples, int subspaces, int iterations, Random random) {
+        int dim = samples[0].length;
+        if (subspaces <= 0 || dim % subspaces != 0) {
+            throw new IllegalArgumentException("向量维度 " + dim + " 不能被 PQ 子空间数 " + subspaces + " 整除");
+        }
+        int subDim = dim / subspaces;
+        float[][][] codebooks = new float[subspaces][][];
+        for (int m = 0; m < subspaces; m++) {
+            float[][] sub = new float[samples.length][subDim];
+            for (int i = 0; i < samples.length; i++) {
+                System.arraycopy(samples[i], m * subDim, sub[i], 0, subDim);
+            }
+            codebooks[m] = KMeans.train(sub, CODEBOOK_SIZE, iterations, false, random);
+        }
+        return new ProductQuantizer(subspaces, subDim, codebooks);
+    }
+
+    int codeSize() {
+        return subspaces;
+    }
+
+    /**
+     * 编码一个向量，写入 out[offset, offset + subspaces)
+     */
+    void encode(float[] vector, byte[] out, int offset) {
+        for (int m = 0; m < subspaces; m++) {
+            out[offset + m] = (byte) KMeans.nearest(vector, m * subDim, subDim, codebooks[m], codebookNorms[m]);
+        }
+    }
+
+    /**
+     * 查询子向量与所有码字的点积查找表，按 [子空间 * 256 + 码字] 展开
+     */
+    float[] lookupTable(float[] query) {
+        float[] table = new float[subspaces * CODEBOOK_SIZE];
+        for (int m = 0; m < subspaces; m++) {
+            float[][] codebook = codebooks[m];
+            for (int c = 0; c < codebook.length; c++) {
+                table[m * CODEBOOK_SIZE + c] = VectorOps.dot(query, m * subDim, codebook[c], 0, subDim);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * 利用查找表计算编码向量与查询的近似点积
+     */
+    float score(float[] table, byte[] codes, int offset) {
+        float sum = 0f;
+        for (int m = 0; m < subspaces; m++) {
+            sum += table[m * CODEBOOK_SIZE + (codes[offset + m] & 0xFF)];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.chatbot.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * int8 标量量化的向量副本，序号与 {@link FlatVectorStore} 一一对应。
+ * 每个（已归一化的）向量按自身最大绝对值做对称量化：code = round(v / scale)，scale = max|v| / 127，
+ * 近似得分 = 查询 scale × 向量 scale × 整数点积。
+ *
+ * 检索分两步：先在量化码上扫描出 K × rescoreFactor 个候选，
+ * 再用原始 float 向量重新打分并应用相似度阈值，保证返回结果的得分是精确值。
+ *
+ * 原始向量有两种来源：默认从存储中读取；以向量文件构造时，存储可以不保存向量（{@link FlatVectorStore#withoutVectors()}），
+ * 重打分时按记录序号从文件的内存映射中读取候选向量，堆内每个向量只占 dimension 字节的量化码。
+ * 追加文件失败（或存储不保存向量且没有文件）的向量保留在堆内，仍可精确重打分。
+ */
+public class QuantizedVectorStore {
+
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int PARALLEL_SPLIT_SIZE = 8 * PAGE_SIZE;
+    // 量化误差带来的得分偏差上限，候选阶段放宽阈值以免漏掉精确得分达标的向量
+    private static final float APPROXIMATION_MARGIN = 0.05f;
+
+    private final FlatVectorStore store;
+    // 重打分读取原始向量的文件，为 null 时从存储读取
+    private final VectorFile source;
+    // 原始向量是否从存储读取
+    private final boolean fromStore;
+    private volatile byte[][] codePages = new byte[0][];
+    private volatile float[][] scalePages = new float[0][];
+    // 序号 -> 向量文件中的记录序号（仅文件模式）
+    private volatile long[][] recordPages = new long[0][];
+    // 无法从存储或文件读取的向量，序号 -> 归一化向量
+    private final Map<Integer, float[]> heapVectors = new ConcurrentHashMap<>();
+    private volatile int size;
+
+    public QuantizedVectorStore(FlatVectorStore store) {
+        this(store, null);
+    }
+
+    /**
+     * @param source 重打分时读取原始向量的文件，为 null 时从存储读取
+     */
+    public QuantizedVectorStore(FlatVectorStore store, VectorFile source) {
+        this.store = store;
+        this.source = source;
+        this.fromStore = source == null && store.storesVectors();
+    }
+
+    /**
+     * 量化存储中某个序号的向量（存储保存向量数据时使用）
+     */
+    public void add(int ordinal) {
+        add(ordinal, store.vector(ordinal), -1);
+    }
+
+    /**
+     * 量化某个序号的向量
+     * @param vector 该序号的向量（无需预先归一化）
+     * @param record 向量在文件中的记录序号，小于 0 表示未写入文件；从存储读取原始向量时忽略
+     */
+    public synchronized void add(int ordinal, float[] vector, long record) {
+        float[] normalized = VectorOps.normalize(vector);
+        if (normalized == null) {
+            return;
+        }
+        int dim = normalized.length;
+        int page = ordinal >>> PAGE_SHIFT;
+        if (page >= codePages.length) {
+            byte[][] codes = Arrays.copyOf(codePages, page + 1);
+            float[][] scales = Arrays.copyOf(scalePages, page + 1);
+            long[][] records = source == null ? recordPages : Arrays.copyOf(recordPages, page + 1);
+            for (int p = codePages.length; p <= page; p++) {
+                codes[p] = new byte[PAGE_SIZE * dim];
+                scales[p] = new float[PAGE_SIZE];
+                if (source != null) {
+                    records[p] = new long[PAGE_SIZE];
+                }
+            }
+            codePages = codes;
+            scalePages = scales;
+            recordPages = records;
+        }
+        if (source != null && record >= 0) {
+            recordPages[page][ordinal & PAGE_MASK] = record;
+        } else if (!fromStore) {
+            heapVectors.put(ordinal, normalized);
+        }
+        scalePages[page][ordinal & PAGE_MASK] = quantize(normalized, codePages[page], (ordinal & PAGE_MASK) * dim);
+        if (ordinal >= size) {
+            size = ordinal + 1;
+        }
+    }
+
+    public synchronized void clear() {
+        codePages = new byte[0][];
+        scalePages = new float[0][];
+        recordPages = new long[0][];
+        heapVectors.clear();
+        size = 0;
+    }
+
+    /**
+     * 读取某个已量化序号的原始（归一化后的）向量
+     */
+    public float[] vector(int ordinal) throws IOException {
+        if (fromStore) {
+            return store.vector(ordinal);
+        }
+        float[] vector = heapVectors.get(ordinal);
+        if (vector != null) {
+            return vector.clone();
+        }
+        if (source == null) {
+            throw new IOException("序号 " + ordinal + " 没有原始向量");
+        }
+        float[] stored = VectorOps.normalize(source.read(recordPages[ordinal >>> PAGE_SHIFT][ordinal & PAGE_MASK]));
+        return stored != null ? stored : new float[store.dimension()];
+    }
+
+    /**
+     * 已量化的序号上界
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 量化 + 原始向量重打分的检索
+     * @param rescoreFactor 候选数量相对 K 的倍数
+     * @param pool 执行候选扫描的线程池，为 null 时在当前线程扫描
+     * @return 按精确相似度降序排列的 Top-K 结果
+     */
+    public List<SearchHit> search(float[] queryVector, int k, float minSimilarity, int rescoreFactor, ForkJoinPool pool) {
+        return search(queryVector, k, minSimilarity, rescoreFactor, null, pool);
+    }
+
+    /**
+     * 限定范围的量化检索
+     * @param allowed 允许参与检索的序号集合，为 null 时扫描全部
+     */
+    public List<SearchHit> search(float[] queryVector, int k, float minSimilarity, int rescoreFactor,
+                                  BitSet allowed, ForkJoinPool pool) {
+        int n = size;
+        byte[][] codes = codePages;
+        float[][] scales = scalePages;
+        float[] query = VectorOps.normalize(queryVector);
+        int dim = store.dimension();
+        if (query == null || n == 0 || k <= 0 || query.length != dim) {
+            return Collections.emptyList();
+        }
+
+        byte[] queryCodes = new byte[dim];
+        float queryScale = quantize(query, queryCodes, 0);
+        int candidates = Math.max(k, k * rescoreFactor);
+        float approxThreshold = minSimilarity - APPROXIMATION_MARGIN;
+
+        Scan scan = new Scan(codes, scales, queryCodes, queryScale, dim, candidates, approxThreshold, allowed);
+        int scanned = allowed == null ? n : allowed.cardinality();
+        TopKCollector top = pool == null || scanned <= PARALLEL_SPLIT_SIZE
+                ? scan.range(0, n)
+                : pool.invoke(new ScanTask(scan, 0, n));
+
+        // 用原始 float 向量重打分
+        float[] approxScores = new float[top.size()];
+        int[] ordinals = top.drainDescending(approxScores);
+        List<SearchHit> hits = new ArrayList<>(ordinals.length);
+        for (int i = 0; i < ordinals.length; i++) {
+            int ordinal = ordinals[i];
+            long id = store.idAt(ordinal);
+            if (id == FlatVectorStore.NO_ID) {
+                continue;
+            }
+            float score = rescore(query, ordinal, approxScores[i]);
+            if (score >= minSimilarity) {
+                hits.add(new SearchHit(id, score));
+            }
+        }
+        hits.sort((a, b) -> Float.compare(b.score(), a.score()));
+        return hits.size() > k ? new ArrayList<>(hits.subList(0, k)) : hits;
+    }
+
+    private float rescore(float[] query, int ordinal, float approxScore) {
+        if (fromStore) {
+            return store.dot(query, ordinal);
+        }
+        try {
+            return VectorOps.dot(query, vector(ordinal));
+        } catch (IOException e) {
+            // 文件已随索引切换关闭等情况下读不到原始向量，退回近似得分
+            return approxScore;
+        }
+    }
+
+    /**
+     * 对称量化到 [-127, 127]
+     * @return 缩放系数 scale，零向量返回 0
+     */
+    private static float quantize(float[] vector, byte[] out, int offset) {
+        float maxAbs = 0f;
+        for (float v : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        if (maxAbs == 0f) {
+            Arrays.fill(out, offset, offset + vector.length, (byte) 0);
+            return 0f;
+        }
+        float scale = maxAbs / 127f;
+        for (int i = 0; i < vector.length; i++) {
+            out[offset + i] = (byte) Math.round(vector[i] / scale);
+        }
+        return scale;
+    }
+
+    /**
+     * 一次候选扫描的参数，各分片共享
+     */
+    private final class Scan {
+        final byte[][] codes;
+        final float[][] scales;
+        final byte[] queryCodes;
+        final float queryScale;
+        final int dim;
+        final int candidates;
+        final float threshold;
+        final BitSet allowed;
+
+        Scan(byte[][] codes, float[][] scales, byte[] queryCodes, float queryScale, int dim,
+             int candidates, float threshold, BitSet allowed) {
+            this.codes = codes;
+            this.scales = scales;
+            this.queryCodes = queryCodes;
+            this.queryScale = queryScale;
+            this.dim = dim;
+            this.candidates = candidates;
+            this.threshold = threshold;
+            this.allowed = allowed;
+        }
+
+        TopKCollector range(int from, int to) {
+            TopKCollector top = new TopKCollector(candidates);
+            if (allowed == null) {
+                for (int ordinal = from; ordinal < to; ordinal++) {
+                    offer(ordinal, top);
+                }
+            } else {
+                for (int ordinal = allowed.nextSetBit(from); ordinal >= 0 && ordinal < to;
+                     ordinal = allowed.nextSetBit(ordinal + 1)) {
+                    offer(ordinal, top);
+                }
+            }
+            return top;
+        }
+
+        private void offer(int ordinal, TopKCollector top) {
+            if (store.idAt(ordinal) == FlatVectorStore.NO_ID) {
+                return;
+            }
+            int page = ordinal >>> PAGE_SHIFT;
+            int slot = ordinal & PAGE_MASK;
+            int dot = VectorOps.dot(queryCodes, 0, codes[page], slot * dim, dim);
+            float score = dot * queryScale * scales[page][slot];
+            if (score >= threshold) {
+                top.offer(ordinal, score);
+            }
+        }
+    }
+
+    private static final class ScanTask extends RecursiveTask<TopKCollector> {
+        private final Scan scan;
+        private final int from;
+        private final int to;
+
+        ScanTask(Scan scan, int from, int to) {
+            this.scan = scan;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopKCollector compute() {
+            if (to - from <= PARALLEL_SPLIT_SIZE) {
+                return scan.range(from, to);
+            }
+            int mid = (from + to) >>> 1;
+            ScanTask left = new ScanTask(scan, from, mid);
+            left.fork();
+            TopKCollector right = new ScanTask(scan, mid, to).compute();
+            TopKCollector merged = left.join();
+            merged.merge(right);
+            return merged;
+        }
+    }
+}
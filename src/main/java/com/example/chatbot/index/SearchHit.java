@@ -0,0 +1,7 @@
+package com.example.chatbot.index;
+
+/**
+ * 向量检索的单条命中结果：片段ID + 相似度得分
+ */
+public record SearchHit(long id, float score) {
+}
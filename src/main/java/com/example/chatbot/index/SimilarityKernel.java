@@ -0,0 +1,19 @@
+package com.example.chatbot.index;
+
+/**
+ * 相似度计算内核：对两段 float / int8 数组区间做点积
+ */
+interface SimilarityKernel {
+
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * int8 量化码的整数点积
+     */
+    int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    /**
+     * 内核名称，用于日志输出
+     */
+    String name();
+}
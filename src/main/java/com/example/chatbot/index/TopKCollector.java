@@ -0,0 +1,92 @@
+package com.example.chatbot.index;
+
+/**
+ * 容量固定为 K 的最小堆，用原始类型数组保存（序号, 得分），插入过程不分配对象。
+ * 堆顶是当前 Top-K 中得分最低的元素，新元素只有超过堆顶才会被接纳。
+ */
+final class TopKCollector {
+
+    private final int k;
+    private final float[] scores;
+    private final int[] ordinals;
+    private int size;
+
+    TopKCollector(int k) {
+        this.k = k;
+        this.scores = new float[k];
+        this.ordinals = new int[k];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void offer(int ordinal, float score) {
+        if (size < k) {
+            int i = size++;
+            // 上浮
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= score) {
+                    break;
+                }
+                scores[i] = scores[parent];
+                ordinals[i] = ordinals[parent];
+                i = parent;
+            }
+            scores[i] = score;
+            ordinals[i] = ordinal;
+        } else if (score > scores[0]) {
+            siftDown(ordinal, score);
+        }
+    }
+
+    /**
+     * 合并另一个收集器中的结果
+     */
+    void merge(TopKCollector other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.ordinals[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * 依次弹出所有元素，得到按得分降序排列的序号；调用后收集器被清空
+     */
+    int[] drainDescending(float[] scoresOut) {
+        int n = size;
+        int[] result = new int[n];
+        for (int i = n - 1; i >= 0; i--) {
+            result[i] = ordinals[0];
+            scoresOut[i] = scores[0];
+            size--;
+            if (size > 0) {
+                siftDown(ordinals[size], scores[size]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 用 (ordinal, score) 替换堆顶并下沉
+     */
+    private void siftDown(int ordinal, float score) {
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && scores[right] < scores[child]) {
+                child = right;
+            }
+            if (score <= scores[child]) {
+                break;
+            }
+            scores[i] = scores[child];
+            ordinals[i] = ordinals[child];
+            i = child;
+        }
+        scores[i] = score;
+        ordinals[i] = ordinal;
+    }
+}
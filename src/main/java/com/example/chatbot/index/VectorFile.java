@@ -0,0 +1,397 @@
+package com.example.chatbot.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * 持久化的二进制向量文件，作为启动时加载内存索引的主要来源。
+ *
+ * 文件布局（小端序）：
+ * <pre>
+ * 头部 64 字节：magic(int) | version(int) | dimension(int) | 标志(int) | 模型标识(48 字节 UTF-8，0 填充)
+ * 记录（定长）：kind(int) | segmentId(long) | dimension 个 float
+ * </pre>
+ * 记录只追加不修改，同一片段以最后一条记录为准；删除以 kind=DELETE 的记录表示。
+ * 有记录追加失败时在头部标志中记为 dirty，此后文件内容可能缺少部分写入，不应再作为加载来源。
+ * 模型标识超过 48 字节时改存其 SHA-256 摘要（"#" + Base64URL）。
+ * 内容重复的片段不单独存向量，以 kind=ALIAS 的记录指向持有向量的片段（向量区前 8 字节为其ID）。
+ * 启动时用 MappedByteBuffer 映射文件并批量读取 float，末尾不完整的记录（写入中途崩溃）被忽略并截断。
+ * 记录按序号（第几条记录）定位，{@link #read} 通过按需映射的只读窗口随机读取单条记录的向量。
+ */
+public class VectorFile implements Closeable {
+
+    private static final int MAGIC = 0x4C4C4D56; // "LLMV"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int MODEL_ID_BYTES = 48;
+    private static final int FLAGS_OFFSET = 12;
+    private static final int FLAG_DIRTY = 1;
+    private static final int RECORD_HEADER_SIZE = 4 + 8;
+    // 单次映射的最大字节数（MappedByteBuffer 上限为 2GB）
+    private static final long MAX_MAPPING = 1L << 30;
+
+    static final int KIND_VECTOR = 1;
+    static final int KIND_DELETE = 2;
+    static final int KIND_ALIAS = 3;
+
+    private final Path path;
+    private final String modelId;
+    private final FileChannel channel;
+    private int dimension;
+    private int flags;
+    // 随机读取用的只读映射窗口，每个窗口覆盖固定数量的记录；最后一个窗口在读取新追加的记录时重新映射
+    private volatile MappedByteBuffer[] windows = new MappedByteBuffer[0];
+
+    /**
+     * 加载时接收每条有效向量记录
+     */
+    public interface VectorListener {
+        /**
+         * @param ordinal 向量在存储中分配的序号
+         * @param vector 文件中的原始向量（调用之间复用，需要保留时自行复制）
+         * @param record 记录序号，可用于 {@link #read}
+         */
+        void loaded(int ordinal, float[] vector, long record);
+    }
+
+    private VectorFile(Path path, String modelId, FileChannel channel, int dimension, int flags) {
+        this.path = path;
+        this.modelId = modelId;
+        this.channel = channel;
+        this.dimension = dimension;
+        this.flags = flags;
+    }
+
+    /**
+     * 加载结果：持有向量的片段数量、最大片段ID与片段ID之和，用于与数据库核对
+     */
+    public record Summary(int count, long maxId, long idSum) {
+    }
+
+    /**
+     * 打开已有的向量文件；文件不存在、格式不符或模型标识不一致时返回 null
+     */
+    public static VectorFile openExisting(Path path, String modelId) throws IOException {
+        if (!Files.isRegularFile(path) || Files.size(path) < HEADER_SIZE) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            channel.close();
+            return null;
+        }
+        int dimension = header.getInt();
+        int flags = header.getInt();
+        byte[] model = new byte[MODEL_ID_BYTES];
+        header.get(model);
+        if (!Arrays.equals(model, encodeModelId(modelId))) {
+            channel.close();
+            return null;
+        }
+        return new VectorFile(path, modelId, channel, dimension, flags);
+    }
+
+    /**
+     * 创建（或清空重建）一个空的向量文件
+     */
+    public static VectorFile create(Path path, String modelId) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        VectorFile file = new VectorFile(path, modelId, channel, 0, 0);
+        file.writeHeader();
+        return file;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 是否有记录追加失败（文件内容可能不完整）
+     */
+    public synchronized boolean isDirty() {
+        return (flags & FLAG_DIRTY) != 0;
+    }
+
+    /**
+     * 记录追加失败后调用：在头部标志中记为 dirty 并刷盘，下次启动时不再信任该文件
+     */
+    public synchronized void markDirty() throws IOException {
+        flags |= FLAG_DIRTY;
+        ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(flags);
+        buffer.flip();
+        channel.write(buffer, FLAGS_OFFSET);
+        channel.force(false);
+    }
+
+    /**
+     * 把文件中的全部记录加载到存储
+     * @param aliases 接收重复片段ID -> 持有向量的片段ID，可为 null
+     * @return 文件中持有向量的片段数量（包括存储拒收的零向量，不含重复片段），用于与数据库核对
+     */
+    public synchronized int load(FlatVectorStore store, Map<Long, Long> aliases) throws IOException {
+        return load(store, aliases, null).count();
+    }
+
+    /**
+     * 把文件中的全部记录加载到存储，每条被存储接收的向量记录同时交给 listener
+     * @param listener 为 null 时忽略
+     * @return 文件中持有向量的片段（口径同 {@link #load(FlatVectorStore, Map)}）的数量、最大ID与ID之和
+     */
+    public synchronized Summary load(FlatVectorStore store, Map<Long, Long> aliases, VectorListener listener)
+            throws IOException {
+        if (dimension == 0) {
+            return new Summary(0, 0, 0);
+        }
+        int recordSize = recordSize();
+        long records = (channel.size() - HEADER_SIZE) / recordSize;
+        long validEnd = HEADER_SIZE + records * recordSize;
+        LongIntHashMap liveIds = new LongIntHashMap((int) Math.min(records, Integer.MAX_VALUE / 2));
+        float[] vector = new float[dimension];
+
+        long recordsPerMapping = Math.max(1, MAX_MAPPING / recordSize);
+        for (long first = 0; first < records; first += recordsPerMapping) {
+            long count = Math.min(recordsPerMapping, records - first);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + first * recordSize, count * recordSize);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            for (long i = 0; i < count; i++) {
+                int kind = mapped.getInt();
+                long id = mapped.getLong();
+                if (kind == KIND_VECTOR) {
+                    mapped.asFloatBuffer().get(vector);
+                    int ordinal = store.add(id, vector);
+                    if (ordinal >= 0 && listener != null) {
+                        listener.loaded(ordinal, vector, first + i);
+                    }
+                    liveIds.put(id, 1, 0);
+                    if (aliases != null) {
+                        aliases.remove(id);
+                    }
+                } else if (kind == KIND_DELETE) {
+                    store.remove(id);
+                    liveIds.remove(id, 0);
+                    if (aliases != null) {
+                        aliases.remove(id);
+                    }
+                } else if (kind == KIND_ALIAS) {
+                    store.remove(id);
+                    liveIds.remove(id, 0);
+                    if (aliases != null) {
+                        aliases.put(id, mapped.getLong(mapped.position()));
+                    }
+                }
+                mapped.position(mapped.position() + dimension * 4);
+            }
+        }
+        // 丢弃末尾不完整的记录
+        if (channel.size() > validEnd) {
+            channel.truncate(validEnd);
+        }
+        long[] maxAndSum = {0, 0};
+        liveIds.forEachKey(id -> {
+            maxAndSum[0] = Math.max(maxAndSum[0], id);
+            maxAndSum[1] += id;
+        });
+        return new Summary(liveIds.size(), maxAndSum[0], maxAndSum[1]);
+    }
+
+    /**
+     * 追加一个片段的向量
+     * @return 新记录的序号
+     * @throws IllegalArgumentException 维度与文件不一致
+     */
+    public synchronized long append(long id, float[] vector) throws IOException {
+        if (dimension == 0) {
+            dimension = vector.length;
+            writeHeader();
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不一致：文件为 " + dimension + "，写入为 " + vector.length);
+        }
+        ByteBuffer record = ByteBuffer.allocate(recordSize()).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(KIND_VECTOR).putLong(id);
+        record.asFloatBuffer().put(vector);
+        return (writeRecord(record) - HEADER_SIZE) / recordSize();
+    }
+
+    /**
+     * 读取某条向量记录中的原始向量，可与追加并发执行
+     * @param record {@link #append} 返回或加载时得到的记录序号
+     */
+    public float[] read(long record) throws IOException {
+        int recordSize = recordSize();
+        long recordsPerWindow = Math.max(1, MAX_MAPPING / recordSize);
+        int window = (int) (record / recordsPerWindow);
+        int offset = (int) (record % recordsPerWindow) * recordSize;
+        MappedByteBuffer[] current = windows;
+        MappedByteBuffer mapped = window < current.length ? current[window] : null;
+        if (mapped == null || mapped.capacity() < offset + recordSize) {
+            mapped = mapWindow(window, recordsPerWindow, recordSize);
+            if (mapped.capacity() < offset + recordSize) {
+                throw new IOException("向量文件中不存在记录 " + record);
+            }
+        }
+        float[] vector = new float[dimension];
+        // 绝对位置读取，不修改共享缓冲区的 position
+        for (int i = 0, position = offset + RECORD_HEADER_SIZE; i < vector.length; i++, position += 4) {
+            vector[i] = mapped.getFloat(position);
+        }
+        return vector;
+    }
+
+    /**
+     * 映射第 window 个窗口中当前已写入的记录
+     */
+    private synchronized MappedByteBuffer mapWindow(int window, long recordsPerWindow, int recordSize)
+            throws IOException {
+        long first = window * recordsPerWindow;
+        long records = (channel.size() - HEADER_SIZE) / recordSize;
+        long count = Math.max(0, Math.min(recordsPerWindow, records - first));
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                HEADER_SIZE + first * recordSize, count * recordSize);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        MappedByteBuffer[] current = windows;
+        MappedByteBuffer[] next = Arrays.copyOf(current, Math.max(current.length, window + 1));
+        next[window] = mapped;
+        windows = next;
+        return mapped;
+    }
+
+    /**
+     * 追加一条删除记录
+     */
+    public synchronized void appendDelete(long id) throws IOException {
+        if (dimension == 0) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(recordSize()).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(KIND_DELETE).putLong(id);
+        writeRecord(record);
+    }
+
+    /**
+     * 追加一条重复片段记录：片段 id 与 canonicalId 内容相同，共用后者的向量
+     */
+    public synchronized void appendAlias(long id, long canonicalId) throws IOException {
+        if (dimension * 4 < Long.BYTES) {
+            // 维度未知（尚无向量）时不会出现重复片段
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(recordSize()).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(KIND_ALIAS).putLong(id).putLong(canonicalId);
+        writeRecord(record);
+    }
+
+    /**
+     * 用存储中当前的有效向量重写文件（先写临时文件再原子替换），去掉被覆盖和删除的记录
+     * @return 重写后的新文件对象，当前对象随之关闭
+     */
+    public synchronized VectorFile rewrite(FlatVectorStore store, Map<Long, Long> aliases) throws IOException {
+        VectorFile out = create(path.resolveSibling(path.getFileName() + ".tmp"), modelId);
+        try {
+            out.appendAll(store);
+            for (Map.Entry<Long, Long> alias : aliases.entrySet()) {
+                out.appendAlias(alias.getKey(), alias.getValue());
+            }
+        } catch (IOException e) {
+            out.close();
+            Files.deleteIfExists(out.path);
+            throw e;
+        }
+        channel.close();
+        return out.moveTo(path);
+    }
+
+    /**
+     * 把文件原子地移动到 target（例如后台写好的文件替换正在使用的文件），已打开的通道继续可用
+     * @return 指向新路径的文件对象，当前对象不再使用
+     */
+    public synchronized VectorFile moveTo(Path target) throws IOException {
+        channel.force(true);
+        Files.move(path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new VectorFile(target, modelId, channel, dimension, flags);
+    }
+
+    /**
+     * 把存储中全部有效向量追加到文件
+     */
+    public synchronized void appendAll(FlatVectorStore store) throws IOException {
+        int n = store.ordinalCount();
+        for (int ordinal = 0; ordinal < n; ordinal++) {
+            long id = store.idAt(ordinal);
+            if (id != FlatVectorStore.NO_ID) {
+                append(id, store.vector(ordinal));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    private int recordSize() {
+        return RECORD_HEADER_SIZE + dimension * 4;
+    }
+
+    /**
+     * @return 记录写入的起始位置
+     */
+    private long writeRecord(ByteBuffer record) throws IOException {
+        record.position(record.capacity());
+        record.flip();
+        long start = channel.size();
+        long position = start;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        return start;
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(flags).put(encodeModelId(modelId));
+        header.flip();
+        channel.write(header, 0);
+    }
+
+    /**
+     * 模型标识按 UTF-8 编码后 0 填充到 48 字节；超长时改用摘要，避免截断后不同模型得到相同标识
+     */
+    static byte[] encodeModelId(String modelId) {
+        byte[] bytes = modelId.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MODEL_ID_BYTES) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+                bytes = ("#" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest))
+                        .getBytes(StandardCharsets.US_ASCII);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 不可用", e);
+            }
+        }
+        return Arrays.copyOf(bytes, MODEL_ID_BYTES);
+    }
+}
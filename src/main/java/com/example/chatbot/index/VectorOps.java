@@ -0,0 +1,86 @@
+package com.example.chatbot.index;
+
+import java.util.logging.Logger;
+
+/**
+ * 向量基础运算：点积、L2 归一化。
+ * 点积由运行时选定的内核完成：JVM 启用了 jdk.incubator.vector 模块时使用 SIMD 内核，
+ * 否则回退到标量循环。可通过系统属性 -Dembedding.simd=false 强制使用标量实现。
+ */
+public final class VectorOps {
+
+    private static final Logger logger = Logger.getLogger(VectorOps.class.getName());
+
+    private static final SimilarityKernel KERNEL = selectKernel();
+
+    private VectorOps() {
+    }
+
+    /**
+     * 两个等长向量的点积
+     */
+    public static float dot(float[] a, float[] b) {
+        return KERNEL.dot(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * 两段数组区间的点积，用于连续存储中的向量
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return KERNEL.dot(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * 两段 int8 量化码区间的整数点积
+     */
+    public static int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        return KERNEL.dot(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * 返回 L2 归一化后的新向量；空向量或零向量返回 null（无法参与余弦相似度计算）
+     */
+    public static float[] normalize(float[] vector) {
+        if (vector == null || vector.length == 0) {
+            return null;
+        }
+        float norm = dot(vector, vector);
+        if (norm == 0 || Float.isNaN(norm)) {
+            return null;
+        }
+        float inv = (float) (1.0 / Math.sqrt(norm));
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = vector[i] * inv;
+        }
+        return result;
+    }
+
+    /**
+     * 当前使用的内核名称
+     */
+    public static String kernelName() {
+        return KERNEL.name();
+    }
+
+    private static SimilarityKernel selectKernel() {
+        if (!Boolean.parseBoolean(System.getProperty("embedding.simd", "true"))) {
+            logger.info("已通过 embedding.simd=false 禁用 SIMD，使用标量点积内核");
+            return new ScalarKernel();
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            logger.info("未启用 jdk.incubator.vector 模块（需添加 --add-modules jdk.incubator.vector），使用标量点积内核");
+            return new ScalarKernel();
+        }
+        try {
+            SimilarityKernel kernel = (SimilarityKernel) Class.forName("com.example.chatbot.index.PanamaKernel")
+                    .getDeclaredConstructor()
+                    .newInstance();
+            logger.info("使用 SIMD 点积内核: " + kernel.name());
+            return kernel;
+        } catch (Throwable e) {
+            logger.warning("SIMD 点积内核加载失败，使用标量实现: " + e);
+            return new ScalarKernel();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.chatbot.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 持久化的嵌入向量缓存：按（内容摘要，模型标识，向量维度）保存模型输出的原始向量，
+ * 切换嵌入模型再切回、或重启后重新索引时直接读取，不再重新推理。
+ */
+@Data
+@Entity
+@Table(name = "embedding_cache",
+        uniqueConstraints = @UniqueConstraint(name = "uk_embedding_cache_key",
+                columnNames = {"contentHash", "modelId", "dimension"}))
+public class EmbeddingCacheEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // 文本内容的 SHA-256 摘要
+    @Column(length = 64, nullable = false)
+    private String contentHash;
+
+    // 嵌入模式与模型（例如 ollama:nomic-embed-text）
+    @Column(length = 128, nullable = false)
+    private String modelId;
+
+    private int dimension;
+
+    // 与 SegmentVector.vector 相同的序列化格式
+    @Lob
+    @Column(columnDefinition = "LONGBLOB", nullable = false)
+    private byte[] vector;
+
+    private LocalDateTime createdAt;
+}
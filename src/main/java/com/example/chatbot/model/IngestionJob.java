@@ -0,0 +1,95 @@
+package com.example.chatbot.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 文档导入任务：上传的文件先保存并登记任务，再由后台线程解析、分段和建立索引。
+ * 应用重启时仍处于排队或运行中的任务会重新执行。
+ */
+@Data
+@Entity
+@Table(name = "ingestion_jobs", indexes = @Index(name = "idx_ingestion_jobs_status", columnList = "status"))
+public class IngestionJob {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+
+    // message 列的长度上限
+    public static final int MESSAGE_MAX_LENGTH = 1000;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private Long documentId;
+
+    private Long userId;
+
+    private String filename;
+
+    @Column(length = 16)
+    private String status;
+
+    // 执行次数（含重启后的重新执行）
+    private int attempts;
+
+    // 分段后的片段总数，分段完成前为 0
+    private int totalSegments;
+
+    // 已处理完（成功或失败）的片段数
+    private int processedSegments;
+
+    private int failedSegments;
+
+    private LocalDateTime createdAt;
+
+    private LocalDateTime startedAt;
+
+    private LocalDateTime updatedAt;
+
+    private LocalDateTime finishedAt;
+
+    @Column(length = MESSAGE_MAX_LENGTH)
+    private String message;
+
+    /**
+     * 超出列长度的消息（例如异常信息）截断后保存，避免任务状态因消息过长而写不进数据库
+     */
+    public void setMessage(String message) {
+        if (message != null && message.length() > MESSAGE_MAX_LENGTH) {
+            int end = MESSAGE_MAX_LENGTH;
+            if (Character.isHighSurrogate(message.charAt(end - 1))) {
+                end--;
+            }
+            message = message.substring(0, end);
+        }
+        this.message = message;
+    }
+
+    /**
+     * 复制当前状态（任务执行期间由工作线程修改，查询时返回副本）
+     */
+    public IngestionJob copy() {
+        IngestionJob copy = new IngestionJob();
+        copy.setId(id);
+        copy.setDocumentId(documentId);
+        copy.setUserId(userId);
+        copy.setFilename(filename);
+        copy.setStatus(status);
+        copy.setAttempts(attempts);
+        copy.setTotalSegments(totalSegments);
+        copy.setProcessedSegments(processedSegments);
+        copy.setFailedSegments(failedSegments);
+        copy.setCreatedAt(createdAt);
+        copy.setStartedAt(startedAt);
+        copy.setUpdatedAt(updatedAt);
+        copy.setFinishedAt(finishedAt);
+        copy.message = message;
+        return copy;
+    }
+}
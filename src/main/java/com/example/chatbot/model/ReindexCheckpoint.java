@@ -0,0 +1,53 @@
+package com.example.chatbot.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 重新索引任务的进度检查点：片段按ID顺序处理，lastSegmentId 之前（含）的片段已写入新向量，
+ * 应用重启后从这里继续。
+ */
+@Data
+@Entity
+@Table(name = "reindex_checkpoints")
+public class ReindexCheckpoint {
+
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // 目标嵌入模式与模型（与 SegmentVector.vectorModel 相同的格式）
+    @Column(length = 128)
+    private String modelId;
+
+    @Column(length = 16)
+    private String status;
+
+    // 已处理的最后一个片段ID
+    private long lastSegmentId;
+
+    // 任务开始时的片段总数（仅用于估算进度）
+    private long totalSegments;
+
+    private long processedSegments;
+
+    private long failedSegments;
+
+    // 内容重复、共用已有向量的片段数
+    private long duplicateSegments;
+
+    private LocalDateTime startedAt;
+
+    private LocalDateTime updatedAt;
+
+    private LocalDateTime finishedAt;
+
+    @Column(length = 1000)
+    private String message;
+}
@@ -9,11 +9,20 @@ import lombok.Data;
  */
 @Data
 @Entity
-@Table(name = "segments")
+@Table(name = "segments", indexes = @Index(name = "idx_segments_content_hash", columnList = "contentHash"))
 public class Segment {
 
+    // 主键由号段表分配：每次从表中取一段 ID_ALLOCATION_SIZE 个ID在内存中发放，
+    // 插入前就有主键，Hibernate 才能把多条 insert 合并为一次 JDBC 批量执行（IDENTITY 主键不能批量插入）
+    public static final String ID_GENERATOR_TABLE = "id_generators";
+    public static final String ID_GENERATOR_NAME = "segments";
+    public static final int ID_ALLOCATION_SIZE = 128;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "segment_id")
+    @TableGenerator(name = "segment_id", table = ID_GENERATOR_TABLE,
+            pkColumnName = "sequence_name", valueColumnName = "next_val",
+            pkColumnValue = ID_GENERATOR_NAME, allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     // 所属 Document 的主键
@@ -27,9 +36,8 @@ public class Segment {
     // @Lob
     // private byte[] embedding;
 
-    // 新增：向量存储字段
-    @Lob
-    @Column(columnDefinition = "LONGBLOB")
-    private byte[] vector;
+    // 内容的 SHA-256 摘要；内容相同的片段只有一个保存向量（见 SegmentVector），其余片段共用它的向量
+    @Column(length = 64)
+    private String contentHash;
 
 }
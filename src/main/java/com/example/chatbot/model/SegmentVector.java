@@ -0,0 +1,27 @@
+package com.example.chatbot.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+/**
+ * 片段的嵌入向量，与片段内容分表存放：检索时只读取片段内容，不再把整行向量字节一起读出。
+ * 内容重复、共用其它片段向量的片段没有这一行。
+ */
+@Data
+@Entity
+@Table(name = "segment_vectors", indexes = @Index(name = "idx_segment_vectors_model", columnList = "vectorModel"))
+public class SegmentVector {
+
+    // 与 Segment.id 相同
+    @Id
+    private Long segmentId;
+
+    // float 数组按大端序序列化后的字节
+    @Lob
+    @Column(columnDefinition = "LONGBLOB", nullable = false)
+    private byte[] vector;
+
+    // 生成 vector 所用的嵌入模式与模型（例如 ollama:nomic-embed-text），旧数据可能为空
+    @Column(length = 128)
+    private String vectorModel;
+}
@@ -0,0 +1,25 @@
+package com.example.chatbot.repository;
+
+import com.example.chatbot.model.EmbeddingCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 嵌入向量缓存 数据访问接口
+ */
+@Repository
+public interface EmbeddingCacheRepository extends JpaRepository<EmbeddingCacheEntry, Long> {
+
+    /**
+     * 查询指定模型下若干内容摘要的缓存向量（可能包含不同维度）
+     */
+    List<EmbeddingCacheEntry> findByModelIdAndContentHashIn(String modelId, Collection<String> contentHashes);
+
+    /**
+     * 统计某个模型已缓存的向量数
+     */
+    long countByModelId(String modelId);
+}
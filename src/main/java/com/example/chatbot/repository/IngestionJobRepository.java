@@ -0,0 +1,20 @@
+package com.example.chatbot.repository;
+
+import com.example.chatbot.model.IngestionJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 文档导入任务 数据访问接口
+ */
+@Repository
+public interface IngestionJobRepository extends JpaRepository<IngestionJob, Long> {
+
+    /**
+     * 按提交顺序查询处于指定状态的任务（启动时恢复未完成的任务）
+     */
+    List<IngestionJob> findByStatusInOrderByIdAsc(Collection<String> statuses);
+}
@@ -0,0 +1,24 @@
+package com.example.chatbot.repository;
+
+import com.example.chatbot.model.ReindexCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+/**
+ * 重新索引检查点 数据访问接口
+ */
+@Repository
+public interface ReindexCheckpointRepository extends JpaRepository<ReindexCheckpoint, Long> {
+
+    /**
+     * 最近一次处于指定状态的任务
+     */
+    Optional<ReindexCheckpoint> findFirstByStatusOrderByIdDesc(String status);
+
+    /**
+     * 最近一次任务
+     */
+    Optional<ReindexCheckpoint> findFirstByOrderByIdDesc();
+}
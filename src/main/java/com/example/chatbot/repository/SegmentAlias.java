@@ -0,0 +1,11 @@
+package com.example.chatbot.repository;
+
+/**
+ * 重复片段与持有向量的片段的对应关系
+ */
+public interface SegmentAlias {
+
+    Long getId();
+
+    Long getCanonicalId();
+}
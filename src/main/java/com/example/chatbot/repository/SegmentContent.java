@@ -0,0 +1,11 @@
+package com.example.chatbot.repository;
+
+/**
+ * 片段的轻量投影：只包含ID和文本内容，不加载向量字段
+ */
+public interface SegmentContent {
+
+    Long getId();
+
+    String getContent();
+}
@@ -0,0 +1,11 @@
+package com.example.chatbot.repository;
+
+/**
+ * 片段的轻量投影：只包含ID和内容摘要
+ */
+public interface SegmentHash {
+
+    Long getId();
+
+    String getContentHash();
+}
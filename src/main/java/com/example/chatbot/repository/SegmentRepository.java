@@ -1,9 +1,13 @@
 package com.example.chatbot.repository;
 
 import com.example.chatbot.model.Segment;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -16,4 +20,50 @@ public interface SegmentRepository extends JpaRepository<Segment, Long> {
      * 根据文档 ID 查询所有分段
      */
     List<Segment> findByDocumentId(Long documentId);
+
+    /**
+     * 按ID查询片段内容（不加载实体，用于检索结果取内容）
+     */
+    @Query("select s.id as id, s.content as content from Segment s where s.id in :ids")
+    List<SegmentContent> findContentByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 按ID顺序查询某个文档下所有片段的内容
+     */
+    @Query("select s.id as id, s.content as content from Segment s where s.documentId = :documentId order by s.id")
+    List<SegmentContent> findContentByDocumentId(@Param("documentId") Long documentId);
+
+    /**
+     * 查询若干文档下所有片段的ID（不加载内容和向量）
+     */
+    @Query("select s.id from Segment s where s.documentId in :documentIds")
+    List<Long> findIdsByDocumentIdIn(@Param("documentIds") Collection<Long> documentIds);
+
+    /**
+     * 查询某个用户上传的全部文档下所有片段的ID
+     */
+    @Query("select s.id from Segment s where s.documentId in (select d.id from Document d where d.userId = :userId)")
+    List<Long> findIdsByDocumentOwner(@Param("userId") Long userId);
+
+    /**
+     * 按ID顺序分页读取片段内容（键集分页）
+     * @param afterId 上一页最后一个片段的ID，首页传 0
+     */
+    @Query("select s.id as id, s.content as content from Segment s where s.id > :afterId order by s.id")
+    List<SegmentContent> findContentAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * 查询指定内容摘要中已由指定模型生成向量的片段（用于导入时去重）
+     */
+    @Query("select s.id as id, s.contentHash as contentHash from Segment s, SegmentVector v " +
+            "where v.segmentId = s.id and s.contentHash in :hashes and v.vectorModel = :model")
+    List<SegmentHash> findVectorOwners(@Param("hashes") Collection<String> hashes, @Param("model") String model);
+
+    /**
+     * 查询所有共用其它片段向量的重复片段，以及持有向量的片段ID
+     */
+    @Query("select s.id as id, c.id as canonicalId from Segment s, Segment c, SegmentVector cv " +
+            "where cv.segmentId = c.id and s.contentHash = c.contentHash and s.id <> c.id " +
+            "and not exists (select 1 from SegmentVector sv where sv.segmentId = s.id)")
+    List<SegmentAlias> findVectorAliases();
 }
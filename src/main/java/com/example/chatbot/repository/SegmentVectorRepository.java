@@ -0,0 +1,39 @@
+package com.example.chatbot.repository;
+
+import com.example.chatbot.model.SegmentVector;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * 片段向量 数据访问接口（写入见 SegmentVectorWriter）
+ */
+@Repository
+public interface SegmentVectorRepository extends JpaRepository<SegmentVector, Long> {
+
+    /**
+     * 统计可由指定模型加载的向量数：该模型生成的向量，以及未记录模型的旧向量
+     */
+    @Query("select count(v) from SegmentVector v where v.vectorModel is null or v.vectorModel = :model")
+    long countForModel(@Param("model") String model);
+
+    /**
+     * 汇总可由指定模型加载的向量（口径同 {@link #countForModel(String)}）：条数、最大片段ID和片段ID之和
+     */
+    @Query("select count(v) as count, coalesce(max(v.segmentId), 0) as maxId, coalesce(sum(v.segmentId), 0) as idSum " +
+            "from SegmentVector v where v.vectorModel is null or v.vectorModel = :model")
+    VectorSummary summarizeForModel(@Param("model") String model);
+
+    /**
+     * 按片段ID顺序分页读取可由指定模型加载的向量（键集分页）
+     * @param afterId 上一页最后一个片段的ID，首页传 0
+     */
+    @Query("select v from SegmentVector v where v.segmentId > :afterId " +
+            "and (v.vectorModel is null or v.vectorModel = :model) order by v.segmentId")
+    List<SegmentVector> findForModelAfter(@Param("afterId") Long afterId, @Param("model") String model,
+                                          Pageable pageable);
+}
@@ -0,0 +1,13 @@
+package com.example.chatbot.repository;
+
+/**
+ * 片段向量的汇总投影：条数、最大片段ID和片段ID之和，用于启动时核对向量文件
+ */
+public interface VectorSummary {
+
+    long getCount();
+
+    long getMaxId();
+
+    long getIdSum();
+}
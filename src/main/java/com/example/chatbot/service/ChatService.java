@@ -13,6 +13,8 @@ import org.springframework.security.core.Authentication;  // 添加Authenticatio
 import org.springframework.security.core.context.SecurityContextHolder;  // 添加SecurityContextHolder的导入
 import org.springframework.stereotype.Service;  // 标记这是一个服务类
 
+import jakarta.annotation.PostConstruct;
+
 import java.time.LocalDateTime;  // 日期时间类
 import java.time.LocalTime;  // 时间类
 import java.util.*;  // 集合框架
@@ -62,6 +64,34 @@ public class ChatService {
     @Value("${chatbot.prompt.system}")
     private String systemPrompt;
 
+    // 知识问答是否只检索当前用户自己的文档
+    @Value("${knowledge.search.ownerScoped:false}")
+    private boolean ownerScopedSearch;
+
+    // 语义回答缓存配置：是否启用、命中所需的最低问题相似度、最大条目数、条目存活时间
+    @Value("${chatbot.answerCache.enabled:true}")
+    private boolean answerCacheEnabled;
+
+    @Value("${chatbot.answerCache.similarity:0.95}")
+    private float answerCacheSimilarity;
+
+    @Value("${chatbot.answerCache.maxSize:1000}")
+    private int answerCacheMaxSize;
+
+    @Value("${chatbot.answerCache.ttlMinutes:60}")
+    private long answerCacheTtlMinutes;
+
+    // 语义回答缓存，未启用时为 null
+    private SemanticAnswerCache answerCache;
+
+    @PostConstruct
+    public void initAnswerCache() {
+        if (answerCacheEnabled) {
+            answerCache = new SemanticAnswerCache(answerCacheMaxSize, answerCacheSimilarity,
+                    answerCacheTtlMinutes * 60_000L);
+        }
+    }
+
     /**
      * 创建聊天记录
      * @param chat 聊天对象
@@ -288,17 +318,53 @@ public class ChatService {
             // 更新会话状态 - 记录问题时间
             sessionState.put("lastActivity", LocalDateTime.now());
 
-            // 1. 识别用户问题的意图
-            Intent intent = intentRecognitionService.recognizeIntentWithLLM(question);
-            // 记录识别到的意图
-            logger.info("用户问题: '" + question + "' 识别到的意图: " + intent);
+            // 识别意图并生成回答（知识问答先查语义缓存）
+            String answer = answerByIntent(question, sessionState);
+
+            // 更新会话状态 - 记录本次回答
+            history.add("助理: " + answer);
+
+            // 保存聊天记录到数据库
+            saveChat(question, answer, sessionId);
+
+            // 返回生成的回答
+            return answer;
+        } catch (Exception e) {
+            // 记录错误日志
+            logger.severe("处理问题时发生错误: " + e.getMessage());
+            // 打印完整的错误堆栈
+            e.printStackTrace();
+            // 返回友好的错误消息
+            return "抱歉，处理您的问题时出现了错误。";
+        }
+    }
+
+    /**
+     * 识别问题意图，并按意图分派到对应的处理方法
+     */
+    private String answerByIntent(String question, Map<String, Object> sessionState) {
+        // 语义缓存：与之前的问题足够相似时直接返回缓存的回答和意图，跳过意图识别、检索和大模型调用
+        boolean cacheable = isAnswerCacheable(sessionState);
+        if (cacheable) {
+            SemanticAnswerCache.Hit cached = lookupCachedAnswer(question, (String) sessionState.get("chatMode"));
+            if (cached != null) {
+                logger.info("语义缓存命中，直接返回缓存的回答: '" + question + "' 意图: " + cached.intent());
+                sessionState.put("lastIntent", cached.intent());
+                return cached.answer();
+            }
+        }
+
+        // 1. 识别用户问题的意图
+        Intent intent = intentRecognitionService.recognizeIntentWithLLM(question);
+        // 记录识别到的意图
+        logger.info("用户问题: '" + question + "' 识别到的意图: " + intent);
 
-            // 记录意图到会话状态
-            sessionState.put("lastIntent", intent);
+        // 记录意图到会话状态
+        sessionState.put("lastIntent", intent);
 
-            // 2. 根据不同意图类型处理
-            String answer;
-            // 使用switch语句根据不同的意图类型调用不同的处理方法
+        // 2. 根据不同意图类型处理
+        String answer;
+        // 使用switch语句根据不同的意图类型调用不同的处理方法
 //            switch (intent) {
 //                case CHIT_CHAT:
 //                    // 处理闲聊类型的问题
@@ -326,37 +392,21 @@ public class ChatService {
 //                    answer = handleKnowledgeQuery(question, sessionState);
 //                    break;
 //            }
-            switch (intent) {
-                case ACCEPT:
-                    answer = handleKnowledgeQuery(question, sessionState);
-                    break;
-                case REFUSE, OUT_OF_SCOPE:
-                    answer = handleRefuseQuestion(question, sessionState);
-                    break;
-                case SWITCH:
-                    answer = "正常转接人工客服，请稍等...";
-                    break;
-                default:
-                    answer = handleRefuseQuestion(question, sessionState);
-                    break;
-            }
-
-            // 更新会话状态 - 记录本次回答
-            history.add("助理: " + answer);
-
-            // 保存聊天记录到数据库
-            saveChat(question, answer, sessionId);
-
-            // 返回生成的回答
-            return answer;
-        } catch (Exception e) {
-            // 记录错误日志
-            logger.severe("处理问题时发生错误: " + e.getMessage());
-            // 打印完整的错误堆栈
-            e.printStackTrace();
-            // 返回友好的错误消息
-            return "抱歉，处理您的问题时出现了错误。";
+        switch (intent) {
+            case ACCEPT:
+                answer = handleKnowledgeQuery(question, sessionState, cacheable);
+                break;
+            case REFUSE, OUT_OF_SCOPE:
+                answer = handleRefuseQuestion(question, sessionState);
+                break;
+            case SWITCH:
+                answer = "正常转接人工客服，请稍等...";
+                break;
+            default:
+                answer = handleRefuseQuestion(question, sessionState);
+                break;
         }
+        return answer;
     }
 
     /**
@@ -770,12 +820,80 @@ public class ChatService {
 
 
 
+    /**
+     * 能否对这次提问使用语义缓存：只缓存会话的第一个问题。
+     * 后续问题的回答依赖会话历史（例如追问"那它多少钱？"），不能在会话之间共享
+     */
+    private boolean isAnswerCacheable(Map<String, Object> sessionState) {
+        if (answerCache == null) {
+            return false;
+        }
+        // 历史中此时只有本次问题
+        List<String> history = (List<String>) sessionState.getOrDefault("history", Collections.emptyList());
+        return history.size() <= 1;
+    }
+
+    /**
+     * 查找语义相近问题的缓存回答
+     * @param chatMode 本次提问使用的聊天模式
+     * @return 未命中时返回 null
+     */
+    private SemanticAnswerCache.Hit lookupCachedAnswer(String question, String chatMode) {
+        // 查询向量由 EmbeddingService 缓存，未命中时后续检索会复用这次的向量
+        float[] questionVector = embeddingService.embedQuery(question);
+        return answerCache.lookup(questionVector, answerCacheScope(chatMode), embeddingService.getKnowledgeVersion());
+    }
+
+    /**
+     * 把参考了知识库、由模型正常生成的知识问答回答写入语义缓存，并返回回答文本
+     * @param cacheable 本次提问能否使用语义缓存
+     * @param chatMode 生成回答使用的聊天模式
+     * @param knowledgeVersion 检索之前读取的知识库版本
+     */
+    private String cacheAnswer(String question, boolean cacheable, String chatMode, long knowledgeVersion,
+                               LLMService.Reply reply) {
+        if (cacheable && reply.generated() && reply.text() != null) {
+            answerCache.put(embeddingService.embedQuery(question), answerCacheScope(chatMode), knowledgeVersion,
+                    reply.text(), Intent.ACCEPT);
+        }
+        return reply.text();
+    }
+
+    /**
+     * 语义缓存的范围：本地和远程模式的回答互不共享；按用户检索时不同用户的回答也互不共享
+     */
+    private String answerCacheScope(String chatMode) {
+        Long ownerId = ownerScopedSearch ? getCurrentUserId() : null;
+        return "mode:" + chatMode + (ownerId != null ? "|user:" + ownerId : "");
+    }
+
+    /**
+     * 语义回答缓存的命中统计
+     */
+    public Map<String, Object> getAnswerCacheStats() {
+        if (answerCache == null) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("enabled", false);
+            return stats;
+        }
+        Map<String, Object> stats = answerCache.stats();
+        stats.put("enabled", true);
+        return stats;
+    }
+
     /**
      * 处理知识型查询
+     * @param cacheable 本次提问能否使用语义缓存（意图识别之前已查过缓存，这里只负责写入）
      */
-    private String handleKnowledgeQuery(String question, Map<String, Object> sessionState) {
+    private String handleKnowledgeQuery(String question, Map<String, Object> sessionState, boolean cacheable) {
+        // 先记录知识库版本，回答生成期间知识库变化时不缓存这次的回答
+        long knowledgeVersion = embeddingService.getKnowledgeVersion();
+
         // 1. 查询相关知识片段
-        List<String> relevantSegments = embeddingService.findRelevantSegments(question, 3);
+        Long ownerId = ownerScopedSearch ? getCurrentUserId() : null;
+        List<String> relevantSegments = ownerId != null
+                ? embeddingService.findRelevantSegmentsForUser(question, 3, ownerId)
+                : embeddingService.findRelevantSegments(question, 3);
 
         // 2. 获取当前聊天模式
         String chatMode = getCurrentChatMode();
@@ -849,7 +967,7 @@ public class ChatService {
             
             // 调用LLMService进行远程对话，使用结构化的消息历史
             logger.info("使用DeepSeek API生成回答，带结构化对话历史，消息总数: " + messageHistory.size());
-            return llmService.generateResponse(messageHistory);
+            return cacheAnswer(question, cacheable, sessionMode, knowledgeVersion, llmService.reply(messageHistory));
         } else {
             // 旧的本地模式逻辑，使用字符串拼接方式的对话历史
             // 获取历史对话作为上下文
@@ -882,7 +1000,8 @@ public class ChatService {
 //                logger.info("片段 " + (i + 1) + ":\n" + relevantSegments.get(i));
 //            }
 
-            return llmService.generateAnswerWithContext(question, relevantSegments, conversationContext);
+            return cacheAnswer(question, cacheable, sessionMode, knowledgeVersion,
+                    llmService.replyWithContext(question, relevantSegments, conversationContext));
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+package com.example.chatbot.service;
+
+import ai.djl.Device;
+import ai.djl.MalformedModelException;
+import ai.djl.huggingface.translator.TextEmbeddingTranslatorFactory;
+import ai.djl.inference.Predictor;
+import ai.djl.repository.zoo.Criteria;
+import ai.djl.repository.zoo.ModelNotFoundException;
+import ai.djl.repository.zoo.ZooModel;
+import ai.djl.translate.TranslateException;
+import com.example.chatbot.util.MicroBatcher;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+
+/**
+ * 进程内 DJL 文本嵌入引擎（PyTorch CPU）。
+ *
+ * Predictor 不是线程安全的，因此维护一个固定大小的 Predictor 池，每次推理借出一个、用完归还。
+ * 单条文本的请求经 {@link MicroBatcher} 合并后以 batchPredict 一次推理，
+ * 工作线程数与池大小相同，池中每个 Predictor 同时处理一个批次。
+ */
+public class DjlEmbeddingEngine implements AutoCloseable {
+
+    private final ZooModel<String, float[]> model;
+    private final List<Predictor<String, float[]>> allPredictors = new ArrayList<>();
+    private final BlockingQueue<Predictor<String, float[]>> idlePredictors;
+    private final MicroBatcher<String, float[]> batcher;
+
+    /**
+     * 加载模型并创建 Predictor 池
+     * @param modelUrl 模型地址，例如 djl://ai.djl.huggingface.pytorch/sentence-transformers/all-MiniLM-L6-v2
+     *                 或包含 TorchScript 模型与 tokenizer.json 的本地目录（file:///...）
+     * @param poolSize Predictor 数量
+     * @param maxBatchSize 合并单条请求时的最大批大小
+     * @param maxWait 合并单条请求时的最长等待时间
+     */
+    public DjlEmbeddingEngine(String modelUrl, int poolSize, int maxBatchSize, Duration maxWait)
+            throws ModelNotFoundException, MalformedModelException, IOException {
+        Criteria<String, float[]> criteria = Criteria.builder()
+                .setTypes(String.class, float[].class)
+                .optModelUrls(modelUrl)
+                .optEngine("PyTorch")
+                .optDevice(Device.cpu())
+                .optTranslatorFactory(new TextEmbeddingTranslatorFactory())
+                .build();
+        model = criteria.loadModel();
+
+        int size = Math.max(1, poolSize);
+        idlePredictors = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            Predictor<String, float[]> predictor = model.newPredictor();
+            allPredictors.add(predictor);
+            idlePredictors.add(predictor);
+        }
+        batcher = new MicroBatcher<>("djl-embed", size, maxBatchSize, maxWait, 1024, this::predictBatch);
+    }
+
+    /**
+     * 单条文本嵌入，与其它线程的并发请求合并推理
+     */
+    public float[] embed(String text) {
+        try {
+            return batcher.submit(text).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    /**
+     * 调用方已经成批的文本（例如文档导入）直接借用一个 Predictor 推理，不再经过微批队列
+     */
+    public List<float[]> embedBatch(List<String> texts) {
+        return predictBatch(texts);
+    }
+
+    /**
+     * 微批统计信息
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = batcher.stats();
+        stats.put("predictors", allPredictors.size());
+        stats.put("idlePredictors", idlePredictors.size());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        batcher.close();
+        for (Predictor<String, float[]> predictor : allPredictors) {
+            predictor.close();
+        }
+        model.close();
+    }
+
+    private List<float[]> predictBatch(List<String> texts) {
+        Predictor<String, float[]> predictor;
+        try {
+            predictor = idlePredictors.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待空闲 Predictor 时被中断", e);
+        }
+        try {
+            return predictor.batchPredict(texts);
+        } catch (TranslateException e) {
+            throw new IllegalStateException("DJL 嵌入推理失败: " + e.getMessage(), e);
+        } finally {
+            idlePredictors.add(predictor);
+        }
+    }
+}
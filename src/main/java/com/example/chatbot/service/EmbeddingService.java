@@ -1,27 +1,62 @@
 package com.example.chatbot.service;
 
-import ai.djl.Device;
 import ai.djl.MalformedModelException;
-import ai.djl.inference.Predictor;
-import ai.djl.repository.zoo.Criteria;
 import ai.djl.repository.zoo.ModelNotFoundException;
-import ai.djl.repository.zoo.ModelZoo;
-import ai.djl.repository.zoo.ZooModel;
-import ai.djl.translate.TranslateException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import com.example.chatbot.repository.EmbeddingCacheRepository;
+import com.example.chatbot.repository.SegmentAlias;
+import com.example.chatbot.repository.SegmentContent;
+import com.example.chatbot.repository.SegmentHash;
 import com.example.chatbot.repository.SegmentRepository;
+import com.example.chatbot.repository.SegmentVectorRepository;
+import com.example.chatbot.repository.VectorSummary;
+import com.example.chatbot.model.EmbeddingCacheEntry;
 import com.example.chatbot.model.Segment;
+import com.example.chatbot.model.SegmentVector;
+import com.example.chatbot.index.Bm25Index;
+import com.example.chatbot.index.FlatVectorStore;
+import com.example.chatbot.index.HnswIndex;
+import com.example.chatbot.index.IvfIndex;
+import com.example.chatbot.index.QuantizedVectorStore;
+import com.example.chatbot.index.SearchHit;
+import com.example.chatbot.index.VectorFile;
+import com.example.chatbot.index.VectorOps;
+import com.example.chatbot.util.MicroBatcher;
+import com.example.chatbot.util.TextUtils;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.Normalizer;
 import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import java.util.stream.Collectors;
 
 /**
@@ -31,26 +66,215 @@ import java.util.stream.Collectors;
  * 3. 远程API（预留扩展）
  */
 @Service
+@DependsOn("segmentStorageInitializer")
 public class EmbeddingService {
     private static final Logger logger = Logger.getLogger(EmbeddingService.class.getName());
     
     private final WebClient client;
-    // 内存索引：segmentId -> vector
-    private final Map<Long, float[]> vectorIndex = new ConcurrentHashMap<>();
+    // 内存索引：连续存放的归一化向量，序号 -> segmentId；重新索引完成后整体替换为重建好的存储
+    private volatile FlatVectorStore vectorStore = new FlatVectorStore();
 
     @Value("${embedding.mode:local}")
     private String embeddingMode;
 
     @Value("${ollama.embedModel:nomic-embed-text}")
     private String embedModel;
+
+    // 批量嵌入时每次请求包含的文本数
+    @Value("${ollama.embedBatchSize:32}")
+    private int embedBatchSize;
+
+    // 批量索引时同时进行嵌入的批次数上限，1 表示在调用线程上逐批嵌入
+    @Value("${embedding.ingest.parallelism:4}")
+    private int ingestParallelism;
+
+    // 批量索引的嵌入专用线程池，所有导入共享，总并发不超过 ingestParallelism；initialize 中创建
+    private ExecutorService ingestExecutor;
+
+    /**
+     * 批量索引中单个片段的失败信息
+     * @param chunkIndex 片段在本次调用输入中的位置
+     */
+    public record ChunkFailure(int chunkIndex, Long segmentId, String reason) {
+    }
+
+    // 检索索引类型：brute（精确暴力检索）、hnsw（近似最近邻图索引）、int8（量化扫描 + 原始向量重打分）
+    // 或 ivf（倒排文件，按簇检索）
+    @Value("${embedding.index.type:brute}")
+    private String indexType;
+
+    @Value("${embedding.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${embedding.hnsw.efConstruction:200}")
+    private int hnswEfConstruction;
+
+    @Value("${embedding.hnsw.efSearch:64}")
+    private int hnswEfSearch;
+
+    // 图中墓碑节点（已删除或被覆盖的向量）超过该比例时在后台重建 HNSW 图，0 表示不重建
+    @Value("${embedding.hnsw.rebuildTombstoneRatio:0.2}")
+    private double hnswRebuildTombstoneRatio;
+
+    // HNSW 图索引，仅在 hnsw 模式下创建；重建完成后整体替换
+    private volatile HnswIndex hnswIndex;
+    private final AtomicBoolean hnswRebuilding = new AtomicBoolean(false);
+
+    // int8 量化候选数相对 K 的倍数
+    @Value("${embedding.int8.rescoreFactor:4}")
+    private int int8RescoreFactor;
+
+    // int8 模式下是否只把原始向量保存在向量文件中（重打分时从文件映射读取），堆内只保留量化码；未配置向量文件时不生效
+    @Value("${embedding.int8.rescoreFromFile:true}")
+    private boolean int8RescoreFromFile;
+
+    // int8 量化副本，仅在 int8 模式下创建
+    private volatile QuantizedVectorStore quantizedStore;
+
+    // IVF 簇数量，0 表示按 4√N 自动选择
+    @Value("${embedding.ivf.nlist:0}")
+    private int ivfNlist;
+
+    // IVF 查询时扫描的簇数量
+    @Value("${embedding.ivf.nprobe:16}")
+    private int ivfNprobe;
+
+    // IVF 倒排列表中 PQ 编码的子空间数，0 表示不使用 PQ
+    @Value("${embedding.ivf.pq.subspaces:0}")
+    private int ivfPqSubspaces;
+
+    // PQ 近似打分后参与精确重打分的候选数相对 K 的倍数
+    @Value("${embedding.ivf.rescoreFactor:4}")
+    private int ivfRescoreFactor;
+
+    // IVF 索引，仅在 ivf 模式下创建；重建完成后整体替换
+    private volatile IvfIndex ivfIndex;
+    private final Object ivfLock = new Object();
+    private final AtomicBoolean ivfRebuilding = new AtomicBoolean(false);
+    private final ExecutorService indexRebuildExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "vector-index-rebuild");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 精确检索的并行度，0 表示使用 CPU 核数
+    @Value("${embedding.search.parallelism:0}")
+    private int searchParallelism;
+
+    // 精确检索专用线程池，避免与公共 ForkJoinPool 中的其它任务争抢
+    private ForkJoinPool searchPool;
+
+    // 向量文件路径，留空表示只从数据库加载
+    @Value("${embedding.vectorFile.path:}")
+    private String vectorFilePath;
+
+    // 追加写入的向量文件，启动时优先从这里加载
+    private volatile VectorFile vectorFile;
+
+    // 限定范围检索时，允许的向量数不超过该值（或不到总量的 1/10）时直接精确扫描允许集合
+    private static final int SCOPED_EXACT_LIMIT = 20_000;
+    private static final int SCOPE_CACHE_SIZE = 256;
+
+    // 检索范围（用户或文档集合）-> 允许序号集合，存储版本变化后失效；按访问顺序淘汰
+    private final Map<String, ScopeFilter> scopeFilterCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ScopeFilter> eldest) {
+            return size() > SCOPE_CACHE_SIZE;
+        }
+    };
+
+    private record ScopeFilter(long version, BitSet ordinals) {
+    }
+
+    // 重复片段ID -> 持有相同内容向量的片段ID；重复片段本身不占用向量存储，重新索引完成后整体替换
+    private volatile Map<Long, Long> vectorAliases = new ConcurrentHashMap<>();
+    // 重复片段登记次数，与存储版本一起构成知识库版本
+    private final AtomicLong aliasVersion = new AtomicLong();
+
+    // 后台重建期间在线写入（新向量或登记重复片段）的片段ID，切换索引时补写到重建结果中；null 表示没有进行中的重建
+    private volatile Set<Long> writesDuringRebuild;
+    // 在线写入持有读锁，切换索引持有写锁，保证每次写入要么在切换前被记录、要么直接写入切换后的索引
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    // 是否启用向量 + BM25 关键词的混合检索
+    @Value("${retrieval.hybrid.enabled:false}")
+    private boolean hybridEnabled;
+
+    // 关键词检索结果参与融合的最低 BM25 得分；融合不再看向量相似度阈值，低于该分数的弱关键词匹配直接丢弃
+    @Value("${retrieval.hybrid.minLexicalScore:2.0}")
+    private float minLexicalScore;
+
+    // 倒数排名融合的平滑常数：融合得分 = Σ 1 / (RRF_K + 名次)
+    private static final int RRF_K = 60;
+    private static final int LEXICAL_LOAD_PAGE_SIZE = 1000;
+
+    // 片段内容的 BM25 倒排索引，仅在混合检索模式下填充
+    private final Bm25Index lexicalIndex = new Bm25Index();
+
+    // 片段内容缓存的字节上限，0 表示不缓存（检索结果每次都从数据库读取内容）
+    @Value("${retrieval.segmentCache.maxBytes:67108864}")
+    private long segmentCacheMaxBytes;
+
+    // 片段ID -> 内容，initialize 中创建；启动时预热，导入时写入，检索未命中时回填
+    private SegmentContentCache segmentContentCache;
+
+    // 查询向量缓存容量，0 表示不缓存
+    @Value("${embedding.queryCache.maxSize:10000}")
+    private int queryCacheSize;
+
+    // 问题文本 -> 查询向量的缓存，initialize 中创建
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    // 查询向量微批：并发到达的问题最多合并 maxSize 条、最多等待 maxWaitMillis 毫秒后一次批量嵌入
+    @Value("${embedding.queryBatch.enabled:true}")
+    private boolean queryBatchEnabled;
+
+    @Value("${embedding.queryBatch.maxSize:16}")
+    private int queryBatchMaxSize;
+
+    @Value("${embedding.queryBatch.maxWaitMillis:3}")
+    private long queryBatchMaxWaitMillis;
+
+    // 同时进行的批量查询嵌入请求数
+    @Value("${embedding.queryBatch.workers:2}")
+    private int queryBatchWorkers;
+
+    // 查询向量微批处理器，initialize 中创建；djl 模式下引擎自身已合并请求，不再创建
+    private MicroBatcher<String, float[]> queryBatcher;
     
     @Autowired
     private SegmentRepository segmentRepository;
+
+    @Autowired
+    private SegmentVectorRepository segmentVectorRepository;
+
+    @Autowired
+    private SegmentVectorWriter segmentVectorWriter;
+
+    // 是否启用持久化嵌入缓存（embedding_cache 表，按 内容摘要 + 模型 + 维度 保存向量）
+    @Value("${embedding.persistentCache.enabled:true}")
+    private boolean persistentCacheEnabled;
+
+    @Autowired
+    private EmbeddingCacheRepository embeddingCacheRepository;
     
+    // DJL 嵌入模型地址（djl:// 模型库地址或本地模型目录）
+    @Value("${djl.embedding.modelUrl:djl://ai.djl.huggingface.pytorch/sentence-transformers/all-MiniLM-L6-v2}")
+    private String djlModelUrl;
+
+    // Predictor 池大小，0 表示使用 CPU 核数的一半
+    @Value("${djl.embedding.predictors:0}")
+    private int djlPredictors;
+
+    // 合并并发单条请求时的最大批大小和最长等待时间
+    @Value("${djl.embedding.maxBatchSize:32}")
+    private int djlMaxBatchSize;
+
+    @Value("${djl.embedding.maxWaitMillis:5}")
+    private long djlMaxWaitMillis;
+
     // DJL相关字段
-    private ZooModel<String, float[]> model;
-    private Predictor<String, float[]> predictor;
-    private boolean djlModelLoaded = false;
+    private volatile DjlEmbeddingEngine djlEngine;
 
     public EmbeddingService(WebClient ollamaClient) {
         this.client = ollamaClient;
@@ -58,20 +282,44 @@ public class EmbeddingService {
     
     @PostConstruct
     public void initialize() {
-        // 加载所有已有段落的向量到内存索引
-        List<Segment> allSegments = segmentRepository.findAll();
-        logger.info("正在加载 " + allSegments.size() + " 个片段的向量到内存...");
-        
-        int vectorsLoaded = 0;
-        for (Segment segment : allSegments) {
-            if (segment.getVector() != null) {
-                float[] vector = deserializeVector(segment.getVector());
-                vectorIndex.put(segment.getId(), vector);
-                vectorsLoaded++;
-            }
+        int parallelism = searchParallelism > 0 ? searchParallelism : Runtime.getRuntime().availableProcessors();
+        searchPool = new ForkJoinPool(parallelism);
+        if (ingestParallelism > 1) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            ingestExecutor = Executors.newFixedThreadPool(ingestParallelism, r -> {
+                Thread t = new Thread(r, "segment-embed-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        queryEmbeddingCache = queryCacheSize > 0 ? new QueryEmbeddingCache(queryCacheSize) : null;
+        segmentContentCache = segmentCacheMaxBytes > 0 ? new SegmentContentCache(segmentCacheMaxBytes) : null;
+        if (queryBatchEnabled && !"djl".equalsIgnoreCase(embeddingMode)) {
+            queryBatcher = new MicroBatcher<>("query-embed", queryBatchWorkers, queryBatchMaxSize,
+                    Duration.ofMillis(queryBatchMaxWaitMillis), 1024, this::embedOneBatch);
+        }
+
+        if (isInt8FileMode()) {
+            vectorStore = FlatVectorStore.withoutVectors();
+        }
+        // 优先从向量文件加载，文件缺失或与数据库不一致时回退到数据库
+        if (!loadFromVectorFile()) {
+            loadFromDatabase();
+        }
+        logger.info("内存索引中共有 " + vectorStore.size() + " 个向量，相似度内核: " + VectorOps.kernelName());
+
+        // 关键词索引和内容缓存需要读取片段内容，放到后台构建，构建完成前混合检索只有向量一路结果
+        if (hybridEnabled || segmentContentCache != null) {
+            indexRebuildExecutor.submit(this::loadSegmentContents);
+        }
+
+        if (isHnswMode()) {
+            hnswIndex = buildHnswIndex(vectorStore);
+        } else if (isInt8Mode() && !isInt8FileMode()) {
+            quantizedStore = buildQuantizedStore(vectorStore);
+        } else if (isIvfMode()) {
+            rebuildIvfIndex();
         }
-        
-        logger.info("成功加载 " + vectorsLoaded + " 个向量到内存索引");
         
         // 如果配置了DJL模式，尝试加载模型
         if ("djl".equalsIgnoreCase(embeddingMode)) {
@@ -81,95 +329,1056 @@ public class EmbeddingService {
     
     @PreDestroy
     public void cleanup() {
+        if (searchPool != null) {
+            searchPool.shutdown();
+        }
+        if (ingestExecutor != null) {
+            ingestExecutor.shutdownNow();
+        }
+        if (queryBatcher != null) {
+            queryBatcher.close();
+        }
+        indexRebuildExecutor.shutdownNow();
+        closeVectorFile();
         // 释放DJL资源
-        if (predictor != null) {
-            predictor.close();
+        if (djlEngine != null) {
+            djlEngine.close();
+        }
+    }
+    
+    /**
+     * 从向量文件映射加载全部向量
+     * @return 文件存在且记录数与数据库一致时返回 true
+     */
+    private boolean loadFromVectorFile() {
+        if (vectorFilePath == null || vectorFilePath.isBlank()) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            VectorFile file = VectorFile.openExisting(Paths.get(vectorFilePath), vectorModelId());
+            if (file == null) {
+                logger.info("向量文件不存在或模型不一致: " + vectorFilePath);
+                return false;
+            }
+            if (file.isDirty()) {
+                logger.warning("向量文件中有追加失败的记录，改为从数据库加载");
+                file.close();
+                return false;
+            }
+            // int8 文件模式下加载的同时量化，原始向量留在文件中
+            QuantizedVectorStore quantized = isInt8FileMode() ? new QuantizedVectorStore(vectorStore, file) : null;
+            VectorFile.Summary loaded = file.load(vectorStore, vectorAliases, quantized == null ? null : quantized::add);
+            // 除条数外再核对最大片段ID和ID之和，条数相同但片段不同（例如漏写一条、多写一条）时也能发现
+            VectorSummary db = segmentVectorRepository.summarizeForModel(vectorModelId());
+            if (loaded.count() != db.getCount() || loaded.maxId() != db.getMaxId() || loaded.idSum() != db.getIdSum()) {
+                logger.warning("向量文件（" + loaded.count() + " 条，最大ID " + loaded.maxId() + "）与数据库（"
+                        + db.getCount() + " 条，最大ID " + db.getMaxId() + "）不一致，改为从数据库加载");
+                file.close();
+                vectorStore.clear();
+                vectorAliases.clear();
+                return false;
+            }
+            vectorFile = file;
+            quantizedStore = quantized;
+            logger.info("从向量文件加载 " + vectorStore.size() + " 个向量，耗时: " +
+                    (System.currentTimeMillis() - start) + "ms");
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.warning("读取向量文件失败，改为从数据库加载: " + e.getMessage());
+            vectorStore.clear();
+            vectorAliases.clear();
+            return false;
+        }
+    }
+
+    /**
+     * 从数据库加载所有已有片段的向量，并据此重写向量文件
+     */
+    private void loadFromDatabase() {
+        String model = vectorModelId();
+        logger.info("正在从数据库加载 " + segmentVectorRepository.countForModel(model) + " 个片段的向量到内存...");
+        VectorFile file = createVectorFile();
+        QuantizedVectorStore quantized = isInt8FileMode() ? new QuantizedVectorStore(vectorStore, file) : null;
+
+        // 按片段ID分页读取，跳过其它模型生成的向量（重新索引中途重启时新旧向量并存），未记录模型的旧数据照常加载
+        int vectorsLoaded = 0;
+        long afterId = 0;
+        List<SegmentVector> page;
+        do {
+            page = segmentVectorRepository.findForModelAfter(afterId, model, PageRequest.of(0, LEXICAL_LOAD_PAGE_SIZE));
+            for (SegmentVector row : page) {
+                float[] vector = deserializeVector(row.getVector());
+                int ordinal = addToStore(row.getSegmentId(), vector);
+                long record = file != null ? appendToVectorFile(file, row.getSegmentId(), vector) : -1;
+                if (ordinal >= 0) {
+                    vectorsLoaded++;
+                    if (quantized != null) {
+                        quantized.add(ordinal, vector, record);
+                    }
+                }
+                afterId = row.getSegmentId();
+            }
+        } while (page.size() == LEXICAL_LOAD_PAGE_SIZE);
+        // 重复片段共用其它片段的向量
+        for (SegmentAlias alias : segmentRepository.findVectorAliases()) {
+            if (vectorStore.ordinalOf(alias.getCanonicalId()) >= 0) {
+                vectorAliases.put(alias.getId(), alias.getCanonicalId());
+                if (file != null) {
+                    try {
+                        file.appendAlias(alias.getId(), alias.getCanonicalId());
+                    } catch (IOException e) {
+                        vectorFileWriteFailed(file, alias.getId(), e);
+                    }
+                }
+            }
+        }
+        vectorFile = file;
+        if (quantized != null) {
+            quantizedStore = quantized;
+        }
+        logger.info("成功加载 " + vectorsLoaded + " 个向量到内存索引，" + vectorAliases.size() + " 个重复片段共用已有向量");
+    }
+
+    /**
+     * 新建（清空）向量文件，未配置路径或创建失败时返回 null
+     */
+    private VectorFile createVectorFile() {
+        if (vectorFilePath == null || vectorFilePath.isBlank()) {
+            return null;
+        }
+        try {
+            return VectorFile.create(Paths.get(vectorFilePath), vectorModelId());
+        } catch (IOException e) {
+            logger.warning("创建向量文件失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return 记录序号，写入失败时返回 -1
+     */
+    private long appendToVectorFile(VectorFile file, Long segmentId, float[] vector) {
+        try {
+            return file.append(segmentId, vector);
+        } catch (IOException | IllegalArgumentException e) {
+            vectorFileWriteFailed(file, segmentId, e);
+            return -1;
+        }
+    }
+
+    /**
+     * 向量文件追加失败后文件不再完整：在头部记为 dirty，下次启动改为从数据库加载并重写文件；
+     * 标志也写不进去时删除文件，同样迫使下次启动从数据库加载
+     */
+    private void vectorFileWriteFailed(VectorFile file, Long segmentId, Exception cause) {
+        logger.warning("片段 " + segmentId + " 写入向量文件失败，下次启动将从数据库加载: " + cause.getMessage());
+        try {
+            file.markDirty();
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(file.getPath());
+            } catch (IOException deleteFailed) {
+                logger.severe("无法标记或删除向量文件 " + file.getPath() + "，请在重启前手动删除: " + deleteFailed.getMessage());
+            }
+        }
+    }
+
+    private void closeVectorFile() {
+        if (vectorFile != null) {
+            try {
+                vectorFile.close();
+            } catch (IOException e) {
+                logger.warning("关闭向量文件失败: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 向量文件的模型标识，嵌入模式或模型变化后旧文件自动失效
+     */
+    String vectorModelId() {
+        return embeddingMode + ":" + activeModelName();
+    }
+
+    /**
+     * 当前嵌入模式实际使用的模型名：djl 模式取模型地址的最后一段，其余模式为 Ollama 嵌入模型
+     */
+    private String activeModelName() {
+        if ("djl".equalsIgnoreCase(embeddingMode)) {
+            return djlModelUrl.substring(djlModelUrl.lastIndexOf('/') + 1);
+        }
+        return embedModel;
+    }
+
+    private boolean isHnswMode() {
+        return "hnsw".equalsIgnoreCase(indexType);
+    }
+
+    private boolean isInt8Mode() {
+        return "int8".equalsIgnoreCase(indexType);
+    }
+
+    private boolean isIvfMode() {
+        return "ivf".equalsIgnoreCase(indexType);
+    }
+
+    /**
+     * int8 模式下原始向量只保存在向量文件中，内存存储只分配序号
+     */
+    private boolean isInt8FileMode() {
+        return isInt8Mode() && int8RescoreFromFile && vectorFilePath != null && !vectorFilePath.isBlank();
+    }
+
+    /**
+     * 在后台重新训练 IVF 索引（适用于语料规模大幅变化之后）
+     * @return 是否提交了重建任务；非 ivf 模式或已有重建在进行时返回 false
+     */
+    public boolean scheduleIndexRebuild() {
+        if (!isIvfMode() || !ivfRebuilding.compareAndSet(false, true)) {
+            return false;
+        }
+        indexRebuildExecutor.submit(() -> {
+            try {
+                rebuildIvfIndex();
+            } catch (Exception e) {
+                logger.severe("IVF 索引重建失败: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                ivfRebuilding.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 训练 k-means 中心并把当前全部向量装入新的 IVF 索引，完成后替换旧索引。
+     * 训练期间旧索引继续服务查询，训练期间新写入的向量在替换前补齐；训练期间存储被整体替换时放弃本次结果。
+     */
+    private void rebuildIvfIndex() {
+        long start = System.currentTimeMillis();
+        FlatVectorStore store = vectorStore;
+        IvfIndex fresh = IvfIndex.build(store, ivfNlist, ivfNprobe, ivfPqSubspaces, ivfRescoreFactor,
+                System.currentTimeMillis());
+        if (fresh == null) {
+            logger.info("内存中没有向量，暂不构建 IVF 索引");
+            return;
+        }
+        synchronized (ivfLock) {
+            if (store != vectorStore) {
+                logger.info("IVF 训练期间索引已切换，放弃本次训练结果");
+                return;
+            }
+            addAllOrdinals(store, fresh);
+            ivfIndex = fresh;
+        }
+        logIvfBuilt(fresh, start);
+    }
+
+    /**
+     * 为给定存储训练并装载一个新的 IVF 索引，存储为空时返回 null
+     */
+    private IvfIndex buildIvfIndex(FlatVectorStore store) {
+        long start = System.currentTimeMillis();
+        IvfIndex fresh = IvfIndex.build(store, ivfNlist, ivfNprobe, ivfPqSubspaces, ivfRescoreFactor,
+                System.currentTimeMillis());
+        if (fresh != null) {
+            addAllOrdinals(store, fresh);
+            logIvfBuilt(fresh, start);
+        }
+        return fresh;
+    }
+
+    private static void addAllOrdinals(FlatVectorStore store, IvfIndex index) {
+        for (int ordinal = 0; ordinal < store.ordinalCount(); ordinal++) {
+            if (store.idAt(ordinal) != FlatVectorStore.NO_ID) {
+                index.add(ordinal);
+            }
+        }
+    }
+
+    private void logIvfBuilt(IvfIndex index, long start) {
+        logger.info("IVF 索引构建完成，簇数: " + index.nlist() + ", nprobe=" + ivfNprobe +
+                ", PQ: " + (index.usesProductQuantization() ? ivfPqSubspaces + " 子空间" : "未启用") +
+                ", 耗时: " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 按ID分页读取片段内容：混合检索模式下构建 BM25 关键词索引，并把片段预热进内容缓存直到缓存写满
+     */
+    private void loadSegmentContents() {
+        long start = System.currentTimeMillis();
+        try {
+            long afterId = 0;
+            boolean cacheHasRoom = segmentContentCache != null;
+            List<SegmentContent> page;
+            do {
+                page = segmentRepository.findContentAfter(afterId, PageRequest.of(0, LEXICAL_LOAD_PAGE_SIZE));
+                for (SegmentContent segment : page) {
+                    if (hybridEnabled) {
+                        lexicalIndex.add(segment.getId(), segment.getContent());
+                    }
+                    if (cacheHasRoom) {
+                        cacheHasRoom = segmentContentCache.offer(segment.getId(), segment.getContent());
+                    }
+                    afterId = segment.getId();
+                }
+            } while (page.size() == LEXICAL_LOAD_PAGE_SIZE && (hybridEnabled || cacheHasRoom));
+            if (hybridEnabled) {
+                logger.info("关键词索引构建完成，片段数: " + lexicalIndex.size() +
+                        ", 耗时: " + (System.currentTimeMillis() - start) + "ms");
+            }
+            if (segmentContentCache != null) {
+                logger.info("片段内容缓存预热完成: " + segmentContentCache.stats());
+            }
+        } catch (Exception e) {
+            logger.severe("读取片段内容失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 写入片段的最新内容（新建或内容有更新的片段在写库提交后调用），覆盖缓存中的旧内容
+     */
+    public void cacheSegmentContent(Long segmentId, String content) {
+        if (segmentContentCache != null) {
+            segmentContentCache.put(segmentId, content);
+        }
+    }
+
+    /**
+     * 按ID读取片段内容：先查内容缓存，未命中的再从数据库读取并回填缓存
+     * @return 片段ID -> 内容，数据库中不存在的片段不包含在内
+     */
+    private Map<Long, String> readSegmentContents(List<Long> segmentIds) {
+        if (segmentContentCache == null) {
+            return segmentRepository.findContentByIdIn(segmentIds).stream()
+                    .collect(Collectors.toMap(SegmentContent::getId, SegmentContent::getContent, (a, b) -> a));
+        }
+        Map<Long, String> contents = segmentContentCache.getAll(segmentIds);
+        if (contents.size() < segmentIds.size()) {
+            List<Long> missing = segmentIds.stream()
+                    .filter(id -> !contents.containsKey(id))
+                    .collect(Collectors.toList());
+            for (SegmentContent segment : segmentRepository.findContentByIdIn(missing)) {
+                // 不覆盖读库期间导入流程写入的新内容
+                segmentContentCache.putIfAbsent(segment.getId(), segment.getContent());
+                contents.put(segment.getId(), segment.getContent());
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * 片段内容缓存的统计信息
+     */
+    public Map<String, Object> getSegmentCacheStats() {
+        if (segmentContentCache == null) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("enabled", false);
+            return stats;
+        }
+        Map<String, Object> stats = segmentContentCache.stats();
+        stats.put("enabled", true);
+        return stats;
+    }
+
+    /**
+     * 把片段文本写入关键词索引（未启用混合检索时忽略）
+     */
+    public void indexLexical(Long segmentId, String content) {
+        if (hybridEnabled) {
+            lexicalIndex.add(segmentId, content);
+        }
+    }
+
+    /**
+     * 为存储中的全部向量生成 int8 量化副本；构建完成后才由调用方发布，查询不会看到只构建了一部分的副本
+     */
+    private QuantizedVectorStore buildQuantizedStore(FlatVectorStore store) {
+        long start = System.currentTimeMillis();
+        QuantizedVectorStore quantized = new QuantizedVectorStore(store);
+        for (int ordinal = 0; ordinal < store.ordinalCount(); ordinal++) {
+            if (store.idAt(ordinal) != FlatVectorStore.NO_ID) {
+                quantized.add(ordinal);
+            }
+        }
+        logger.info("int8 量化索引构建完成，向量数: " + store.size() +
+                ", 耗时: " + (System.currentTimeMillis() - start) + "ms");
+        return quantized;
+    }
+
+    /**
+     * 新写入存储的向量同步到当前启用的二级索引（调用方持有 swapLock 读锁，序号与当前存储一致）
+     * @param record 向量在向量文件中的记录序号，未写入文件时为 -1
+     */
+    private void addToSecondaryIndex(int ordinal, float[] vector, long record) {
+        HnswIndex hnsw = hnswIndex;
+        if (hnsw != null) {
+            hnsw.add(ordinal);
+            // 覆盖已有片段的向量会留下墓碑
+            scheduleHnswRebuildIfNeeded();
+        }
+        QuantizedVectorStore quantized = quantizedStore;
+        if (quantized != null) {
+            quantized.add(ordinal, vector, record);
+        }
+        if (isIvfMode()) {
+            synchronized (ivfLock) {
+                if (ivfIndex != null) {
+                    ivfIndex.add(ordinal);
+                }
+            }
+            // 语料规模比训练时翻倍（或尚未训练）时，后台重新训练簇中心
+            IvfIndex current = ivfIndex;
+            if (current == null || vectorStore.size() > 2 * Math.max(current.trainedSize(), 1000)) {
+                scheduleIndexRebuild();
+            }
+        }
+    }
+
+    /**
+     * 根据存储中的向量并行构建 HNSW 图索引；构建完成后才由调用方发布
+     */
+    private HnswIndex buildHnswIndex(FlatVectorStore store) {
+        long start = System.currentTimeMillis();
+        HnswIndex index = new HnswIndex(store, hnswM, hnswEfConstruction, hnswEfSearch);
+        IntStream.range(0, store.ordinalCount()).parallel()
+                .filter(ordinal -> store.idAt(ordinal) != FlatVectorStore.NO_ID)
+                .forEach(index::add);
+        logger.info("HNSW 索引构建完成，节点数: " + index.size() +
+                ", M=" + hnswM + ", efConstruction=" + hnswEfConstruction +
+                ", 耗时: " + (System.currentTimeMillis() - start) + "ms");
+        return index;
+    }
+
+    /**
+     * 图中墓碑节点比例超过阈值时，在后台基于当前存储重新构建 HNSW 图（只包含有效向量）。
+     * 墓碑只用于导航，删除较多后图的连通性变差、召回率明显下降
+     */
+    private void scheduleHnswRebuildIfNeeded() {
+        HnswIndex hnsw = hnswIndex;
+        if (hnsw == null || hnswRebuildTombstoneRatio <= 0 || hnsw.tombstoneRatio() < hnswRebuildTombstoneRatio
+                || !hnswRebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        indexRebuildExecutor.submit(() -> {
+            try {
+                rebuildHnswIndex();
+            } catch (Exception e) {
+                logger.severe("HNSW 索引重建失败: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                hnswRebuilding.set(false);
+            }
+        });
+    }
+
+    /**
+     * 构建期间旧图继续服务查询；替换时持有写锁，补上构建期间新写入的序号，存储已被整体替换时放弃本次结果
+     */
+    private void rebuildHnswIndex() {
+        FlatVectorStore store = vectorStore;
+        int built = store.ordinalCount();
+        HnswIndex fresh = buildHnswIndex(store);
+        swapLock.writeLock().lock();
+        try {
+            if (store != vectorStore || hnswIndex == null) {
+                logger.info("HNSW 重建期间索引已切换，放弃本次重建结果");
+                return;
+            }
+            for (int ordinal = built; ordinal < store.ordinalCount(); ordinal++) {
+                if (store.idAt(ordinal) != FlatVectorStore.NO_ID) {
+                    fresh.add(ordinal);
+                }
+            }
+            hnswIndex = fresh;
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 把向量写入内存存储（写入时归一化）
+     * @return 分配的序号，零向量或维度不一致时返回 -1
+     */
+    private int addToStore(Long segmentId, float[] vector) {
+        try {
+            int ordinal = vectorStore.add(segmentId, vector);
+            if (ordinal < 0) {
+                logger.warning("片段 " + segmentId + " 的向量为零向量，未加入内存索引");
+            }
+            return ordinal;
+        } catch (IllegalArgumentException e) {
+            logger.warning("片段 " + segmentId + " 未加入内存索引: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * 加载DJL模型并创建 Predictor 池
+     */
+    private synchronized void loadDjlModel() {
+        if (djlEngine != null) {
+            return;
+        }
+        try {
+            logger.info("正在加载DJL嵌入模型: " + djlModelUrl);
+            int poolSize = djlPredictors > 0 ? djlPredictors
+                    : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            djlEngine = new DjlEmbeddingEngine(djlModelUrl, poolSize, djlMaxBatchSize,
+                    Duration.ofMillis(djlMaxWaitMillis));
+            logger.info("DJL嵌入模型加载成功，Predictor 数量: " + poolSize);
+        } catch (ModelNotFoundException | MalformedModelException | IOException e) {
+            logger.severe("DJL模型加载失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 核心对外方法：返回一段文本的 embedding 向量
+     */
+    public float[] embedText(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            logger.warning("尝试对空文本进行嵌入，返回零向量");
+            return new float[512]; // 返回零向量
+        }
+        if (persistentCacheEnabled) {
+            return embedThroughPersistentCache(List.of(text), texts -> List.of(computeEmbedding(texts.get(0)))).get(0);
+        }
+        return computeEmbedding(text);
+    }
+
+    /**
+     * 按当前嵌入模式调用模型生成向量（不经过持久化缓存）
+     */
+    private float[] computeEmbedding(String text) {
+        try {
+            switch (embeddingMode.toLowerCase()) {
+                case "ollama":
+                    return embedViaOllama(text);
+                case "djl":
+                    return embedViaDJL(text);
+                case "remote":
+                    return embedViaRemoteApi(text);
+                default:
+                    logger.warning("未知的嵌入模式: " + embeddingMode + "，使用Ollama作为后备");
+                    return embedViaOllama(text);
+            }
+        } catch (Exception e) {
+            logger.severe("嵌入向量生成失败: " + e.getMessage());
+            e.printStackTrace();
+            // 出错时返回空向量，但在生产环境可能需要更好的错误处理
+            return new float[512];
+        }
+    }
+
+    /**
+     * 批量生成嵌入向量，返回结果与输入一一对应。
+     * 按 ollama.embedBatchSize 分批，每批一次请求；空文本和失败的文本对应零向量（与 embedText 一致）
+     */
+    public List<float[]> embedBatch(List<String> texts) {
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        int batchSize = Math.max(1, embedBatchSize);
+        for (int from = 0; from < texts.size(); from += batchSize) {
+            List<String> batch = texts.subList(from, Math.min(texts.size(), from + batchSize));
+            vectors.addAll(persistentCacheEnabled
+                    ? embedThroughPersistentCache(batch, this::embedOneBatch)
+                    : embedOneBatch(batch));
+        }
+        return vectors;
+    }
+
+    /**
+     * 对一批文本生成向量：空文本直接给零向量，其余文本按嵌入模式一次性处理
+     */
+    private List<float[]> embedOneBatch(List<String> batch) {
+        float[][] vectors = new float[batch.size()][];
+        List<Integer> positions = new ArrayList<>(batch.size());
+        List<String> inputs = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            String text = batch.get(i);
+            if (text == null || text.trim().isEmpty()) {
+                vectors[i] = new float[512];
+            } else {
+                positions.add(i);
+                inputs.add(text);
+            }
+        }
+
+        List<float[]> embedded = null;
+        if (!inputs.isEmpty()) {
+            try {
+                switch (embeddingMode.toLowerCase()) {
+                    case "ollama":
+                        embedded = embedBatchViaOllama(inputs);
+                        break;
+                    case "djl":
+                        embedded = embedBatchViaDJL(inputs);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (Exception e) {
+                logger.warning("批量嵌入失败，逐条重试: " + e.getMessage());
+            }
+        }
+        for (int i = 0; i < inputs.size(); i++) {
+            vectors[positions.get(i)] = embedded != null ? embedded.get(i) : computeEmbedding(inputs.get(i));
+        }
+        return Arrays.asList(vectors);
+    }
+
+    /**
+     * 调用 Ollama 的 /api/embed 端点，一次请求处理多条文本
+     */
+    @SuppressWarnings("unchecked")
+    private List<float[]> embedBatchViaOllama(List<String> texts) {
+        Map<String, Object> req = Map.of(
+                "model", embedModel,
+                "input", texts
+        );
+
+        long start = System.currentTimeMillis();
+        Map<String, Object> resp = client.post()
+                .uri("/api/embed")
+                .bodyValue(req)
+                .retrieve()
+                .bodyToMono(Map.class)
+                .timeout(Duration.ofSeconds(30 + 2L * texts.size()))
+                .block();
+
+        if (resp == null || !(resp.get("embeddings") instanceof List)) {
+            throw new RuntimeException("Ollama Embed API 未返回 embeddings 字段");
+        }
+        List<List<Number>> embeddings = (List<List<Number>>) resp.get("embeddings");
+        if (embeddings.size() != texts.size()) {
+            throw new RuntimeException("Ollama Embed API 返回 " + embeddings.size() + " 个向量，请求为 " + texts.size() + " 条");
+        }
+
+        List<float[]> vectors = new ArrayList<>(embeddings.size());
+        for (List<Number> emb : embeddings) {
+            float[] vector = new float[emb.size()];
+            for (int i = 0; i < emb.size(); i++) {
+                vector[i] = emb.get(i).floatValue();
+            }
+            vectors.add(vector);
+        }
+        logger.info("批量嵌入 " + texts.size() + " 条文本，耗时 " + (System.currentTimeMillis() - start) + "ms");
+        return vectors;
+    }
+
+    /**
+     * 使用 DJL 的 batchPredict 批量生成向量（从 Predictor 池借用一个 Predictor）
+     */
+    private List<float[]> embedBatchViaDJL(List<String> texts) {
+        DjlEmbeddingEngine engine = djlEngine();
+        if (engine == null) {
+            logger.warning("DJL模型未加载，回退到Ollama API");
+            return embedBatchViaOllama(texts);
+        }
+        return engine.embedBatch(texts);
+    }
+
+    /**
+     * 先查持久化缓存，未命中的文本交给 embedder 生成，生成成功的向量写回缓存。
+     * 缓存读写失败不影响嵌入本身。
+     */
+    private List<float[]> embedThroughPersistentCache(List<String> texts,
+                                                      Function<List<String>, List<float[]>> embedder) {
+        String model = vectorModelId();
+        List<String> hashes = texts.stream().map(TextUtils::contentHash).collect(Collectors.toList());
+        Map<String, float[]> cached = loadCachedEmbeddings(model, hashes);
+
+        List<float[]> vectors = new ArrayList<>(Collections.nCopies(texts.size(), (float[]) null));
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            float[] vector = cached.get(hashes.get(i));
+            if (vector != null) {
+                vectors.set(i, vector.clone());
+            } else {
+                missing.add(i);
+            }
+        }
+        if (missing.isEmpty()) {
+            return vectors;
+        }
+
+        List<float[]> computed = embedder.apply(missing.stream().map(texts::get).collect(Collectors.toList()));
+        Map<String, float[]> fresh = new LinkedHashMap<>();
+        for (int k = 0; k < missing.size(); k++) {
+            int i = missing.get(k);
+            float[] vector = computed.get(k);
+            vectors.set(i, vector);
+            if (!isZeroVector(vector)) {
+                fresh.putIfAbsent(hashes.get(i), vector);
+            }
+        }
+        saveCachedEmbeddings(model, fresh);
+        if (texts.size() > 1 && missing.size() < texts.size()) {
+            logger.info("持久化嵌入缓存命中 " + (texts.size() - missing.size()) + "/" + texts.size() + " 条");
+        }
+        return vectors;
+    }
+
+    /**
+     * 读取缓存向量；内存索引中已有向量时只接受与其维度一致的缓存
+     * @return 内容摘要 -> 向量
+     */
+    private Map<String, float[]> loadCachedEmbeddings(String model, List<String> hashes) {
+        Map<String, float[]> cached = new HashMap<>();
+        int expectedDimension = vectorStore.size() > 0 ? vectorStore.dimension() : 0;
+        try {
+            for (EmbeddingCacheEntry entry : embeddingCacheRepository.findByModelIdAndContentHashIn(model, hashes)) {
+                if (expectedDimension == 0 || entry.getDimension() == expectedDimension) {
+                    cached.putIfAbsent(entry.getContentHash(), deserializeVector(entry.getVector()));
+                }
+            }
+        } catch (Exception e) {
+            logger.warning("读取持久化嵌入缓存失败: " + e.getMessage());
+        }
+        return cached;
+    }
+
+    private void saveCachedEmbeddings(String model, Map<String, float[]> vectors) {
+        if (vectors.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<EmbeddingCacheEntry> entries = new ArrayList<>(vectors.size());
+        vectors.forEach((hash, vector) -> {
+            EmbeddingCacheEntry entry = new EmbeddingCacheEntry();
+            entry.setContentHash(hash);
+            entry.setModelId(model);
+            entry.setDimension(vector.length);
+            entry.setVector(serializeVector(vector));
+            entry.setCreatedAt(now);
+            entries.add(entry);
+        });
+        try {
+            embeddingCacheRepository.saveAll(entries);
+        } catch (Exception e) {
+            // 并发导入相同内容时可能违反唯一约束，缓存只是加速手段，忽略即可
+            logger.warning("写入持久化嵌入缓存失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 生成用户问题的查询向量：先查缓存，相同问题的并发请求只调用一次嵌入模型；
+     * 未命中的不同问题经微批合并后批量嵌入
+     */
+    public float[] embedQuery(String question) {
+        if (question == null || question.isBlank()) {
+            return embedText(question);
+        }
+        String normalized = normalizeQuery(question);
+        if (queryEmbeddingCache == null) {
+            return embedQueryText(normalized);
+        }
+        return queryEmbeddingCache.get(embeddingMode + ":" + activeModelName() + "|" + normalized,
+                () -> embedQueryText(normalized));
+    }
+
+    /**
+     * 通过微批处理器嵌入一条问题；未启用微批或批处理器不可用时直接调用 embedText
+     */
+    private float[] embedQueryText(String text) {
+        // 问题向量只进内存缓存，不写入持久化缓存
+        if (queryBatcher == null) {
+            return computeEmbedding(text);
+        }
+        try {
+            return queryBatcher.submit(text).join();
+        } catch (CompletionException | CancellationException e) {
+            logger.warning("查询向量微批失败，直接嵌入: " + e.getMessage());
+            return computeEmbedding(text);
+        }
+    }
+
+    /**
+     * 当前嵌入模式与模型的标识（写入 SegmentVector.vectorModel 和向量文件头）
+     */
+    public String getVectorModelId() {
+        return vectorModelId();
+    }
+
+    /**
+     * 嵌入一组文本：按批大小切分后在嵌入专用线程池中并发执行，结果与输入按位置一一对应
+     */
+    public List<float[]> embedAll(List<String> texts) {
+        int batchSize = Math.max(1, embedBatchSize);
+        if (ingestExecutor == null || texts.size() <= batchSize) {
+            return embedBatch(texts);
+        }
+        List<Future<List<float[]>>> futures = new ArrayList<>();
+        for (int from = 0; from < texts.size(); from += batchSize) {
+            List<String> batch = texts.subList(from, Math.min(texts.size(), from + batchSize));
+            futures.add(ingestExecutor.submit(() -> embedBatch(batch)));
+        }
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        try {
+            for (Future<List<float[]>> future : futures) {
+                vectors.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("嵌入被中断", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw new IllegalStateException("批量嵌入失败: " + e.getCause().getMessage(), e.getCause());
+        }
+        return vectors;
+    }
+
+    /**
+     * 开始后台重建：此后在线写入的片段ID会被记录，切换索引时补写到重建结果中
+     */
+    public void beginRebuild() {
+        writesDuringRebuild = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * 重建未完成就结束（失败或中断）时停止记录
+     */
+    public void abandonRebuild() {
+        writesDuringRebuild = null;
+    }
+
+    /**
+     * 用后台重建好的向量存储和重复片段映射整体替换当前索引。
+     * 二级索引和新的向量文件先在锁外基于重建结果构建，期间在线检索和写入照常进行；
+     * 之后短暂持有写锁，把重建期间在线写入的片段（例如继续中断的导入任务、登记重复片段）补写到重建结果，
+     * 再一次性替换存储、二级索引、重复片段映射和向量文件。
+     */
+    public void swapInRebuiltIndex(FlatVectorStore rebuilt, Map<Long, Long> aliases) {
+        long start = System.currentTimeMillis();
+        Map<Long, Long> rebuiltAliases = new ConcurrentHashMap<>(aliases);
+        VectorFile file = writeRebuiltVectorFile(rebuilt, rebuiltAliases);
+        QuantizedVectorStore quantized = null;
+        if (isInt8FileMode() && file != null) {
+            // 重建结果已写入新文件：从文件重新加载为只分配序号的存储，堆内的重建向量随之释放
+            FlatVectorStore idsOnly = FlatVectorStore.withoutVectors();
+            QuantizedVectorStore fileBacked = new QuantizedVectorStore(idsOnly, file);
+            try {
+                file.load(idsOnly, null, fileBacked::add);
+                rebuilt = idsOnly;
+                quantized = fileBacked;
+            } catch (IOException e) {
+                logger.warning("从重建后的向量文件加载量化索引失败，改为在内存中保留原始向量: " + e.getMessage());
+            }
+        }
+        if (isInt8Mode() && quantized == null) {
+            quantized = buildQuantizedStore(rebuilt);
+        }
+        HnswIndex hnsw = isHnswMode() ? buildHnswIndex(rebuilt) : null;
+        IvfIndex ivf = isIvfMode() ? buildIvfIndex(rebuilt) : null;
+
+        swapLock.writeLock().lock();
+        try {
+            Set<Long> written = writesDuringRebuild;
+            writesDuringRebuild = null;
+            if (written != null && !written.isEmpty()) {
+                replayLiveWrites(written, rebuilt, rebuiltAliases, hnsw, quantized, ivf, file);
+            }
+
+            // 新存储的版本号接在旧存储之后，基于版本号的缓存（检索范围、回答缓存）在切换后全部失效
+            rebuilt.advanceVersionPast(vectorStore.version());
+            synchronized (ivfLock) {
+                vectorStore = rebuilt;
+                ivfIndex = ivf;
+            }
+            hnswIndex = hnsw;
+            quantizedStore = quantized;
+            vectorAliases = rebuiltAliases;
+            aliasVersion.incrementAndGet();
+            if (queryEmbeddingCache != null) {
+                queryEmbeddingCache.clear();
+            }
+            replaceVectorFile(file);
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        logger.info("已切换到重建后的索引：" + rebuilt.size() + " 个向量，" + rebuiltAliases.size() + " 个重复片段，耗时: "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 把重建结果写入向量文件旁的临时文件，切换时再替换正在使用的文件；未配置路径或写入失败时返回 null
+     */
+    private VectorFile writeRebuiltVectorFile(FlatVectorStore rebuilt, Map<Long, Long> aliases) {
+        if (vectorFilePath == null || vectorFilePath.isBlank()) {
+            return null;
+        }
+        VectorFile file = null;
+        try {
+            file = VectorFile.create(Paths.get(vectorFilePath + ".rebuild"), vectorModelId());
+            file.appendAll(rebuilt);
+            for (Map.Entry<Long, Long> alias : aliases.entrySet()) {
+                file.appendAlias(alias.getKey(), alias.getValue());
+            }
+            return file;
+        } catch (IOException e) {
+            logger.warning("写入重建后的向量文件失败: " + e.getMessage());
+            if (file != null) {
+                try {
+                    file.close();
+                    Files.deleteIfExists(file.getPath());
+                } catch (IOException ignored) {
+                    // 临时文件下次重建时会被覆盖
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 用重建时写好的向量文件替换正在使用的文件（调用方持有写锁）。
+     * 新文件写入失败时删除旧文件，避免下次启动时从与数据库不一致的旧文件加载，改为从数据库加载。
+     */
+    private void replaceVectorFile(VectorFile file) {
+        VectorFile previous = vectorFile;
+        VectorFile next = null;
+        if (file != null) {
+            try {
+                next = file.moveTo(Paths.get(vectorFilePath));
+            } catch (IOException e) {
+                logger.warning("替换向量文件失败: " + e.getMessage());
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                    // 临时文件下次重建时会被覆盖
+                }
+            }
         }
-        if (model != null) {
-            model.close();
+        if (previous != null) {
+            try {
+                previous.close();
+                if (next == null) {
+                    Files.deleteIfExists(previous.getPath());
+                }
+            } catch (IOException e) {
+                logger.warning("关闭旧向量文件失败: " + e.getMessage());
+            }
+        }
+        vectorFile = next;
+    }
+
+    /**
+     * 把重建期间在线写入的片段的最新状态（向量、重复片段映射或删除）补写到重建结果及其二级索引和向量文件中。
+     * 在线写入都发生在数据库提交之后，当前索引中的状态不会比重建时读到的更旧。
+     */
+    private void replayLiveWrites(Set<Long> written, FlatVectorStore rebuilt, Map<Long, Long> aliases,
+                                  HnswIndex hnsw, QuantizedVectorStore quantized, IvfIndex ivf, VectorFile file) {
+        int replayed = 0;
+        for (Long segmentId : written) {
+            int ordinal = vectorStore.ordinalOf(segmentId);
+            Long canonicalId = vectorAliases.get(segmentId);
+            try {
+                if (ordinal >= 0) {
+                    float[] vector = storedVector(vectorStore, quantizedStore, ordinal);
+                    int rebuiltOrdinal = rebuilt.add(segmentId, vector);
+                    if (rebuiltOrdinal < 0) {
+                        continue;
+                    }
+                    aliases.remove(segmentId);
+                    long record = file != null ? appendToVectorFile(file, segmentId, vector) : -1;
+                    if (hnsw != null) {
+                        hnsw.add(rebuiltOrdinal);
+                    }
+                    if (quantized != null) {
+                        quantized.add(rebuiltOrdinal, vector, record);
+                    }
+                    if (ivf != null) {
+                        ivf.add(rebuiltOrdinal);
+                    }
+                } else if (canonicalId != null) {
+                    rebuilt.remove(segmentId);
+                    aliases.put(segmentId, canonicalId);
+                    if (file != null) {
+                        file.appendAlias(segmentId, canonicalId);
+                    }
+                } else {
+                    // 向量已被删除
+                    rebuilt.remove(segmentId);
+                    aliases.remove(segmentId);
+                    if (file != null) {
+                        file.appendDelete(segmentId);
+                    }
+                }
+                replayed++;
+            } catch (IllegalArgumentException e) {
+                logger.warning("片段 " + segmentId + " 的向量维度与重建结果不一致，跳过: " + e.getMessage());
+            } catch (IOException e) {
+                vectorFileWriteFailed(file, segmentId, e);
+            }
         }
+        logger.info("补写重建期间在线写入的片段 " + replayed + " 个");
     }
-    
+
     /**
-     * 加载DJL模型
+     * 知识库版本：内存向量每次写入、删除或清空后递增，可用于判断基于检索结果的缓存是否过期
      */
-    private void loadDjlModel() {
-        try {
-            logger.info("正在加载DJL嵌入模型...");
-            
-            // 创建模型加载条件
-            Criteria<String, float[]> criteria = Criteria.builder()
-                    .setTypes(String.class, float[].class)
-                    .optModelName("nomic-embed-text")  // 可配置为其他模型
-                    .optEngine("PyTorch")
-                    .optDevice(Device.cpu())  // 或 Device.gpu()
-                    .build();
-            
-            // 加载模型
-            model = ModelZoo.loadModel(criteria);
-            predictor = model.newPredictor();
-            djlModelLoaded = true;
-            
-            logger.info("DJL嵌入模型加载成功");
-        } catch (ModelNotFoundException | MalformedModelException | IOException e) {
-            logger.severe("DJL模型加载失败: " + e.getMessage());
-            e.printStackTrace();
-        }
+    public long getKnowledgeVersion() {
+        // 两个计数都只增不减，和也单调递增
+        return vectorStore.version() + aliasVersion.get();
     }
 
     /**
-     * 核心对外方法：返回一段文本的 embedding 向量
+     * 查询向量缓存的统计信息
      */
-    public float[] embedText(String text) {
-        if (text == null || text.trim().isEmpty()) {
-            logger.warning("尝试对空文本进行嵌入，返回零向量");
-            return new float[512]; // 返回零向量
-        }
-        
-        try {
-            switch (embeddingMode.toLowerCase()) {
-                case "ollama":
-                    return embedViaOllama(text);
-                case "djl":
-                    return embedViaDJL(text);
-                case "remote":
-                    return embedViaRemoteApi(text);
-                default:
-                    logger.warning("未知的嵌入模式: " + embeddingMode + "，使用Ollama作为后备");
-                    return embedViaOllama(text);
+    public Map<String, Object> getQueryCacheStats() {
+        if (queryEmbeddingCache == null) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("enabled", false);
+            if (queryBatcher != null) {
+                stats.put("batching", queryBatcher.stats());
             }
-        } catch (Exception e) {
-            logger.severe("嵌入向量生成失败: " + e.getMessage());
-            e.printStackTrace();
-            // 出错时返回空向量，但在生产环境可能需要更好的错误处理
-            return new float[512];
+            return stats;
         }
+        Map<String, Object> stats = queryEmbeddingCache.stats();
+        stats.put("enabled", true);
+        if (queryBatcher != null) {
+            stats.put("batching", queryBatcher.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * 问题文本规范化：全半角统一（NFKC）、去掉首尾空白、连续空白合并为一个空格
+     */
+    private static String normalizeQuery(String question) {
+        return Normalizer.normalize(question, Normalizer.Form.NFKC).trim().replaceAll("\\s+", " ");
     }
 
     /**
-     * 使用DJL本地生成嵌入向量
+     * 使用DJL本地生成嵌入向量：并发的单条请求合并为一次 batchPredict
      */
     private float[] embedViaDJL(String text) {
+        DjlEmbeddingEngine engine = djlEngine();
+        if (engine == null) {
+            logger.warning("DJL模型未加载，回退到Ollama API");
+            return embedViaOllama(text);
+        }
         try {
-            if (!djlModelLoaded) {
-                loadDjlModel();
-                if (!djlModelLoaded) {
-                    logger.warning("DJL模型未加载，回退到Ollama API");
-                    return embedViaOllama(text);
-                }
-            }
-            
-            logger.info("通过DJL生成嵌入向量，文本长度: " + text.length());
-            float[] embedding = predictor.predict(text);
-            logger.info("DJL嵌入向量生成成功，维度: " + embedding.length);
-            return embedding;
-        } catch (TranslateException e) {
+            return engine.embed(text);
+        } catch (RuntimeException e) {
             logger.severe("DJL嵌入生成失败: " + e.getMessage());
             logger.info("尝试回退到Ollama API");
             return embedViaOllama(text);
         }
     }
 
+    /**
+     * 取得 DJL 引擎，尚未加载时尝试加载；加载失败返回 null
+     */
+    private DjlEmbeddingEngine djlEngine() {
+        if (djlEngine == null) {
+            loadDjlModel();
+        }
+        return djlEngine;
+    }
+
     /**
      * 用 Ollama REST API 获取 embedding
      */
@@ -227,34 +1436,366 @@ public class EmbeddingService {
     }
 
     /**
-     * 将指定文本片段索引到内存 map 中并持久化到数据库
+     * 批量索引片段：每 ollama.embedBatchSize 个片段调用一次嵌入模型，并一次性写回数据库。
+     * 多个批次在嵌入专用线程池中并发嵌入（同时进行的批次数不超过 embedding.ingest.parallelism），
+     * 写库和写入内存索引仍在调用线程上按输入顺序进行。
+     * 内容摘要相同的片段只嵌入一次：已有当前模型向量的内容直接共用该向量，本批内重复的内容共用第一次出现的片段的向量。
+     * <p>
+     * 文档导入走 {@link IngestionPipeline}（从文件解析、分段到写库都按文档进行）；这里处理的是已经保存在库中、
+     * 可能属于多个文档的片段，目前只有重新索引切换后的补齐步骤使用。已持有当前模型向量的片段直接跳过。
+     * @param segmentIds 片段ID，与 contents 一一对应
+     * @return 索引失败的片段，全部成功时为空列表
+     */
+    public List<ChunkFailure> indexSegments(List<Long> segmentIds, List<String> contents) {
+        return indexSegments(segmentIds, contents, null);
+    }
+
+    /**
+     * 批量索引片段，并在每批片段处理完（成功或失败）后回调进度
+     * @param progress 参数为本次新处理完的片段数，可为 null
+     */
+    public List<ChunkFailure> indexSegments(List<Long> segmentIds, List<String> contents, IntConsumer progress) {
+        if (segmentIds.size() != contents.size()) {
+            throw new IllegalArgumentException("片段ID数量与内容数量不一致");
+        }
+        String model = vectorModelId();
+        List<String> hashes = contents.stream().map(TextUtils::contentHash).collect(Collectors.toList());
+        Map<String, Long> canonicalByHash = findCanonicalSegments(hashes, model);
+
+        // 每个新内容第一次出现的位置需要嵌入，其余位置共用向量
+        List<Integer> embedPositions = new ArrayList<>();
+        List<Integer> duplicatePositions = new ArrayList<>();
+        Set<String> seen = new HashSet<>(canonicalByHash.keySet());
+        for (int i = 0; i < hashes.size(); i++) {
+            if (segmentIds.get(i).equals(canonicalByHash.get(hashes.get(i)))) {
+                // 片段本身已持有当前模型的向量
+                continue;
+            }
+            if (seen.add(hashes.get(i))) {
+                embedPositions.add(i);
+            } else {
+                duplicatePositions.add(i);
+            }
+        }
+        IntConsumer onProgress = progress != null ? progress : n -> { };
+        onProgress.accept(segmentIds.size() - embedPositions.size() - duplicatePositions.size());
+
+        List<ChunkFailure> failures = embedAndPersist(segmentIds, contents, hashes, embedPositions, model, onProgress);
+        Set<Integer> failedPositions = failures.stream().map(ChunkFailure::chunkIndex).collect(Collectors.toSet());
+        for (int i : embedPositions) {
+            if (!failedPositions.contains(i)) {
+                canonicalByHash.put(hashes.get(i), segmentIds.get(i));
+            }
+        }
+        persistDuplicates(segmentIds, hashes, duplicatePositions, canonicalByHash, failures);
+        onProgress.accept(duplicatePositions.size());
+
+        failures.sort(Comparator.comparingInt(ChunkFailure::chunkIndex));
+        logger.info("批量索引完成：" + (segmentIds.size() - failures.size()) + "/" + segmentIds.size()
+                + " 个片段，其中 " + duplicatePositions.size() + " 个重复片段共用已有向量");
+        return failures;
+    }
+
+    /**
+     * 查询这些内容摘要中已有当前模型向量、且向量在内存索引中的片段
+     * @return 内容摘要 -> 持有向量的片段ID
+     */
+    Map<String, Long> findCanonicalSegments(List<String> hashes, String model) {
+        Map<String, Long> canonicalByHash = new HashMap<>();
+        List<String> distinct = new ArrayList<>(new HashSet<>(hashes));
+        for (int from = 0; from < distinct.size(); from += LEXICAL_LOAD_PAGE_SIZE) {
+            List<String> page = distinct.subList(from, Math.min(distinct.size(), from + LEXICAL_LOAD_PAGE_SIZE));
+            for (SegmentHash owner : segmentRepository.findVectorOwners(page, model)) {
+                if (vectorStore.ordinalOf(owner.getId()) >= 0) {
+                    canonicalByHash.putIfAbsent(owner.getContentHash(), owner.getId());
+                }
+            }
+        }
+        return canonicalByHash;
+    }
+
+    /**
+     * 嵌入 positions 指定的片段并写回数据库，返回失败的片段
+     */
+    private List<ChunkFailure> embedAndPersist(List<Long> segmentIds, List<String> contents, List<String> hashes,
+                                               List<Integer> positions, String model, IntConsumer progress) {
+        int batchSize = Math.max(1, embedBatchSize);
+        int batches = (positions.size() + batchSize - 1) / batchSize;
+        // 已提交但尚未写库的批次；窗口有上限，避免写库跟不上时积压大量向量
+        int window = ingestExecutor != null ? ingestParallelism * 2 : 1;
+        Deque<Future<List<float[]>>> pending = new ArrayDeque<>();
+        List<ChunkFailure> failures = new ArrayList<>();
+        int submitted = 0;
+
+        for (int batch = 0; batch < batches; batch++) {
+            while (submitted < batches && submitted - batch < window) {
+                List<String> texts = positions.subList(submitted * batchSize,
+                                Math.min(positions.size(), (submitted + 1) * batchSize)).stream()
+                        .map(contents::get)
+                        .collect(Collectors.toList());
+                pending.add(ingestExecutor != null
+                        ? ingestExecutor.submit(() -> embedBatch(texts))
+                        : CompletableFuture.completedFuture(embedBatch(texts)));
+                submitted++;
+            }
+
+            List<Integer> batchPositions = positions.subList(batch * batchSize,
+                    Math.min(positions.size(), (batch + 1) * batchSize));
+            List<float[]> vectors;
+            try {
+                vectors = pending.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.forEach(f -> f.cancel(true));
+                addFailures(failures, segmentIds, positions.subList(batch * batchSize, positions.size()), "索引被中断");
+                progress.accept(positions.size() - batch * batchSize);
+                break;
+            } catch (ExecutionException e) {
+                addFailures(failures, segmentIds, batchPositions, "嵌入失败: " + e.getCause().getMessage());
+                progress.accept(batchPositions.size());
+                continue;
+            }
+            persistBatch(segmentIds, hashes, batchPositions, vectors, model, failures);
+            progress.accept(batchPositions.size());
+        }
+        return failures;
+    }
+
+    /**
+     * 把一批向量写回数据库并加入内存索引；零向量（嵌入失败）不写入，记为失败
+     * @param positions 这批向量对应的片段在输入中的位置
      */
-    public void indexSegment(Long segmentId, String content) {
+    private void persistBatch(List<Long> segmentIds, List<String> hashes, List<Integer> positions,
+                              List<float[]> vectors, String model, List<ChunkFailure> failures) {
+        Map<Long, Integer> positionById = new HashMap<>();
+        Map<Long, float[]> vectorById = new HashMap<>();
+        for (int k = 0; k < positions.size(); k++) {
+            int i = positions.get(k);
+            if (isZeroVector(vectors.get(k))) {
+                failures.add(new ChunkFailure(i, segmentIds.get(i), "嵌入失败，返回零向量"));
+            } else {
+                positionById.put(segmentIds.get(i), i);
+                vectorById.put(segmentIds.get(i), vectors.get(k));
+            }
+        }
+        if (positionById.isEmpty()) {
+            return;
+        }
+
         try {
-            float[] vector = embedText(content);
-            
-            // 保存到内存索引
-            vectorIndex.put(segmentId, vector);
-            
             // 持久化到数据库
-            Segment segment = segmentRepository.findById(segmentId)
-                    .orElseThrow(() -> new RuntimeException("找不到ID为 " + segmentId + " 的片段"));
-            
-            segment.setVector(serializeVector(vector));
-            segmentRepository.save(segment);
-            
-            logger.info("成功索引片段 " + segmentId + "，向量维度: " + vector.length);
+            List<Segment> segments = segmentRepository.findAllById(positionById.keySet());
+            for (Segment segment : segments) {
+                segment.setContentHash(hashes.get(positionById.get(segment.getId())));
+            }
+            segmentRepository.saveAll(segments);
+
+            // 按输入顺序写入向量表和内存索引
+            segments.sort(Comparator.comparingInt(segment -> positionById.get(segment.getId())));
+            List<Long> ids = segments.stream().map(Segment::getId).collect(Collectors.toList());
+            segmentVectorWriter.upsert(ids, ids.stream().map(vectorById::get).collect(Collectors.toList()), model);
+            for (Segment segment : segments) {
+                positionById.remove(segment.getId());
+                storeVector(segment.getId(), vectorById.get(segment.getId()));
+            }
+            positionById.forEach((id, i) -> failures.add(new ChunkFailure(i, id, "数据库中不存在该片段")));
         } catch (Exception e) {
-            logger.severe("索引片段 " + segmentId + " 失败: " + e.getMessage());
+            logger.severe("保存片段 " + segmentIds.get(positions.get(0)) + " 至 "
+                    + segmentIds.get(positions.get(positions.size() - 1)) + " 的向量失败: " + e.getMessage());
             e.printStackTrace();
+            positionById.forEach((id, i) -> failures.add(new ChunkFailure(i, id, "保存向量失败: " + e.getMessage())));
+        }
+    }
+
+    /**
+     * 重复片段不保存向量，只记录内容摘要，并在内存和向量文件中登记它共用的片段
+     */
+    private void persistDuplicates(List<Long> segmentIds, List<String> hashes, List<Integer> positions,
+                                   Map<String, Long> canonicalByHash, List<ChunkFailure> failures) {
+        Map<Long, Integer> positionById = new HashMap<>();
+        for (int i : positions) {
+            if (canonicalByHash.containsKey(hashes.get(i))) {
+                positionById.put(segmentIds.get(i), i);
+            } else {
+                failures.add(new ChunkFailure(i, segmentIds.get(i), "相同内容的片段嵌入失败"));
+            }
+        }
+        if (positionById.isEmpty()) {
+            return;
+        }
+
+        try {
+            List<Segment> segments = segmentRepository.findAllById(positionById.keySet());
+            for (Segment segment : segments) {
+                segment.setContentHash(hashes.get(positionById.get(segment.getId())));
+            }
+            segmentRepository.saveAll(segments);
+            segmentVectorWriter.delete(segments.stream().map(Segment::getId).collect(Collectors.toList()));
+
+            for (Segment segment : segments) {
+                positionById.remove(segment.getId());
+                registerAlias(segment.getId(), canonicalByHash.get(segment.getContentHash()));
+            }
+            positionById.forEach((id, i) -> failures.add(new ChunkFailure(i, id, "数据库中不存在该片段")));
+        } catch (Exception e) {
+            logger.severe("保存重复片段失败: " + e.getMessage());
+            e.printStackTrace();
+            positionById.forEach((id, i) -> failures.add(new ChunkFailure(i, id, "保存片段失败: " + e.getMessage())));
+        }
+    }
+
+    /**
+     * 登记重复片段：检索时它映射到持有向量的片段
+     */
+    void registerAlias(Long segmentId, Long canonicalId) {
+        swapLock.readLock().lock();
+        try {
+            recordLiveWrite(segmentId);
+            // 二级索引按序号检索，存储中被删除的序号不会再出现在结果里
+            if (vectorStore.remove(segmentId)) {
+                scheduleHnswRebuildIfNeeded();
+            }
+            vectorAliases.put(segmentId, canonicalId);
+            aliasVersion.incrementAndGet();
+            if (vectorFile != null) {
+                try {
+                    vectorFile.appendAlias(segmentId, canonicalId);
+                } catch (IOException e) {
+                    vectorFileWriteFailed(vectorFile, segmentId, e);
+                }
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 删除片段的向量（例如片段内容更新后重新嵌入失败，数据库中的旧向量已删除），
+     * 同时在向量文件中追加删除记录，避免下次启动时从文件恢复旧向量
+     */
+    void removeVector(Long segmentId) {
+        swapLock.readLock().lock();
+        try {
+            recordLiveWrite(segmentId);
+            boolean removed = vectorStore.remove(segmentId);
+            if (removed) {
+                scheduleHnswRebuildIfNeeded();
+            }
+            if (vectorAliases.remove(segmentId) != null) {
+                aliasVersion.incrementAndGet();
+                removed = true;
+            }
+            if (removed && vectorFile != null) {
+                try {
+                    vectorFile.appendDelete(segmentId);
+                } catch (IOException e) {
+                    vectorFileWriteFailed(vectorFile, segmentId, e);
+                }
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 共用指定片段向量的重复片段
+     */
+    List<Long> aliasesOf(Long canonicalId) {
+        List<Long> aliases = new ArrayList<>();
+        vectorAliases.forEach((segmentId, canonical) -> {
+            if (canonical.equals(canonicalId)) {
+                aliases.add(segmentId);
+            }
+        });
+        return aliases;
+    }
+
+    /**
+     * 从内存中移除已在数据库中删除的片段：向量索引（同时在向量文件中追加删除记录）、关键词索引和内容缓存
+     */
+    void forgetSegment(Long segmentId) {
+        removeVector(segmentId);
+        if (hybridEnabled) {
+            lexicalIndex.remove(segmentId);
+        }
+        if (segmentContentCache != null) {
+            segmentContentCache.invalidate(segmentId);
+        }
+    }
+
+    private void recordLiveWrite(Long segmentId) {
+        Set<Long> written = writesDuringRebuild;
+        if (written != null) {
+            written.add(segmentId);
+        }
+    }
+
+    private static void addFailures(List<ChunkFailure> failures, List<Long> segmentIds, List<Integer> positions,
+                                    String reason) {
+        for (int i : positions) {
+            failures.add(new ChunkFailure(i, segmentIds.get(i), reason));
+        }
+    }
+
+    static boolean isZeroVector(float[] vector) {
+        for (float v : vector) {
+            if (v != 0f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把已持久化到数据库的向量写入内存索引和向量文件
+     */
+    void storeVector(Long segmentId, float[] vector) {
+        swapLock.readLock().lock();
+        try {
+            recordLiveWrite(segmentId);
+            vectorAliases.remove(segmentId);
+            // 保存到内存索引
+            int ordinal = addToStore(segmentId, vector);
+
+            // 数据库写入成功后追加到向量文件，保证文件中的片段都能在数据库中找到
+            long record = vectorFile != null ? appendToVectorFile(vectorFile, segmentId, vector) : -1;
+            if (ordinal >= 0) {
+                addToSecondaryIndex(ordinal, vector, record);
+            }
+        } finally {
+            swapLock.readLock().unlock();
         }
     }
 
     /**
-     * 获取已索引的向量
+     * 片段在向量存储中的序号；重复片段返回其共用向量的片段的序号
+     */
+    private int ordinalOfSegment(Long segmentId) {
+        return vectorStore.ordinalOf(vectorAliases.getOrDefault(segmentId, segmentId));
+    }
+
+    /**
+     * 获取已索引的向量（L2 归一化后的形式）
      */
     public float[] getVector(Long segmentId) {
-        return vectorIndex.get(segmentId);
+        int ordinal = ordinalOfSegment(segmentId);
+        if (ordinal < 0) {
+            return null;
+        }
+        try {
+            return storedVector(vectorStore, quantizedStore, ordinal);
+        } catch (IOException e) {
+            logger.warning("读取片段 " + segmentId + " 的向量失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 读取存储中某个序号的向量；存储不保存向量时（int8 文件模式）从量化索引对应的向量文件读取
+     */
+    private static float[] storedVector(FlatVectorStore store, QuantizedVectorStore quantized, int ordinal)
+            throws IOException {
+        return store.storesVectors() || quantized == null ? store.vector(ordinal) : quantized.vector(ordinal);
     }
 
     /**
@@ -265,12 +1806,10 @@ public class EmbeddingService {
             return 0.0f;
         }
         
-        double dot = 0, normA = 0, normB = 0;
-        for (int i = 0; i < a.length; i++) {
-            dot   += a[i] * b[i];
-            normA += a[i] * a[i];
-            normB += b[i] * b[i];
-        }
+        // 点积由 VectorOps 的 SIMD/标量内核计算
+        float dot = VectorOps.dot(a, b);
+        float normA = VectorOps.dot(a, a);
+        float normB = VectorOps.dot(b, b);
         return (float) (dot / (Math.sqrt(normA) * Math.sqrt(normB) + 1e-10));
     }
 
@@ -292,21 +1831,126 @@ public class EmbeddingService {
 
     /**
      * 带有相似度阈值的检索方法
+     * hnsw 模式下走近似图索引，ivf 模式下只扫描最接近的 nprobe 个簇，
+     * int8 模式下先扫描量化码再用原始向量重打分，否则（或索引尚未构建时）使用精确检索
      */
     public List<Long> searchTopKWithThreshold(float[] queryVector, int k, float minSimilarity) {
-        if (queryVector == null || vectorIndex.isEmpty()) {
+        return searchTopKWithThreshold(queryVector, k, minSimilarity, null);
+    }
+
+    /**
+     * 限定范围的检索：只有 allowedOrdinals 中的向量参与打分。
+     * 范围较小时直接精确扫描允许集合（代价与范围大小成正比），否则把过滤条件下推到当前索引。
+     * @param allowedOrdinals 由 {@link #userScope} 或 {@link #documentScope} 得到的序号集合，为 null 时不限制
+     */
+    public List<Long> searchTopKWithThreshold(float[] queryVector, int k, float minSimilarity, BitSet allowedOrdinals) {
+        int size = vectorStore.size();
+        if (queryVector == null || size == 0) {
             return Collections.emptyList();
         }
-        
-        return vectorIndex.entrySet().stream()
-                .map(e -> Map.entry(e.getKey(), cosineSimilarity(queryVector, e.getValue())))
-                .filter(e -> e.getValue() >= minSimilarity) // 添加相似度阈值过滤
-                .sorted((e1, e2) -> Float.compare(e2.getValue(), e1.getValue()))
-                .limit(k)
-                .map(Map.Entry::getKey)
+        if (allowedOrdinals != null) {
+            int allowed = allowedOrdinals.cardinality();
+            if (allowed == 0) {
+                return Collections.emptyList();
+            }
+            if (allowed <= SCOPED_EXACT_LIMIT || allowed < size / 10) {
+                return searchExact(queryVector, k, minSimilarity, allowedOrdinals);
+            }
+        }
+
+        HnswIndex hnsw = hnswIndex;
+        if (hnsw != null) {
+            return hnsw.search(queryVector, k, minSimilarity, allowedOrdinals).stream()
+                    .map(SearchHit::id)
+                    .collect(Collectors.toList());
+        }
+        IvfIndex ivf = ivfIndex;
+        if (ivf != null) {
+            return ivf.search(queryVector, k, minSimilarity, allowedOrdinals).stream()
+                    .map(SearchHit::id)
+                    .collect(Collectors.toList());
+        }
+        QuantizedVectorStore quantized = quantizedStore;
+        if (quantized != null) {
+            return quantized.search(queryVector, k, minSimilarity, int8RescoreFactor, allowedOrdinals, searchPool)
+                    .stream()
+                    .map(SearchHit::id)
+                    .collect(Collectors.toList());
+        }
+        return searchExact(queryVector, k, minSimilarity, allowedOrdinals);
+    }
+
+    /**
+     * 精确检索：在专用线程池中分片扫描内存中所有向量，归一化后余弦相似度即点积
+     */
+    public List<Long> searchExact(float[] queryVector, int k, float minSimilarity) {
+        return searchExact(queryVector, k, minSimilarity, null);
+    }
+
+    private List<Long> searchExact(float[] queryVector, int k, float minSimilarity, BitSet allowedOrdinals) {
+        FlatVectorStore store = vectorStore;
+        if (queryVector == null || store.size() == 0) {
+            return Collections.emptyList();
+        }
+        QuantizedVectorStore quantized = quantizedStore;
+        if (!store.storesVectors() && quantized != null) {
+            // 堆内没有原始向量：扫描量化码后从向量文件读取候选精确重打分
+            return quantized.search(queryVector, k, minSimilarity, int8RescoreFactor, allowedOrdinals, searchPool)
+                    .stream()
+                    .map(SearchHit::id)
+                    .collect(Collectors.toList());
+        }
+
+        return store.searchExact(queryVector, k, minSimilarity, allowedOrdinals, searchPool).stream()
+                .map(SearchHit::id)
                 .collect(Collectors.toList());
     }
 
+    /**
+     * 某个用户上传的全部文档对应的序号集合（带缓存）
+     */
+    public BitSet userScope(Long userId) {
+        return scopeFilter("user:" + userId, () -> segmentRepository.findIdsByDocumentOwner(userId));
+    }
+
+    /**
+     * 若干文档对应的序号集合（带缓存）
+     */
+    public BitSet documentScope(Collection<Long> documentIds) {
+        if (documentIds == null || documentIds.isEmpty()) {
+            return new BitSet();
+        }
+        List<Long> sorted = new ArrayList<>(new TreeSet<>(documentIds));
+        String key = "docs:" + sorted.stream().map(String::valueOf).collect(Collectors.joining(","));
+        return scopeFilter(key, () -> segmentRepository.findIdsByDocumentIdIn(sorted));
+    }
+
+    /**
+     * 查缓存，未命中或存储版本已变化时查询片段ID并映射为序号集合。
+     * 返回的 BitSet 会被多个查询共享，调用方不得修改。
+     */
+    private BitSet scopeFilter(String key, Supplier<List<Long>> segmentIds) {
+        // 先读版本再构建：构建期间若有写入，缓存项的版本落后，下次查询会重新构建
+        long version = getKnowledgeVersion();
+        synchronized (scopeFilterCache) {
+            ScopeFilter cached = scopeFilterCache.get(key);
+            if (cached != null && cached.version() == version) {
+                return cached.ordinals();
+            }
+        }
+        BitSet ordinals = new BitSet(vectorStore.ordinalCount());
+        for (Long segmentId : segmentIds.get()) {
+            int ordinal = ordinalOfSegment(segmentId);
+            if (ordinal >= 0) {
+                ordinals.set(ordinal);
+            }
+        }
+        synchronized (scopeFilterCache) {
+            scopeFilterCache.put(key, new ScopeFilter(version, ordinals));
+        }
+        return ordinals;
+    }
+
 //    /**
 //     * 返回带得分的检索结果
 //     */
@@ -329,28 +1973,50 @@ public class EmbeddingService {
      * @return 相关知识片段列表
      */
     public List<String> findRelevantSegments(String question, int limit) {
+        return findRelevantSegments(question, limit, null);
+    }
+
+    /**
+     * 只在某个用户上传的文档中查找相关的知识片段
+     */
+    public List<String> findRelevantSegmentsForUser(String question, int limit, Long userId) {
+        return findRelevantSegments(question, limit, userScope(userId));
+    }
+
+    /**
+     * 只在指定文档中查找相关的知识片段
+     */
+    public List<String> findRelevantSegmentsInDocuments(String question, int limit, Collection<Long> documentIds) {
+        return findRelevantSegments(question, limit, documentScope(documentIds));
+    }
+
+    private List<String> findRelevantSegments(String question, int limit, BitSet allowedOrdinals) {
         try {
             // 基于相似度检索流程：
             // 1. 生成问题的向量表示
-            float[] questionVector = embedText(question);
+            float[] questionVector = embedQuery(question);
             
-            // 2. 找出最相似的片段ID（相似度阈值为0.7）
-            List<Long> topSegmentIds = searchTopKWithThreshold(questionVector, limit, 0.7f);
+            // 2. 找出最相似的片段ID（相似度阈值为0.7）；混合检索时再与关键词检索结果融合
+            List<Long> topSegmentIds = hybridEnabled
+                    ? hybridSearch(question, questionVector, limit, allowedOrdinals)
+                    : searchTopKWithThreshold(questionVector, limit, 0.7f, allowedOrdinals);
             if (topSegmentIds.isEmpty()) {
                 logger.info("没有找到相关的知识片段");
                 return Collections.emptyList();
             }
             
-            // 3. 查询这些片段的内容
-            List<Segment> segments = segmentRepository.findAllById(topSegmentIds);
+            // 3. 读取这些片段的内容（热点片段直接命中内容缓存，不访问数据库），按检索名次排序
+            Map<Long, String> contents = readSegmentContents(topSegmentIds);
+            List<String> segments = topSegmentIds.stream()
+                    .filter(contents::containsKey)
+                    .map(contents::get)
+                    .collect(Collectors.toList());
             //打印出Segment内容
-            for(Segment segment : segments) {
-                logger.info("参考的片段：" + segment.getContent());
+            for(String segment : segments) {
+                logger.info("参考的片段：" + segment);
             }
-            // 4. 提取内容并返回
-            return segments.stream()
-                    .map(Segment::getContent)
-                    .collect(Collectors.toList());
+            // 4. 返回内容
+            return segments;
         } catch (Exception e) {
             logger.severe("查询相关片段时出错: " + e.getMessage());
             e.printStackTrace();
@@ -358,10 +2024,57 @@ public class EmbeddingService {
         }
     }
     
+    /**
+     * 混合检索：向量与 BM25 两路各取若干候选，按倒数排名融合后取前 limit 个。
+     * 向量候选要达到相似度阈值，关键词候选要达到最低 BM25 得分，两路都不满足的片段不会进入结果。
+     */
+    private List<Long> hybridSearch(String question, float[] questionVector, int limit, BitSet allowedOrdinals) {
+        int candidates = Math.max(limit * 4, 20);
+        List<Long> vectorIds = searchTopKWithThreshold(questionVector, candidates, 0.7f, allowedOrdinals);
+        // 关键词索引包含重复片段，映射到持有向量的片段后去重，与向量检索结果的ID保持一致
+        List<Long> lexicalIds = lexicalIndex.search(question, candidates, lexicalFilter(allowedOrdinals)).stream()
+                .filter(hit -> hit.score() >= minLexicalScore)
+                .map(hit -> vectorAliases.getOrDefault(hit.id(), hit.id()))
+                .distinct()
+                .collect(Collectors.toList());
+        return reciprocalRankFusion(limit, vectorIds, lexicalIds);
+    }
+
+    /**
+     * 把限定范围的序号集合转换为关键词检索的片段ID过滤条件
+     */
+    private LongPredicate lexicalFilter(BitSet allowedOrdinals) {
+        if (allowedOrdinals == null) {
+            return null;
+        }
+        return segmentId -> {
+            int ordinal = ordinalOfSegment(segmentId);
+            return ordinal >= 0 && allowedOrdinals.get(ordinal);
+        };
+    }
+
+    /**
+     * 倒数排名融合：每一路结果中名次为 r（从 1 开始）的片段得 1 / (RRF_K + r) 分，累加后取前 limit 个
+     */
+    @SafeVarargs
+    private static List<Long> reciprocalRankFusion(int limit, List<Long>... rankings) {
+        Map<Long, Double> fused = new HashMap<>();
+        for (List<Long> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                fused.merge(ranking.get(rank), 1.0 / (RRF_K + rank + 1), Double::sum);
+            }
+        }
+        return fused.entrySet().stream()
+                .sorted(Map.Entry.<Long, Double>comparingByValue().reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
     /**
      * 将向量序列化为数据库可存储的格式
      */
-    private byte[] serializeVector(float[] vector) {
+    static byte[] serializeVector(float[] vector) {
         byte[] bytes = new byte[vector.length * 4];
         for (int i = 0; i < vector.length; i++) {
             int intBits = Float.floatToIntBits(vector[i]);
@@ -376,7 +2089,7 @@ public class EmbeddingService {
     /**
      * 从数据库存储格式反序列化向量
      */
-    private float[] deserializeVector(byte[] bytes) {
+    static float[] deserializeVector(byte[] bytes) {
         if (bytes == null) return null;
         
         int vectorSize = bytes.length / 4;
@@ -391,23 +2104,4 @@ public class EmbeddingService {
         }
         return vector;
     }
-    
-    /**
-     * 重新索引所有片段（可用于模型切换后刷新向量）
-     */
-    public void reindexAllSegments() {
-        List<Segment> allSegments = segmentRepository.findAll();
-        logger.info("开始重新索引 " + allSegments.size() + " 个片段...");
-        
-        int count = 0;
-        for (Segment segment : allSegments) {
-            indexSegment(segment.getId(), segment.getContent());
-            count++;
-            if (count % 100 == 0) {
-                logger.info("已重新索引 " + count + " 个片段");
-            }
-        }
-        
-        logger.info("完成全部 " + count + " 个片段的重新索引");
-    }
 }
\ No newline at end of file
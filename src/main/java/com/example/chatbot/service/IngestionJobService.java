@@ -0,0 +1,312 @@
+package com.example.chatbot.service;
+
+import com.example.chatbot.model.Document;
+import com.example.chatbot.model.IngestionJob;
+import com.example.chatbot.repository.IngestionJobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * 后台文档导入任务。
+ *
+ * 上传请求只保存文件并登记任务，立即返回任务ID；解析、分段和嵌入由固定大小的工作线程池完成，
+ * 处理进度（已处理的片段数）定期写回任务表。应用重启时，排队中和运行中断的任务重新提交，
+ * 重新执行时复用已保存的片段，已有向量的片段不会重新嵌入。
+ */
+@Service
+public class IngestionJobService {
+    private static final Logger logger = Logger.getLogger(IngestionJobService.class.getName());
+
+    // 任务结果（完成或失败）写入数据库的最多尝试次数
+    private static final int RESULT_SAVE_ATTEMPTS = 3;
+    private static final long RESULT_SAVE_RETRY_MILLIS = 1000;
+
+    // 同时处理的文档数
+    @Value("${knowledge.ingest.workers:2}")
+    private int workers;
+
+    // 同一任务最多执行的次数，超过后不再在启动时重试（避免每次启动都被同一个文件拖垮）
+    @Value("${knowledge.ingest.maxAttempts:3}")
+    private int maxAttempts;
+
+    // 进度写回任务表的最小间隔
+    @Value("${knowledge.ingest.progressSaveIntervalMillis:1000}")
+    private long progressSaveIntervalMillis;
+
+    @Autowired
+    private KnowledgeService knowledgeService;
+
+    @Autowired
+    private IngestionJobRepository jobRepository;
+
+    private ExecutorService executor;
+    // 正在执行的任务的最新进度（由工作线程修改，读写时以任务对象加锁）
+    private final Map<Long, IngestionJob> activeJobs = new ConcurrentHashMap<>();
+    // 已结束但结果未能写入数据库的任务，查询时以此为准；重启后这些任务按未完成任务重新执行
+    private final Map<Long, IngestionJob> unsavedResults = new ConcurrentHashMap<>();
+
+    /**
+     * 创建工作线程池，并重新提交上次未完成的任务
+     */
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+            Thread t = new Thread(r, "document-ingest-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        List<IngestionJob> pending = jobRepository.findByStatusInOrderByIdAsc(
+                List.of(IngestionJob.QUEUED, IngestionJob.RUNNING));
+        for (IngestionJob job : pending) {
+            if (job.getAttempts() >= maxAttempts) {
+                job.setStatus(IngestionJob.FAILED);
+                job.setMessage("已执行 " + job.getAttempts() + " 次仍未完成，不再重试");
+                job.setFinishedAt(LocalDateTime.now());
+                job.setUpdatedAt(job.getFinishedAt());
+                jobRepository.save(job);
+                continue;
+            }
+            logger.info("重新提交未完成的导入任务 " + job.getId() + "（文档ID " + job.getDocumentId() + "）");
+            enqueue(job);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 中断后任务保持 RUNNING 状态，下次启动时重新执行
+        executor.shutdownNow();
+    }
+
+    /**
+     * 保存上传的文件并提交导入任务
+     * @param userId 上传用户的ID，为 null 时使用当前登录用户
+     * @return 已登记的任务（副本，之后的进度通过 {@link #status} 查询）
+     */
+    public IngestionJob submit(MultipartFile file, Long userId) throws IOException {
+        Document doc = userId != null ? knowledgeService.importFile(file, userId) : knowledgeService.importFile(file);
+
+        IngestionJob job = new IngestionJob();
+        job.setDocumentId(doc.getId());
+        job.setUserId(doc.getUserId());
+        job.setFilename(doc.getFilename());
+        job.setStatus(IngestionJob.QUEUED);
+        job.setCreatedAt(LocalDateTime.now());
+        job.setUpdatedAt(job.getCreatedAt());
+        job = jobRepository.save(job);
+        logger.info("已提交导入任务 " + job.getId() + " - 文档ID: " + doc.getId() + ", 文件名: " + doc.getFilename());
+        IngestionJob submitted = job.copy();
+        enqueue(job);
+        return submitted;
+    }
+
+    /**
+     * 查询任务的最新进度，只有上传者本人和管理员可以查看
+     * @return 任务不存在或当前用户无权查看时返回 null（两种情况不加区分，不暴露任务是否存在）
+     */
+    public Map<String, Object> status(Long jobId) {
+        IngestionJob active = activeJobs.get(jobId);
+        IngestionJob job = active != null ? snapshot(active) : unsavedResults.get(jobId);
+        if (job == null) {
+            job = jobRepository.findById(jobId).orElse(null);
+        }
+        if (job == null || !knowledgeService.isCurrentUserOwnerOrAdmin(job.getUserId())) {
+            return null;
+        }
+        Map<String, Object> status = describe(job);
+        if (active != null) {
+            List<Map<String, Object>> stages = knowledgeService.getPipelineStats(job.getDocumentId());
+            if (stages != null) {
+                status.put("stages", stages);
+            }
+        }
+        return status;
+    }
+
+    /**
+     * 任务进度的接口表示
+     */
+    public static Map<String, Object> describe(IngestionJob job) {
+        int total = job.getTotalSegments();
+        int processed = job.getProcessedSegments();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("jobId", job.getId());
+        status.put("documentId", job.getDocumentId());
+        status.put("filename", job.getFilename());
+        status.put("status", job.getStatus());
+        status.put("totalSegments", total);
+        status.put("processedSegments", processed);
+        status.put("failedSegments", job.getFailedSegments());
+        status.put("progress", IngestionJob.COMPLETED.equals(job.getStatus()) ? 1.0
+                : total == 0 ? 0.0 : Math.min(1.0, (double) processed / total));
+        status.put("attempts", job.getAttempts());
+        status.put("createdAt", job.getCreatedAt());
+        status.put("startedAt", job.getStartedAt());
+        status.put("updatedAt", job.getUpdatedAt());
+        status.put("finishedAt", job.getFinishedAt());
+        status.put("message", job.getMessage());
+        return status;
+    }
+
+    private void enqueue(IngestionJob job) {
+        activeJobs.put(job.getId(), job);
+        executor.submit(() -> {
+            try {
+                run(job);
+            } finally {
+                activeJobs.remove(job.getId());
+            }
+        });
+    }
+
+    private void run(IngestionJob job) {
+        synchronized (job) {
+            job.setStatus(IngestionJob.RUNNING);
+            job.setAttempts(job.getAttempts() + 1);
+            job.setStartedAt(LocalDateTime.now());
+            job.setTotalSegments(0);
+            job.setProcessedSegments(0);
+            job.setFailedSegments(0);
+            job.setMessage(null);
+        }
+        save(job);
+
+        try {
+            List<EmbeddingService.ChunkFailure> failures = knowledgeService.processDocument(
+                    job.getDocumentId(), new KnowledgeService.ProcessingListener() {
+                        private long lastSaveMillis = System.currentTimeMillis();
+
+                        @Override
+                        public void onChunked(int segments) {
+                            boolean due;
+                            synchronized (job) {
+                                job.setTotalSegments(job.getTotalSegments() + segments);
+                                due = progressSaveDue();
+                            }
+                            if (due) {
+                                save(job);
+                            }
+                        }
+
+                        @Override
+                        public void onIndexed(int segments) {
+                            boolean due;
+                            synchronized (job) {
+                                job.setProcessedSegments(job.getProcessedSegments() + segments);
+                                due = progressSaveDue();
+                            }
+                            if (due) {
+                                save(job);
+                            }
+                        }
+
+                        // 调用方持有任务对象的锁
+                        private boolean progressSaveDue() {
+                            long now = System.currentTimeMillis();
+                            if (now - lastSaveMillis < progressSaveIntervalMillis) {
+                                return false;
+                            }
+                            lastSaveMillis = now;
+                            return true;
+                        }
+                    });
+            if (Thread.currentThread().isInterrupted()) {
+                logger.info("导入任务 " + job.getId() + " 被中断，下次启动时重新执行");
+                return;
+            }
+            synchronized (job) {
+                job.setStatus(IngestionJob.COMPLETED);
+                job.setProcessedSegments(job.getTotalSegments());
+                job.setFailedSegments(failures.size());
+                job.setMessage(failures.isEmpty() ? "处理完成"
+                        : "处理完成，但有 " + failures.size() + " 个片段未能建立向量索引");
+                job.setFinishedAt(LocalDateTime.now());
+            }
+            saveResult(job);
+            logger.info("导入任务 " + job.getId() + " " + job.getMessage() + " - 文档ID: " + job.getDocumentId());
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                logger.info("导入任务 " + job.getId() + " 被中断，下次启动时重新执行");
+                return;
+            }
+            logger.severe("导入任务 " + job.getId() + " 失败 - 文档ID: " + job.getDocumentId() + ", 错误: " + e.getMessage());
+            e.printStackTrace();
+            synchronized (job) {
+                job.setStatus(IngestionJob.FAILED);
+                job.setMessage(e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+                job.setFinishedAt(LocalDateTime.now());
+            }
+            saveResult(job);
+        }
+    }
+
+    /**
+     * 任务当前状态的副本，避免读到工作线程修改到一半的字段
+     */
+    private static IngestionJob snapshot(IngestionJob job) {
+        synchronized (job) {
+            return job.copy();
+        }
+    }
+
+    private void save(IngestionJob job) {
+        try {
+            persist(job);
+        } catch (Exception e) {
+            // 进度写入失败不影响文档处理
+            logger.warning("保存导入任务 " + job.getId() + " 的进度失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 保存任务结果：失败时稍后重试，仍然失败则在内存中保留结果供查询，
+     * 避免任务在数据库中一直停留在 RUNNING 而查询不到最终状态
+     */
+    private void saveResult(IngestionJob job) {
+        for (int attempt = 1; attempt <= RESULT_SAVE_ATTEMPTS; attempt++) {
+            try {
+                persist(job);
+                unsavedResults.remove(job.getId());
+                return;
+            } catch (Exception e) {
+                logger.warning("保存导入任务 " + job.getId() + " 的结果失败（第 " + attempt + " 次）: " + e.getMessage());
+            }
+            if (attempt < RESULT_SAVE_ATTEMPTS) {
+                try {
+                    Thread.sleep(RESULT_SAVE_RETRY_MILLIS * attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        logger.severe("导入任务 " + job.getId() + " 的结果未能写入数据库，状态为 " + job.getStatus()
+                + "，下次启动时将重新执行");
+        unsavedResults.put(job.getId(), snapshot(job));
+    }
+
+    private void persist(IngestionJob job) {
+        IngestionJob copy;
+        synchronized (job) {
+            job.setUpdatedAt(LocalDateTime.now());
+            copy = job.copy();
+        }
+        jobRepository.save(copy);
+    }
+}
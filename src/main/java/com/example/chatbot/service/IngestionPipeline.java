@@ -0,0 +1,588 @@
+package com.example.chatbot.service;
+
+import com.example.chatbot.model.Segment;
+import com.example.chatbot.repository.SegmentRepository;
+import com.example.chatbot.util.TextBlockReader;
+import com.example.chatbot.util.TextUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * 单个文档的分阶段导入流水线：解析 → 分段 → 去重 → 嵌入 → 写库 → 索引。
+ *
+ * 每个阶段一个线程，相邻阶段之间是有界队列，下游处理不过来时上游在 put 上阻塞（背压），
+ * 因此解析后面的页与嵌入前面的片段同时进行，内存中最多只有各队列容量那么多的数据。
+ * 片段按批次流过去重之后的各阶段；写库和索引阶段按批次顺序执行，重复片段总能找到先前批次中共用的片段。
+ * 任一阶段失败时中断全部阶段线程，{@link #run()} 抛出该异常。
+ */
+class IngestionPipeline {
+    private static final Logger logger = Logger.getLogger(IngestionPipeline.class.getName());
+
+    // 队列结束标记
+    private static final Object END = new Object();
+
+    private final Long documentId;
+    private final TextBlockReader source;
+    private final Function<Reader, Iterator<String>> chunker;
+    private final int batchSize;
+    private final List<Segment> existing;
+    private final EmbeddingService embeddingService;
+    private final SegmentRepository segmentRepository;
+    private final SegmentVectorWriter vectorWriter;
+    private final TransactionTemplate transaction;
+    private final KnowledgeService.ProcessingListener listener;
+    private final String model;
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final BlockingQueue<Object> blocks;
+    private final BlockingQueue<Object> chunkBatches;
+    private final BlockingQueue<Object> dedupedBatches;
+    private final BlockingQueue<Object> embeddedBatches;
+    private final BlockingQueue<Object> persistedBatches;
+
+    private final List<EmbeddingService.ChunkFailure> failures = Collections.synchronizedList(new ArrayList<>());
+    private volatile Throwable failure;
+
+    /**
+     * @param source 文档文本，流水线结束时关闭
+     * @param chunker 分段器：从文本流中逐个读出片段
+     * @param batchSize 每批片段数（一次嵌入、一次写库）
+     * @param queueCapacity 相邻阶段之间的队列容量
+     * @param existing 文档已有的片段（上次导入中断时留下），按ID升序，按位置复用
+     * @param transaction 写库阶段每批片段和向量在其中一起提交
+     * @param listener 进度回调，可为 null
+     */
+    IngestionPipeline(Long documentId, TextBlockReader source, Function<Reader, Iterator<String>> chunker,
+                      int batchSize, int queueCapacity,
+                      List<Segment> existing, EmbeddingService embeddingService, SegmentRepository segmentRepository,
+                      SegmentVectorWriter vectorWriter, TransactionTemplate transaction,
+                      KnowledgeService.ProcessingListener listener) {
+        this.documentId = documentId;
+        this.source = source;
+        this.chunker = chunker;
+        this.batchSize = Math.max(1, batchSize);
+        this.existing = existing;
+        this.embeddingService = embeddingService;
+        this.segmentRepository = segmentRepository;
+        this.vectorWriter = vectorWriter;
+        this.transaction = transaction;
+        this.listener = listener;
+        this.model = embeddingService.vectorModelId();
+
+        int capacity = Math.max(1, queueCapacity);
+        blocks = new ArrayBlockingQueue<>(capacity);
+        chunkBatches = new ArrayBlockingQueue<>(capacity);
+        dedupedBatches = new ArrayBlockingQueue<>(capacity);
+        embeddedBatches = new ArrayBlockingQueue<>(capacity);
+        persistedBatches = new ArrayBlockingQueue<>(capacity);
+
+        stages.add(new Stage("parse", "块", null, blocks, this::parse));
+        // 分段器自己从块队列中拉取文本，因此该阶段没有由 Stage 读取的输入队列
+        stages.add(new Stage("chunk", "片段", null, chunkBatches, this::chunk));
+        stages.add(new Stage("dedupe", "片段", chunkBatches, dedupedBatches, this::dedupe));
+        stages.add(new Stage("embed", "片段", dedupedBatches, embeddedBatches, this::embed));
+        stages.add(new Stage("persist", "片段", embeddedBatches, persistedBatches, this::persist));
+        stages.add(new Stage("index", "片段", persistedBatches, null, this::index));
+    }
+
+    /**
+     * 启动全部阶段并等待完成
+     * @return 未能建立向量索引的片段，按片段位置排序
+     */
+    List<EmbeddingService.ChunkFailure> run() throws Exception {
+        for (Stage stage : stages) {
+            Thread t = new Thread(stage, "ingest-" + documentId + "-" + stage.name);
+            t.setDaemon(true);
+            threads.add(t);
+        }
+        try {
+            threads.forEach(Thread::start);
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+            throw e;
+        } finally {
+            try {
+                source.close();
+            } catch (Exception e) {
+                logger.warning("关闭文档 " + documentId + " 失败: " + e.getMessage());
+            }
+        }
+        if (failure != null) {
+            throw failure instanceof Exception ex ? ex : new IllegalStateException(failure);
+        }
+        List<EmbeddingService.ChunkFailure> result = new ArrayList<>(failures);
+        result.sort(Comparator.comparingInt(EmbeddingService.ChunkFailure::chunkIndex));
+        return result;
+    }
+
+    /**
+     * 各阶段的吞吐量和队列深度
+     */
+    List<Map<String, Object>> stats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Stage stage : stages) {
+            stats.add(stage.stats());
+        }
+        return stats;
+    }
+
+    // ———— 各阶段 ————
+
+    private void parse(Object ignored, Stage stage) throws Exception {
+        String block;
+        while ((block = source.nextBlock()) != null) {
+            stage.emit(block, 1);
+        }
+    }
+
+    private List<String> pendingChunks = new ArrayList<>();
+    private int nextChunkIndex;
+
+    private void chunk(Object ignored, Stage stage) throws Exception {
+        TextBlockReader queued = new TextBlockReader() {
+            // 读到结束标记后分段器可能再次读取（例如 BufferedReader 在文本末尾重复 fill），不能再从队列取
+            private boolean ended;
+
+            @Override
+            public String nextBlock() throws IOException {
+                if (ended) {
+                    return null;
+                }
+                long start = System.nanoTime();
+                try {
+                    Object block = blocks.take();
+                    ended = block == END;
+                    return ended ? null : (String) block;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("导入流水线已中断");
+                } finally {
+                    stage.blockedNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Iterator<String> chunks = chunker.apply(queued.asReader());
+        while (chunks.hasNext()) {
+            addChunk(chunks.next(), stage);
+        }
+        if (!pendingChunks.isEmpty()) {
+            emitChunks(stage);
+        }
+    }
+
+    private void addChunk(String chunk, Stage stage) throws InterruptedException {
+        pendingChunks.add(chunk);
+        if (pendingChunks.size() == batchSize) {
+            emitChunks(stage);
+        }
+    }
+
+    private void emitChunks(Stage stage) throws InterruptedException {
+        Batch batch = new Batch(nextChunkIndex, pendingChunks);
+        nextChunkIndex += pendingChunks.size();
+        pendingChunks = new ArrayList<>();
+        if (listener != null) {
+            listener.onChunked(batch.size());
+        }
+        stage.emit(batch, batch.size());
+    }
+
+    // 本文档中已确定要嵌入的内容摘要（嵌入结果尚未写库时，后续相同内容也只登记为重复）
+    private final Set<String> embeddingHashes = new HashSet<>();
+
+    /**
+     * 复用已有片段，并把每个片段标记为：已有向量 / 需要嵌入 / 与已有内容重复
+     */
+    private void dedupe(Object item, Stage stage) throws InterruptedException {
+        if (item == END) {
+            return;
+        }
+        Batch batch = (Batch) item;
+        for (int k = 0; k < batch.size(); k++) {
+            String content = batch.contents.get(k);
+            batch.hashes.add(TextUtils.contentHash(content));
+            int index = batch.firstIndex + k;
+            // 内容与上次不同的片段摘要也不同，不会被当作已有向量；写库时覆盖或删除它的旧向量
+            batch.segments.add(index < existing.size() ? existing.get(index) : null);
+        }
+        batch.knownCanonical = embeddingService.findCanonicalSegments(batch.hashes, model);
+        for (int k = 0; k < batch.size(); k++) {
+            String hash = batch.hashes.get(k);
+            Segment segment = batch.segments.get(k);
+            Long canonicalId = batch.knownCanonical.get(hash);
+            if (segment != null && segment.getId().equals(canonicalId)) {
+                batch.roles[k] = Batch.INDEXED;
+            } else if (canonicalId != null || !embeddingHashes.add(hash)) {
+                batch.roles[k] = Batch.DUPLICATE;
+            } else {
+                batch.roles[k] = Batch.EMBED;
+            }
+        }
+        stage.emit(batch, batch.size());
+    }
+
+    private void embed(Object item, Stage stage) throws InterruptedException {
+        if (item == END) {
+            return;
+        }
+        Batch batch = (Batch) item;
+        List<String> texts = new ArrayList<>();
+        for (int k = 0; k < batch.size(); k++) {
+            if (batch.roles[k] == Batch.EMBED) {
+                texts.add(batch.contents.get(k));
+            }
+        }
+        if (!texts.isEmpty()) {
+            List<float[]> vectors;
+            try {
+                vectors = embeddingService.embedAll(texts);
+            } catch (RuntimeException e) {
+                logger.warning("文档 " + documentId + " 第 " + (batch.firstIndex + 1) + " 个片段起的一批片段嵌入失败: "
+                        + e.getMessage());
+                vectors = null;
+                batch.embedError = "嵌入失败: " + e.getMessage();
+            }
+            int next = 0;
+            for (int k = 0; k < batch.size(); k++) {
+                if (batch.roles[k] == Batch.EMBED) {
+                    float[] vector = vectors != null ? vectors.get(next++) : null;
+                    batch.vectors[k] = vector != null && !EmbeddingService.isZeroVector(vector) ? vector : null;
+                }
+            }
+        }
+        stage.emit(batch, texts.size());
+    }
+
+    // 本文档中已写库的向量所属的片段：内容摘要 -> 片段ID；只由写库阶段线程访问
+    private final Map<String, Long> persistedCanonical = new HashMap<>();
+
+    /**
+     * 在一个事务中写入整批片段和它们的向量（重复片段不保存向量，复用的片段删除旧向量）
+     */
+    private void persist(Object item, Stage stage) throws InterruptedException {
+        if (item == END) {
+            return;
+        }
+        Batch batch = (Batch) item;
+        List<Segment> toSave = new ArrayList<>(batch.size());
+        List<Segment> withVector = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        List<Long> staleVectorIds = new ArrayList<>();
+        for (int k = 0; k < batch.size(); k++) {
+            Segment segment = batch.segments.get(k);
+            if (batch.roles[k] == Batch.INDEXED) {
+                continue;
+            }
+            if (segment == null) {
+                segment = new Segment();
+                segment.setDocumentId(documentId);
+                batch.segments.set(k, segment);
+            }
+            segment.setContent(batch.contents.get(k));
+            segment.setContentHash(batch.hashes.get(k));
+            if (batch.vectors[k] != null) {
+                withVector.add(segment);
+                vectors.add(batch.vectors[k]);
+            } else if (segment.getId() != null) {
+                staleVectorIds.add(segment.getId());
+            }
+            toSave.add(segment);
+        }
+        if (!toSave.isEmpty()) {
+            // 新片段的主键由号段表预先分配，按 hibernate.jdbc.batch_size 批量 insert；
+            // 先 flush 片段再写向量，提交前出错时片段和向量一起回滚
+            transaction.executeWithoutResult(status -> {
+                segmentRepository.saveAllAndFlush(toSave);
+                vectorWriter.upsert(withVector.stream().map(Segment::getId).collect(Collectors.toList()), vectors, model);
+                vectorWriter.delete(staleVectorIds);
+            });
+            // 提交后再更新内容缓存：新片段预先写入，复用的片段覆盖缓存中的旧内容
+            for (Segment segment : toSave) {
+                embeddingService.cacheSegmentContent(segment.getId(), segment.getContent());
+            }
+        }
+        for (int k = 0; k < batch.size(); k++) {
+            if (batch.vectors[k] != null) {
+                persistedCanonical.putIfAbsent(batch.hashes.get(k), batch.segments.get(k).getId());
+            }
+        }
+        // 重复片段共用的片段在这里确定，随批次交给索引阶段（经队列传递，索引阶段不读写库阶段的状态）
+        for (int k = 0; k < batch.size(); k++) {
+            if (batch.roles[k] == Batch.DUPLICATE) {
+                Long canonicalId = batch.knownCanonical.get(batch.hashes.get(k));
+                batch.canonicalIds[k] = canonicalId != null ? canonicalId : persistedCanonical.get(batch.hashes.get(k));
+            }
+        }
+        stage.emit(batch, toSave.size());
+    }
+
+    /**
+     * 写入关键词索引和内存向量索引，登记重复片段，并回调进度；全部批次处理完后删除多余的旧片段
+     */
+    private void index(Object item, Stage stage) throws InterruptedException {
+        if (item == END) {
+            removeStaleSegments();
+            return;
+        }
+        Batch batch = (Batch) item;
+        for (int k = 0; k < batch.size(); k++) {
+            Segment segment = batch.segments.get(k);
+            Long segmentId = segment.getId();
+            int index = batch.firstIndex + k;
+            embeddingService.indexLexical(segmentId, batch.contents.get(k));
+            switch (batch.roles[k]) {
+                case Batch.EMBED -> {
+                    if (batch.vectors[k] != null) {
+                        embeddingService.storeVector(segmentId, batch.vectors[k]);
+                    } else {
+                        // 库阶段已删除该片段在数据库中的旧向量，内存索引和向量文件同步删除
+                        embeddingService.removeVector(segmentId);
+                        failures.add(new EmbeddingService.ChunkFailure(index, segmentId,
+                                batch.embedError != null ? batch.embedError : "嵌入失败，返回零向量"));
+                    }
+                }
+                case Batch.DUPLICATE -> {
+                    Long canonicalId = batch.canonicalIds[k];
+                    if (canonicalId != null) {
+                        embeddingService.registerAlias(segmentId, canonicalId);
+                    } else {
+                        failures.add(new EmbeddingService.ChunkFailure(index, segmentId, "相同内容的片段嵌入失败"));
+                    }
+                }
+                default -> { }
+            }
+        }
+        if (listener != null) {
+            listener.onIndexed(batch.size());
+        }
+        stage.emit(batch, batch.size());
+    }
+
+    /**
+     * 删除上次导入留下、本次分段中没有对应位置的片段（文档变短后重新导入）：数据库中的片段和向量、
+     * 内存向量索引和向量文件、关键词索引以及内容缓存。
+     * 在索引阶段处理完全部批次后执行，此时本次登记的重复片段都已确定共用哪个片段；
+     * 其它片段共用某个被删片段的向量时，把向量转给其中一个片段，其余片段改为共用它
+     */
+    private void removeStaleSegments() {
+        if (existing.size() <= nextChunkIndex) {
+            return;
+        }
+        List<Long> staleIds = existing.subList(nextChunkIndex, existing.size()).stream()
+                .map(Segment::getId)
+                .collect(Collectors.toList());
+        Set<Long> stale = new HashSet<>(staleIds);
+        List<Long> newOwners = new ArrayList<>();
+        List<float[]> handedOver = new ArrayList<>();
+        Map<Long, Long> reassigned = new LinkedHashMap<>();
+        for (Long staleId : staleIds) {
+            List<Long> sharing = embeddingService.aliasesOf(staleId).stream()
+                    .filter(id -> !stale.contains(id))
+                    .collect(Collectors.toList());
+            float[] vector = sharing.isEmpty() ? null : embeddingService.getVector(staleId);
+            if (vector == null) {
+                continue;
+            }
+            Long owner = sharing.get(0);
+            newOwners.add(owner);
+            handedOver.add(vector);
+            for (Long other : sharing.subList(1, sharing.size())) {
+                reassigned.put(other, owner);
+            }
+        }
+        transaction.executeWithoutResult(status -> {
+            vectorWriter.upsert(newOwners, handedOver, model);
+            vectorWriter.delete(staleIds);
+            segmentRepository.deleteAllByIdInBatch(staleIds);
+        });
+        // 提交后再更新内存：先让接手的片段持有向量，再删除旧片段
+        for (int i = 0; i < newOwners.size(); i++) {
+            embeddingService.storeVector(newOwners.get(i), handedOver.get(i));
+        }
+        reassigned.forEach(embeddingService::registerAlias);
+        staleIds.forEach(embeddingService::forgetSegment);
+        logger.info("文档 " + documentId + " 本次分段 " + nextChunkIndex + " 个，已删除上次导入多出的 "
+                + staleIds.size() + " 个片段" + (newOwners.isEmpty() ? "" : "，" + newOwners.size() + " 个向量转给共用它的片段"));
+    }
+
+    /**
+     * 一批片段在各阶段之间传递的状态
+     */
+    private static final class Batch {
+        // 片段已持有当前模型的向量
+        static final int INDEXED = 0;
+        // 需要嵌入
+        static final int EMBED = 1;
+        // 与已有内容或本文档前面的片段重复，共用其向量
+        static final int DUPLICATE = 2;
+
+        final int firstIndex;
+        final List<String> contents;
+        final List<String> hashes;
+        // 复用的已有片段，新片段在写库前为 null
+        final List<Segment> segments;
+        final int[] roles;
+        final float[][] vectors;
+        // 重复片段共用向量的片段ID，写库阶段填写
+        final Long[] canonicalIds;
+        Map<String, Long> knownCanonical = Map.of();
+        String embedError;
+
+        Batch(int firstIndex, List<String> contents) {
+            this.firstIndex = firstIndex;
+            this.contents = contents;
+            this.hashes = new ArrayList<>(contents.size());
+            this.segments = new ArrayList<>(contents.size());
+            this.roles = new int[contents.size()];
+            this.vectors = new float[contents.size()][];
+            this.canonicalIds = new Long[contents.size()];
+        }
+
+        int size() {
+            return contents.size();
+        }
+    }
+
+    @FunctionalInterface
+    private interface StageBody {
+        /**
+         * 处理一个输入项；输入队列结束时以 END 调用一次，用于输出剩余数据。
+         * 没有输入队列的源阶段只调用一次，参数为 null
+         */
+        void accept(Object item, Stage stage) throws Exception;
+    }
+
+    /**
+     * 流水线阶段：从输入队列取数据交给 body 处理，body 通过 emit 写入输出队列
+     */
+    private final class Stage implements Runnable {
+        final String name;
+        final String unit;
+        final BlockingQueue<Object> input;
+        final BlockingQueue<Object> output;
+        final StageBody body;
+
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        // 因等待上游数据或下游队列已满而阻塞的时间
+        final AtomicLong blockedNanos = new AtomicLong();
+        volatile int maxOutputDepth;
+        volatile long startNanos;
+        volatile long endNanos;
+
+        Stage(String name, String unit, BlockingQueue<Object> input, BlockingQueue<Object> output, StageBody body) {
+            this.name = name;
+            this.unit = unit;
+            this.input = input;
+            this.output = output;
+            this.body = body;
+        }
+
+        @Override
+        public void run() {
+            startNanos = System.nanoTime();
+            if (failure != null) {
+                // 启动前其它阶段已经失败（此时中断对尚未启动的线程无效）
+                return;
+            }
+            try {
+                if (input == null) {
+                    process(null);
+                } else {
+                    while (true) {
+                        Object item = input.take();
+                        process(item);
+                        if (item == END) {
+                            break;
+                        }
+                    }
+                }
+                if (output != null) {
+                    put(END);
+                }
+            } catch (InterruptedException e) {
+                // 其它阶段失败或任务被取消
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                if (!Thread.currentThread().isInterrupted()) {
+                    fail(e);
+                }
+            } finally {
+                endNanos = System.nanoTime();
+            }
+        }
+
+        void emit(Object item, int count) throws InterruptedException {
+            items.addAndGet(count);
+            if (output != null) {
+                long start = System.nanoTime();
+                put(item);
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        private void process(Object item) throws Exception {
+            long start = System.nanoTime();
+            long blockedBefore = blockedNanos.get();
+            body.accept(item, this);
+            busyNanos.addAndGet(System.nanoTime() - start - (blockedNanos.get() - blockedBefore));
+        }
+
+        private void put(Object item) throws InterruptedException {
+            output.put(item);
+            maxOutputDepth = Math.max(maxOutputDepth, output.size());
+        }
+
+        Map<String, Object> stats() {
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            double elapsedSeconds = startNanos == 0 ? 0 : (end - startNanos) / 1e9;
+            double busySeconds = busyNanos.get() / 1e9;
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("stage", name);
+            stats.put("unit", unit);
+            stats.put("items", items.get());
+            stats.put("busyMillis", busyNanos.get() / 1_000_000);
+            stats.put("blockedMillis", blockedNanos.get() / 1_000_000);
+            // 按实际处理时间计的吞吐量，最低的阶段就是瓶颈
+            stats.put("throughputPerSecond", busySeconds == 0 ? 0.0 : items.get() / busySeconds);
+            stats.put("elapsedThroughputPerSecond", elapsedSeconds == 0 ? 0.0 : items.get() / elapsedSeconds);
+            if (output != null) {
+                stats.put("queueDepth", output.size());
+                stats.put("maxQueueDepth", maxOutputDepth);
+                stats.put("queueCapacity", output.size() + output.remainingCapacity());
+            }
+            return stats;
+        }
+    }
+
+    private void fail(Throwable e) {
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = e;
+        }
+        logger.severe("文档 " + documentId + " 导入流水线失败: " + e.getMessage());
+        // 其它阶段可能阻塞在队列的 put/take 上
+        threads.forEach(Thread::interrupt);
+    }
+}
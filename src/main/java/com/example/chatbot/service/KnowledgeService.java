@@ -4,29 +4,43 @@ import com.example.chatbot.model.Document;
 import com.example.chatbot.model.Segment;
 import com.example.chatbot.model.User;
 import com.example.chatbot.repository.DocumentRepository;
+import com.example.chatbot.repository.SegmentContent;
 import com.example.chatbot.repository.SegmentRepository;
 import com.example.chatbot.repository.UserRepository;
 import com.example.chatbot.util.DocumentParser;
-import com.example.chatbot.util.TextUtils;
+import com.example.chatbot.util.HuggingFaceTokenCounter;
+import com.example.chatbot.util.SentenceChunker;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
  * 知识库管理服务：文件上传、存储、元数据入库
  */
 @Service
+@DependsOn("segmentStorageInitializer")
 public class KnowledgeService {
 
     private static final Logger logger = Logger.getLogger(KnowledgeService.class.getName());
@@ -37,14 +51,49 @@ public class KnowledgeService {
     private final SegmentRepository segmentRepo;
     private final EmbeddingService embeddingService;
     private final UserRepository userRepository;
+    private final ReindexService reindexService;
+    private final SegmentVectorWriter segmentVectorWriter;
+    // 导入时每批片段和向量的写库事务
+    private final TransactionTemplate segmentTransaction;
+
+    // 导入流水线每批片段数（一次嵌入、一次写库）
+    @Value("${knowledge.ingest.batchSize:128}")
+    private int pipelineBatchSize;
+
+    // 导入流水线相邻阶段之间的队列容量
+    @Value("${knowledge.ingest.queueCapacity:4}")
+    private int pipelineQueueCapacity;
+
+    // 正在导入的文档 -> 导入流水线
+    private final Map<Long, IngestionPipeline> activePipelines = new ConcurrentHashMap<>();
+
+    // 每个片段的最大长度：字符数；配置了 tokenizer 时为 token 数
+    @Value("${knowledge.chunk.size:500}")
+    private int chunkSize;
+
+    // 相邻片段重叠的最大长度（单位同 chunk.size），0 表示不重叠
+    @Value("${knowledge.chunk.overlap:50}")
+    private int chunkOverlap;
+
+    // 按 token 数分段所用的 Hugging Face tokenizer（本地 tokenizer.json 路径或模型名），留空表示按字符数分段
+    @Value("${knowledge.chunk.tokenizer:}")
+    private String chunkTokenizer;
+
+    private HuggingFaceTokenCounter tokenCounter;
 
     public KnowledgeService(DocumentRepository docRepo,
                             SegmentRepository segmentRepo,
                             EmbeddingService embeddingService,
                             UserRepository userRepository,
+                            ReindexService reindexService,
+                            SegmentVectorWriter segmentVectorWriter,
+                            PlatformTransactionManager transactionManager,
                             @Value("${knowledge.upload-dir}") String uploadDir) throws IOException {
         this.documentRepository = docRepo;
         this.segmentRepo = segmentRepo;
+        this.reindexService = reindexService;
+        this.segmentVectorWriter = segmentVectorWriter;
+        this.segmentTransaction = new TransactionTemplate(transactionManager);
         this.uploadDir = Paths.get(uploadDir).toAbsolutePath().normalize();
         this.embeddingService = embeddingService;
         this.userRepository = userRepository;
@@ -52,6 +101,44 @@ public class KnowledgeService {
         Files.createDirectories(this.uploadDir);
     }
 
+    /**
+     * 配置了 tokenizer 时加载它，用于按 token 数分段
+     */
+    @PostConstruct
+    public void initChunker() throws IOException {
+        if (!chunkTokenizer.isBlank()) {
+            tokenCounter = new HuggingFaceTokenCounter(chunkTokenizer);
+            logger.info("按 token 数分段，tokenizer: " + chunkTokenizer + "，每段最多 " + chunkSize + " 个 token");
+        }
+    }
+
+    @PreDestroy
+    public void closeChunker() {
+        if (tokenCounter != null) {
+            tokenCounter.close();
+        }
+    }
+
+    /**
+     * 按配置创建流式分段器：在句末标点处断开，相邻片段重叠末尾的若干整句
+     */
+    private Iterator<String> newChunker(Reader text) {
+        if (tokenCounter == null) {
+            return new SentenceChunker(text, chunkSize, chunkOverlap);
+        }
+        // 一个 token 很少超过 4 个字符，单句字符数上限只用于限制缓存，超长时再按 token 数拆分
+        return new SentenceChunker(text, chunkSize, chunkOverlap, tokenCounter, chunkSize * 4);
+    }
+
+    /**
+     * 正在导入的文档各阶段的吞吐量和队列深度
+     * @return 文档不在导入中时返回 null
+     */
+    public List<Map<String, Object>> getPipelineStats(Long docId) {
+        IngestionPipeline pipeline = activePipelines.get(docId);
+        return pipeline != null ? pipeline.stats() : null;
+    }
+
     /**
      * 上传并保存文件
      * @param file Spring MVC 接收的 MultipartFile
@@ -76,10 +163,51 @@ public class KnowledgeService {
         return documentRepository.save(doc);
     }
 
+    /**
+     * 以当前登录用户身份上传并保存文件，无法获取当前用户时使用默认用户ID 1
+     */
+    public Document importFile(MultipartFile file) throws IOException {
+        Long userId = getCurrentUserId();
+        if (userId == null) {
+            logger.warning("无法获取当前用户ID，使用默认用户ID 1");
+            userId = 1L;
+        }
+        return importFile(file, userId);
+    }
+
+    /**
+     * 文档处理进度回调；两个方法由流水线的不同阶段线程调用
+     */
+    public interface ProcessingListener {
+        /**
+         * 又切分出一批片段（边解析边分段，片段总数在解析完成前一直增长）
+         * @param segments 本批片段数
+         */
+        void onChunked(int segments);
+
+        /**
+         * 又有一批片段处理完成（成功或失败）
+         * @param segments 本批片段数
+         */
+        void onIndexed(int segments);
+    }
+
     /**
      * 解析并分段入库
+     * @return 未能建立向量索引的片段，全部成功时为空列表
+     */
+    public List<EmbeddingService.ChunkFailure> processDocument(Long docId) throws Exception {
+        return processDocument(docId, null);
+    }
+
+    /**
+     * 解析并分段入库，并回调处理进度。
+     * 解析、分段、嵌入和写库在 {@link IngestionPipeline} 中分阶段并行进行，不在内存中保留完整文本。
+     * 文档已有片段（上次处理中断）时按顺序复用这些片段，只补上缺少的片段；已有当前模型向量的片段不会重新嵌入。
+     * @param listener 进度回调，可为 null
+     * @return 未能建立向量索引的片段，全部成功时为空列表
      */
-    public void processDocument(Long docId) throws Exception {
+    public List<EmbeddingService.ChunkFailure> processDocument(Long docId, ProcessingListener listener) throws Exception {
         // 1. 查出文档元数据
         Document doc = documentRepository.findById(docId)
                 .orElseThrow(() -> new IllegalArgumentException("找不到文档：" + docId));
@@ -87,84 +215,73 @@ public class KnowledgeService {
         // 调试输出：查看路径
         System.out.println(">> 正在解析文档路径: " + doc.getFilepath());
 
-        // 2. 解析为纯文本
+        // 2. 分阶段流水线：解析 → 按句子分段 → 去重 → 嵌入 → 写库 → 索引，各阶段并行、边读边处理
         File file = new File(doc.getFilepath());
         System.out.println(">> 文件存在吗？ " + file.exists() + ", 大小 = " + file.length());
-        String text = DocumentParser.parseToText(file);
-        System.out.println(">> 解析后文本长度: " + text.length());
-        System.out.println(">> 文本前 100 字: " + text.substring(0, Math.min(100, text.length())));
-
-        // 3. 按 500 字拆分
-        List<String> chunks = TextUtils.chunkText(text, 500);
-
-        // 4. 保存每个片段
-        for (String chunk : chunks) {
-            Segment seg = new Segment();
-            seg.setDocumentId(docId);
-            seg.setContent(chunk);
-            segmentRepo.save(seg);
-            // 生成并存向量
-            embeddingService.indexSegment(seg.getId(), chunk);
+
+        // 复用上次中断时已保存的片段
+        List<Segment> existing = new ArrayList<>(segmentRepo.findByDocumentId(docId));
+        existing.sort(Comparator.comparing(Segment::getId));
+        IngestionPipeline pipeline = new IngestionPipeline(docId, DocumentParser.open(file), this::newChunker,
+                pipelineBatchSize, pipelineQueueCapacity, existing, embeddingService, segmentRepo,
+                segmentVectorWriter, segmentTransaction, listener);
+        activePipelines.put(docId, pipeline);
+        List<EmbeddingService.ChunkFailure> failures;
+        try {
+            failures = pipeline.run();
+        } finally {
+            activePipelines.remove(docId);
+            logger.info("文档 " + docId + " 导入流水线各阶段统计: " + pipeline.stats());
         }
+        for (EmbeddingService.ChunkFailure failure : failures) {
+            logger.warning("文档 " + docId + " 的第 " + (failure.chunkIndex() + 1) + " 个片段（ID "
+                    + failure.segmentId() + "）索引失败: " + failure.reason());
+        }
+        return failures;
     }
     
     /**
-     * 上传文件并处理（一键上传、分段、建立索引）
-     * @param file 要上传的文件
-     * @param userId 用户ID
-     * @return 文档元数据
+     * 在后台重新训练向量索引（IVF 模式下语料规模大幅变化后使用）
+     * @return 是否提交了重建任务
      */
-    public Document uploadAndProcess(MultipartFile file, Long userId) {
-        try {
-            logger.info("开始处理文件上传 - 文件名: " + file.getOriginalFilename() + 
-                       ", 大小: " + file.getSize() + 
-                       ", 用户ID: " + userId);
-            
-            // 1. 上传并入库
-            Document doc = importFile(file, userId);
-            logger.info("文件元数据已保存到数据库，文档ID: " + doc.getId());
-            
-            try {
-                // 2. 处理文档（分段、索引）
-                processDocument(doc.getId());
-                logger.info("文件处理完成 - 文档ID: " + doc.getId());
-            } catch (Exception e) {
-                // 即使文件处理失败，也返回文档元数据，因为文件已经上传了
-                logger.warning("文件处理失败，但文件已上传 - 文档ID: " + doc.getId() + 
-                             ", 错误: " + e.getMessage());
-                // 将异常打印到控制台，但不抛出
-                e.printStackTrace();
-            }
-            
-            // 3. 返回处理后的文档元数据
-            return doc;
-        } catch (Exception e) {
-            logger.severe("文件上传完全失败: " + e.getMessage());
-            e.printStackTrace();
-            throw new RuntimeException("文件上传或处理失败: " + e.getMessage(), e);
-        }
+    public boolean rebuildVectorIndex() {
+        return embeddingService.scheduleIndexRebuild();
     }
-    
+
     /**
-     * 兼容原有接口的上传方法
-     * @param file 要上传的文件
-     * @return 文档元数据
+     * 查询向量缓存的命中统计
      */
-    public Document uploadAndProcess(MultipartFile file) {
-        // 获取当前登录用户ID
-        Long userId = getCurrentUserId();
-        if (userId == null) {
-            logger.warning("无法获取当前用户ID，使用默认用户ID 1");
-            userId = 1L; // 如果无法获取用户ID，使用默认值
-        }
-        return uploadAndProcess(file, userId);
+    public Map<String, Object> getQueryCacheStats() {
+        return embeddingService.getQueryCacheStats();
     }
 
     /**
-     * 根据文档 ID 获取所有分段
+     * 查询片段内容缓存的命中统计
      */
-    public List<Segment> getAllSegmentsByDocumentId(Long documentId) {
-        return segmentRepo.findByDocumentId(documentId);
+    public Map<String, Object> getSegmentCacheStats() {
+        return embeddingService.getSegmentCacheStats();
+    }
+
+    /**
+     * 在后台重新生成全部片段的向量（切换嵌入模型后使用）
+     * @return 是否启动了新任务；已有任务在运行时返回 false
+     */
+    public boolean startReindex() {
+        return reindexService.start() != null;
+    }
+
+    /**
+     * 重新索引任务的进度
+     */
+    public Map<String, Object> getReindexStatus() {
+        return reindexService.status();
+    }
+
+    /**
+     * 根据文档 ID 获取所有分段的内容（按片段ID顺序，不加载实体）
+     */
+    public List<SegmentContent> getAllSegmentsByDocumentId(Long documentId) {
+        return segmentRepo.findContentByDocumentId(documentId);
     }
 
     /**
@@ -197,6 +314,18 @@ public class KnowledgeService {
         return getDocuments(userId, isAdmin);
     }
     
+    /**
+     * 当前登录用户能否查看属于指定用户的数据：管理员或本人
+     * @param ownerId 数据所属用户的ID
+     */
+    public boolean isCurrentUserOwnerOrAdmin(Long ownerId) {
+        if (isCurrentUserAdmin()) {
+            return true;
+        }
+        Long userId = getCurrentUserId();
+        return userId != null && userId.equals(ownerId);
+    }
+
     /**
      * 获取当前登录用户的ID
      * @return 用户ID，未登录则返回null
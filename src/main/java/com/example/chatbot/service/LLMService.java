@@ -25,6 +25,21 @@ import java.util.logging.Logger;
 @Service
 public class LLMService {
     private static final Logger logger = Logger.getLogger(LLMService.class.getName());
+
+    /**
+     * 模型回复
+     * @param text 回复文本
+     * @param generated 是否由模型正常生成；服务不可用、调用出错时的提示语和离线回复为 false，不应缓存
+     */
+    public record Reply(String text, boolean generated) {
+        static Reply success(String text) {
+            return new Reply(text, true);
+        }
+
+        static Reply fallback(String text) {
+            return new Reply(text, false);
+        }
+    }
     // Ollama服务状态标志
     private boolean ollamaServiceAvailable = true;
     private long lastCheckTime = 0;
@@ -230,6 +245,13 @@ public class LLMService {
      * @return 生成的回答
      */
     public String generateAnswerWithContext(String question, List<String> relevantSegments, String conversationContext) {
+        return replyWithContext(question, relevantSegments, conversationContext).text();
+    }
+
+    /**
+     * 与 {@link #generateAnswerWithContext} 相同，同时标明回答是否由模型正常生成
+     */
+    public Reply replyWithContext(String question, List<String> relevantSegments, String conversationContext) {
         logger.info("使用generateAnswerWithContext方法生成回复");
         logger.info(conversationContext);
         // 检查是否使用远程模式，实际远程时不会走这个方法，所以只需要看本地逻辑
@@ -311,7 +333,7 @@ public class LLMService {
         
         // 如果Ollama服务不可用且在检查间隔内，直接返回离线回复
         if (!shouldTryConnectingToOllama()) {
-            return getFallbackResponse(question);
+            return Reply.fallback(getFallbackResponse(question));
         }
 
         try {
@@ -360,7 +382,7 @@ public class LLMService {
             ollamaServiceAvailable = true;
 
             if (resp == null) {
-                return "LLM 服务未返回有效响应";
+                return Reply.fallback("LLM 服务未返回有效响应");
             }
 
             // 提取回复文本
@@ -369,20 +391,20 @@ public class LLMService {
             if (response != null) {
                 logger.info("成功获取带上下文的回复，长度: " + response.length());
                 System.out.println("========== 使用Ollama本地模型生成回复成功 ==========");
-                return response;
+                return Reply.success(response);
             }
 
-            return "无法解析 LLM 返回的响应格式";
+            return Reply.fallback("无法解析 LLM 返回的响应格式");
         }catch (WebClientRequestException e) {
             // 标记服务不可用
             ollamaServiceAvailable = false;
             lastCheckTime = System.currentTimeMillis();
             logger.severe("无法连接到Ollama服务: " + e.getMessage());
-            return getFallbackResponse(question);
+            return Reply.fallback(getFallbackResponse(question));
         } catch (Exception e) {
             logger.severe("调用带上下文的 LLM 服务失败: " + e.getMessage());
             e.printStackTrace();
-            return "服务调用出错: " + e.getMessage();
+            return Reply.fallback("服务调用出错: " + e.getMessage());
         }
     }
 
@@ -478,6 +500,14 @@ public class LLMService {
      */
     @SuppressWarnings("unchecked")
     public String generateResponse(List<Map<String, String>> messageHistory) {
+        return reply(messageHistory).text();
+    }
+
+    /**
+     * 与 {@link #generateResponse(List)} 相同，同时标明回答是否由模型正常生成
+     */
+    @SuppressWarnings("unchecked")
+    public Reply reply(List<Map<String, String>> messageHistory) {
         logger.info("使用generateResponse方法生成回复");
         // 检查是否使用远程模式
         String currentChatMode = getCurrentChatMode();
@@ -523,7 +553,7 @@ public class LLMService {
 
             // 如果找不到用户消息，返回错误
             if (currentQuestion.isEmpty()) {
-                return "错误：消息历史中没有用户问题";
+                return Reply.fallback("错误：消息历史中没有用户问题");
             }
 
             logger.info("转换为文本的对话历史：\n" + conversationText.toString());
@@ -550,27 +580,27 @@ public class LLMService {
                 ollamaServiceAvailable = true;
 
                 if (resp == null) {
-                    return "LLM 服务未返回有效响应";
+                    return Reply.fallback("LLM 服务未返回有效响应");
                 }
 
                 // 提取回复文本
                 String response = (String) resp.get("response");
                 if (response != null) {
                     logger.info("成功获取多轮对话回复，长度: " + response.length());
-                    return response;
+                    return Reply.success(response);
                 }
 
-                return "无法解析 LLM 返回的响应格式";
+                return Reply.fallback("无法解析 LLM 返回的响应格式");
             } catch (WebClientRequestException e) {
                 // 标记服务不可用
                 ollamaServiceAvailable = false;
                 lastCheckTime = System.currentTimeMillis();
                 logger.severe("无法连接到Ollama服务: " + e.getMessage());
-                return getFallbackResponse(currentQuestion);
+                return Reply.fallback(getFallbackResponse(currentQuestion));
             } catch (Exception e) {
                 logger.severe("调用 LLM 服务失败: " + e.getMessage());
                 e.printStackTrace();
-                return "服务调用出错: " + e.getMessage();
+                return Reply.fallback("服务调用出错: " + e.getMessage());
             }
         }
     }
@@ -620,7 +650,7 @@ public class LLMService {
      * @param conversationHistory 对话历史记录
      * @return 生成的回答
      */
-    private String remoteChat(List<Map<String, String>> conversationHistory) {
+    private Reply remoteChat(List<Map<String, String>> conversationHistory) {
         logger.info("conversationHistory内容展示：");
         for (Map<String, String> msg : conversationHistory) {
             logger.info(String.format("[%s]: %s", msg.get("role"), msg.get("content")));
@@ -654,7 +684,7 @@ public class LLMService {
                 
             if (response == null) {
                 logger.severe("DeepSeek API未返回有效响应");
-                return "DeepSeek API未返回有效响应";
+                return Reply.fallback("DeepSeek API未返回有效响应");
             }
             
             // 记录完整响应
@@ -670,18 +700,18 @@ public class LLMService {
                     if (content != null) {
                         logger.info("成功从DeepSeek API获取回复，长度: " + content.length());
                         System.out.println("========== DeepSeek远程API回复成功 ==========");
-                        return content;
+                        return Reply.success(content);
                     }
                 }
             }
             
             logger.warning("无法从DeepSeek API响应中提取内容: " + response);
-            return "无法解析DeepSeek API的响应格式";
+            return Reply.fallback("无法解析DeepSeek API的响应格式");
         } catch (Exception e) {
             logger.severe("调用DeepSeek API失败: " + e.getMessage());
             e.printStackTrace();
             System.err.println("DeepSeek API错误: " + e.getMessage());
-            return "调用DeepSeek API出错: " + e.getMessage();
+            return Reply.fallback("调用DeepSeek API出错: " + e.getMessage());
         }
     }
 
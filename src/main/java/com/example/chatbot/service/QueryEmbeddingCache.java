@@ -0,0 +1,126 @@
+package com.example.chatbot.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 查询向量的 LRU 缓存。
+ * 键由调用方组合（嵌入模型 + 规范化后的文本）；同一个键的并发请求只发起一次嵌入调用，
+ * 其余请求等待这次调用的结果。返回的数组都是副本，调用方可以随意修改。
+ */
+public class QueryEmbeddingCache {
+
+    private final int maxSize;
+    // 按访问顺序排列，超出容量时淘汰最久未使用的条目；由自身加锁保护
+    private final LinkedHashMap<String, float[]> entries;
+    // 正在计算中的键
+    private final ConcurrentHashMap<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public QueryEmbeddingCache(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > QueryEmbeddingCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * 查缓存，未命中时调用 loader 计算；零向量（嵌入失败的返回值）不缓存
+     */
+    public float[] get(String key, Supplier<float[]> loader) {
+        float[] cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.clone();
+        }
+
+        CompletableFuture<float[]> mine = new CompletableFuture<>();
+        CompletableFuture<float[]> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            try {
+                float[] vector = running.join();
+                return vector == null ? null : vector.clone();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+
+        try {
+            // 抢到计算权之前，上一次计算可能刚刚写入缓存
+            cached = lookup(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                mine.complete(cached);
+                return cached.clone();
+            }
+            misses.incrementAndGet();
+            float[] vector = loader.get();
+            if (vector != null && !isZero(vector)) {
+                synchronized (entries) {
+                    entries.put(key, vector.clone());
+                }
+            }
+            mine.complete(vector);
+            return vector == null ? null : vector.clone();
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * 缓存统计：命中、未命中、合并到进行中请求的次数、当前条目数和命中率
+     */
+    public Map<String, Object> stats() {
+        long h = hits.get();
+        long m = misses.get();
+        long c = coalesced.get();
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("coalesced", c);
+        stats.put("size", size);
+        stats.put("maxSize", maxSize);
+        stats.put("hitRate", h + m + c == 0 ? 0.0 : (double) (h + c) / (h + m + c));
+        return stats;
+    }
+
+    private float[] lookup(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private static boolean isZero(float[] vector) {
+        for (float v : vector) {
+            if (v != 0f) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,389 @@
+package com.example.chatbot.service;
+
+import com.example.chatbot.index.FlatVectorStore;
+import com.example.chatbot.model.ReindexCheckpoint;
+import com.example.chatbot.repository.ReindexCheckpointRepository;
+import com.example.chatbot.repository.SegmentContent;
+import com.example.chatbot.repository.SegmentRepository;
+import com.example.chatbot.util.TextUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * 后台重新索引任务（模型切换后刷新全部向量）。
+ *
+ * 按片段ID分页读取内容，每页在嵌入专用线程池中并发批量嵌入，再用 JDBC 批量更新写回向量；
+ * 每页完成后保存检查点，应用重启后从检查点继续。可配置每秒处理的片段数上限，避免占满嵌入模型影响在线问答。
+ * 新向量写入一个独立的向量存储，全部完成后整体替换在线索引，重建期间在线检索不受影响；
+ * 重建期间在线写入的片段由 {@link EmbeddingService#swapInRebuiltIndex} 在切换时补写。
+ */
+@Service
+public class ReindexService {
+    private static final Logger logger = Logger.getLogger(ReindexService.class.getName());
+
+    private static final String UPDATE_HASH_SQL = "update segments set content_hash = ? where id = ?";
+
+    // 每页读取的片段数
+    @Value("${reindex.pageSize:256}")
+    private int pageSize;
+
+    // 每秒最多处理的片段数，0 表示不限速
+    @Value("${reindex.maxSegmentsPerSecond:0}")
+    private double maxSegmentsPerSecond;
+
+    // 启动时是否继续上次中断的任务
+    @Value("${reindex.resumeOnStartup:true}")
+    private boolean resumeOnStartup;
+
+    @Autowired
+    private EmbeddingService embeddingService;
+
+    @Autowired
+    private SegmentRepository segmentRepository;
+
+    @Autowired
+    private ReindexCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SegmentVectorWriter segmentVectorWriter;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "segment-reindex");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    // 当前（或最近一次）任务的最新进度
+    private volatile ReindexCheckpoint current;
+
+    /**
+     * 继续上次未完成的任务；目标模型与当前配置不一致时放弃该任务
+     */
+    @PostConstruct
+    public void resumeInterruptedJob() {
+        if (!resumeOnStartup) {
+            return;
+        }
+        checkpointRepository.findFirstByStatusOrderByIdDesc(ReindexCheckpoint.RUNNING).ifPresent(checkpoint -> {
+            String model = embeddingService.getVectorModelId();
+            if (!model.equals(checkpoint.getModelId())) {
+                checkpoint.setStatus(ReindexCheckpoint.FAILED);
+                checkpoint.setMessage("嵌入模型已变更为 " + model + "，未继续该任务");
+                checkpoint.setFinishedAt(LocalDateTime.now());
+                current = checkpointRepository.save(checkpoint);
+                return;
+            }
+            if (running.compareAndSet(false, true)) {
+                logger.info("继续重新索引任务 " + checkpoint.getId() + "，从片段ID " + checkpoint.getLastSegmentId() + " 之后开始");
+                submit(checkpoint);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 中断后任务保持 RUNNING 状态，下次启动时继续
+        executor.shutdownNow();
+    }
+
+    /**
+     * 启动重新索引任务
+     * @return 新任务的检查点；已有任务在运行时返回 null
+     */
+    public ReindexCheckpoint start() {
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            ReindexCheckpoint checkpoint = new ReindexCheckpoint();
+            checkpoint.setModelId(embeddingService.getVectorModelId());
+            checkpoint.setStatus(ReindexCheckpoint.RUNNING);
+            checkpoint.setTotalSegments(segmentRepository.count());
+            checkpoint.setStartedAt(LocalDateTime.now());
+            checkpoint.setUpdatedAt(checkpoint.getStartedAt());
+            checkpoint = checkpointRepository.save(checkpoint);
+            logger.info("开始重新索引任务 " + checkpoint.getId() + "，共 " + checkpoint.getTotalSegments() + " 个片段");
+            submit(checkpoint);
+            return checkpoint;
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * 当前（或最近一次）任务的进度
+     */
+    public Map<String, Object> status() {
+        ReindexCheckpoint checkpoint = current != null ? current
+                : checkpointRepository.findFirstByOrderByIdDesc().orElse(null);
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("maxSegmentsPerSecond", maxSegmentsPerSecond);
+        if (checkpoint == null) {
+            return status;
+        }
+        long total = checkpoint.getTotalSegments();
+        long processed = checkpoint.getProcessedSegments();
+        status.put("jobId", checkpoint.getId());
+        status.put("status", checkpoint.getStatus());
+        status.put("modelId", checkpoint.getModelId());
+        status.put("lastSegmentId", checkpoint.getLastSegmentId());
+        status.put("totalSegments", total);
+        status.put("processedSegments", processed);
+        status.put("failedSegments", checkpoint.getFailedSegments());
+        status.put("duplicateSegments", checkpoint.getDuplicateSegments());
+        status.put("progress", total == 0 ? 1.0 : Math.min(1.0, (double) processed / total));
+        status.put("startedAt", checkpoint.getStartedAt());
+        status.put("updatedAt", checkpoint.getUpdatedAt());
+        status.put("finishedAt", checkpoint.getFinishedAt());
+        status.put("message", checkpoint.getMessage());
+        return status;
+    }
+
+    private void submit(ReindexCheckpoint checkpoint) {
+        current = checkpoint;
+        executor.submit(() -> {
+            try {
+                run(checkpoint);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    private void run(ReindexCheckpoint checkpoint) {
+        String model = checkpoint.getModelId();
+        FlatVectorStore rebuilt = new FlatVectorStore();
+        Map<Long, Long> aliases = new HashMap<>();
+        Map<String, Long> canonicalByHash = new HashMap<>();
+        // 在读取数据库之前开始记录在线写入，之后的写入都会在切换时补写
+        embeddingService.beginRebuild();
+        boolean swapped = false;
+        try {
+            if (checkpoint.getLastSegmentId() > 0) {
+                restoreProgress(checkpoint, rebuilt, aliases, canonicalByHash);
+            }
+
+            long startNanos = System.nanoTime();
+            long pacedSegments = 0;
+            while (true) {
+                if (Thread.currentThread().isInterrupted()) {
+                    logger.info("重新索引任务 " + checkpoint.getId() + " 被中断，下次启动时从片段ID "
+                            + checkpoint.getLastSegmentId() + " 之后继续");
+                    return;
+                }
+                List<SegmentContent> page = segmentRepository.findContentAfter(
+                        checkpoint.getLastSegmentId(), PageRequest.of(0, pageSize));
+                if (page.isEmpty()) {
+                    break;
+                }
+                reindexPage(page, model, rebuilt, aliases, canonicalByHash, checkpoint);
+                checkpoint.setLastSegmentId(page.get(page.size() - 1).getId());
+                checkpoint.setUpdatedAt(LocalDateTime.now());
+                checkpoint = save(checkpoint);
+
+                pacedSegments += page.size();
+                throttle(startNanos, pacedSegments);
+            }
+
+            embeddingService.swapInRebuiltIndex(rebuilt, aliases);
+            swapped = true;
+            checkpoint = catchUp(checkpoint);
+
+            checkpoint.setStatus(ReindexCheckpoint.COMPLETED);
+            checkpoint.setFinishedAt(LocalDateTime.now());
+            checkpoint.setUpdatedAt(checkpoint.getFinishedAt());
+            checkpoint.setMessage("完成：" + checkpoint.getProcessedSegments() + " 个片段，失败 "
+                    + checkpoint.getFailedSegments() + " 个，重复 " + checkpoint.getDuplicateSegments() + " 个");
+            save(checkpoint);
+            logger.info("重新索引任务 " + checkpoint.getId() + " " + checkpoint.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.info("重新索引任务 " + checkpoint.getId() + " 被中断，下次启动时继续");
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                logger.info("重新索引任务 " + checkpoint.getId() + " 被中断，下次启动时继续");
+                return;
+            }
+            logger.severe("重新索引任务 " + checkpoint.getId() + " 失败: " + e.getMessage());
+            e.printStackTrace();
+            checkpoint.setStatus(ReindexCheckpoint.FAILED);
+            checkpoint.setMessage(e.getMessage());
+            checkpoint.setFinishedAt(LocalDateTime.now());
+            save(checkpoint);
+        } finally {
+            if (!swapped) {
+                embeddingService.abandonRebuild();
+            }
+        }
+    }
+
+    /**
+     * 重新索引一页片段：每个新内容只嵌入一次，重复内容共用已有向量
+     */
+    private void reindexPage(List<SegmentContent> page, String model, FlatVectorStore rebuilt,
+                             Map<Long, Long> aliases, Map<String, Long> canonicalByHash,
+                             ReindexCheckpoint checkpoint) {
+        List<Long> embedIds = new ArrayList<>();
+        List<String> embedTexts = new ArrayList<>();
+        List<String> embedHashes = new ArrayList<>();
+        List<Long> duplicateIds = new ArrayList<>();
+        List<String> duplicateHashes = new ArrayList<>();
+        Set<String> pageHashes = new HashSet<>();
+        for (SegmentContent segment : page) {
+            String content = segment.getContent() == null ? "" : segment.getContent();
+            String hash = TextUtils.contentHash(content);
+            if (canonicalByHash.containsKey(hash) || !pageHashes.add(hash)) {
+                duplicateIds.add(segment.getId());
+                duplicateHashes.add(hash);
+            } else {
+                embedIds.add(segment.getId());
+                embedTexts.add(content);
+                embedHashes.add(hash);
+            }
+        }
+
+        List<float[]> vectors = embeddingService.embedAll(embedTexts);
+        List<Long> vectorIds = new ArrayList<>(embedIds.size());
+        List<float[]> vectorValues = new ArrayList<>(embedIds.size());
+        List<Object[]> hashRows = new ArrayList<>(page.size());
+        long failed = 0;
+        for (int i = 0; i < embedIds.size(); i++) {
+            float[] vector = vectors.get(i);
+            int ordinal;
+            try {
+                ordinal = rebuilt.add(embedIds.get(i), vector);
+            } catch (IllegalArgumentException e) {
+                ordinal = -1;
+            }
+            if (ordinal < 0) {
+                // 嵌入失败返回零向量，或维度与其它向量不一致
+                failed++;
+                continue;
+            }
+            canonicalByHash.put(embedHashes.get(i), embedIds.get(i));
+            vectorIds.add(embedIds.get(i));
+            vectorValues.add(vector);
+            hashRows.add(new Object[]{embedHashes.get(i), embedIds.get(i)});
+        }
+
+        List<Long> aliasIds = new ArrayList<>(duplicateIds.size());
+        for (int i = 0; i < duplicateIds.size(); i++) {
+            Long canonicalId = canonicalByHash.get(duplicateHashes.get(i));
+            if (canonicalId == null) {
+                failed++;
+                continue;
+            }
+            aliases.put(duplicateIds.get(i), canonicalId);
+            aliasIds.add(duplicateIds.get(i));
+            hashRows.add(new Object[]{duplicateHashes.get(i), duplicateIds.get(i)});
+        }
+
+        // 新向量覆盖旧模型的向量；重复片段删除自己的向量，共用持有相同内容向量的片段
+        segmentVectorWriter.upsert(vectorIds, vectorValues, model);
+        segmentVectorWriter.delete(aliasIds);
+        if (!hashRows.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE_HASH_SQL, hashRows);
+        }
+        checkpoint.setProcessedSegments(checkpoint.getProcessedSegments() + page.size());
+        checkpoint.setFailedSegments(checkpoint.getFailedSegments() + failed);
+        checkpoint.setDuplicateSegments(checkpoint.getDuplicateSegments() + aliasIds.size());
+    }
+
+    /**
+     * 从数据库恢复检查点之前已写入的新向量和重复片段映射（只读数据库，不重新嵌入）
+     */
+    private void restoreProgress(ReindexCheckpoint checkpoint, FlatVectorStore rebuilt,
+                                 Map<Long, Long> aliases, Map<String, Long> canonicalByHash) {
+        long start = System.currentTimeMillis();
+        jdbcTemplate.query(
+                "select s.id, s.content_hash, v.vector from segments s join segment_vectors v on v.segment_id = s.id "
+                        + "where s.id <= ? and v.vector_model = ? order by s.id",
+                (RowCallbackHandler) rs -> {
+                    long id = rs.getLong(1);
+                    String hash = rs.getString(2);
+                    try {
+                        if (rebuilt.add(id, EmbeddingService.deserializeVector(rs.getBytes(3))) >= 0 && hash != null) {
+                            canonicalByHash.putIfAbsent(hash, id);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        logger.warning("片段 " + id + " 的向量维度不一致，跳过: " + e.getMessage());
+                    }
+                },
+                checkpoint.getLastSegmentId(), checkpoint.getModelId());
+        jdbcTemplate.query(
+                "select s.id, s.content_hash from segments s where s.id <= ? and s.content_hash is not null "
+                        + "and not exists (select 1 from segment_vectors v where v.segment_id = s.id)",
+                (RowCallbackHandler) rs -> {
+                    Long canonicalId = canonicalByHash.get(rs.getString(2));
+                    if (canonicalId != null) {
+                        aliases.put(rs.getLong(1), canonicalId);
+                    }
+                },
+                checkpoint.getLastSegmentId());
+        logger.info("恢复重新索引进度：" + rebuilt.size() + " 个向量，" + aliases.size() + " 个重复片段，耗时 "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 切换索引后补上最后一页之后新导入的片段（直接写入在线索引）。
+     * 这些片段已在库中且可能跨多个文档，不经过按文档解析的导入流水线；
+     * 导入时已在线写入的片段在切换时已补写，这里会直接跳过，只嵌入仍缺少向量的片段。
+     */
+    private ReindexCheckpoint catchUp(ReindexCheckpoint checkpoint) {
+        while (true) {
+            List<SegmentContent> page = segmentRepository.findContentAfter(
+                    checkpoint.getLastSegmentId(), PageRequest.of(0, pageSize));
+            if (page.isEmpty()) {
+                return checkpoint;
+            }
+            List<EmbeddingService.ChunkFailure> failures = embeddingService.indexSegments(
+                    page.stream().map(SegmentContent::getId).collect(Collectors.toList()),
+                    page.stream().map(SegmentContent::getContent).collect(Collectors.toList()));
+            checkpoint.setLastSegmentId(page.get(page.size() - 1).getId());
+            checkpoint.setProcessedSegments(checkpoint.getProcessedSegments() + page.size());
+            checkpoint.setFailedSegments(checkpoint.getFailedSegments() + failures.size());
+            checkpoint.setUpdatedAt(LocalDateTime.now());
+            checkpoint = save(checkpoint);
+        }
+    }
+
+    /**
+     * 按配置的速率限速：已处理的片段数超出 已用时间 × 速率 时休眠
+     */
+    private void throttle(long startNanos, long segments) throws InterruptedException {
+        if (maxSegmentsPerSecond <= 0) {
+            return;
+        }
+        long expectedNanos = (long) (segments / maxSegmentsPerSecond * 1_000_000_000L);
+        long aheadNanos = expectedNanos - (System.nanoTime() - startNanos);
+        if (aheadNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(aheadNanos);
+        }
+    }
+
+    private ReindexCheckpoint save(ReindexCheckpoint checkpoint) {
+        ReindexCheckpoint saved = checkpointRepository.save(checkpoint);
+        current = saved;
+        return saved;
+    }
+}
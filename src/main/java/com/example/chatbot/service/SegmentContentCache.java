@@ -0,0 +1,220 @@
+package com.example.chatbot.service;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 片段内容缓存：片段ID -> 文本，总大小按字节估算，超出上限时淘汰访问次数最少的条目（次数相同时淘汰最早进入的）。
+ *
+ * 访问次数定期减半，过去很热、现在不再被检索的片段最终也会被淘汰；
+ * 批量导入的新片段只有一次访问，不会挤掉反复被检索到的热点片段。
+ */
+public class SegmentContentCache {
+
+    // 每个条目除文本外的固定开销估计（HashMap 节点、条目对象、String 对象头和频次桶中的引用）
+    static final int ENTRY_OVERHEAD_BYTES = 128;
+    // 访问次数累计达到条目数的这么多倍时，全部访问次数减半
+    private static final int AGING_FACTOR = 8;
+    private static final int MIN_AGING_INTERVAL = 1024;
+
+    private final long maxBytes;
+    private final Map<Long, Entry> entries = new HashMap<>();
+    // 访问次数 -> 该次数的片段ID（按进入该次数的先后顺序）
+    private final TreeMap<Integer, LinkedHashSet<Long>> byFrequency = new TreeMap<>();
+    private long usedBytes;
+    private long accessesSinceAging;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static final class Entry {
+        String content;
+        long bytes;
+        int frequency;
+    }
+
+    public SegmentContentCache(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * 批量查询，命中的条目访问次数加一
+     * @return 片段ID -> 内容，只包含命中的片段
+     */
+    public synchronized Map<Long, String> getAll(Collection<Long> ids) {
+        Map<Long, String> found = new HashMap<>();
+        for (Long id : ids) {
+            Entry entry = entries.get(id);
+            if (entry == null) {
+                misses.incrementAndGet();
+                continue;
+            }
+            hits.incrementAndGet();
+            touch(id, entry);
+            found.put(id, entry.content);
+        }
+        return found;
+    }
+
+    /**
+     * 写入片段的最新内容，覆盖旧内容（片段内容更新时调用），必要时淘汰其它条目
+     */
+    public synchronized void put(Long id, String content) {
+        store(id, content, true);
+    }
+
+    /**
+     * 只在片段不在缓存中时写入（从数据库读出后回填，不覆盖期间已写入的新内容）
+     */
+    public synchronized void putIfAbsent(Long id, String content) {
+        if (!entries.containsKey(id)) {
+            store(id, content, true);
+        }
+    }
+
+    /**
+     * 预热：缓存还有空间时写入，不淘汰已有条目
+     * @return 缓存已满时返回 false
+     */
+    public synchronized boolean offer(Long id, String content) {
+        if (!entries.containsKey(id) && usedBytes + sizeOf(content) <= maxBytes) {
+            store(id, content, false);
+        }
+        return usedBytes + ENTRY_OVERHEAD_BYTES < maxBytes;
+    }
+
+    public synchronized void invalidate(Long id) {
+        Entry entry = entries.remove(id);
+        if (entry != null) {
+            unlink(id, entry.frequency);
+            usedBytes -= entry.bytes;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        byFrequency.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * 缓存统计：命中、未命中、淘汰次数，当前条目数、估算字节数和命中率
+     */
+    public Map<String, Object> stats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("evictions", evictions.get());
+        synchronized (this) {
+            stats.put("size", entries.size());
+            stats.put("usedBytes", usedBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        return stats;
+    }
+
+    private void store(Long id, String content, boolean evict) {
+        if (content == null) {
+            invalidate(id);
+            return;
+        }
+        long bytes = sizeOf(content);
+        Entry entry = entries.get(id);
+        if (entry != null) {
+            usedBytes += bytes - entry.bytes;
+            entry.content = content;
+            entry.bytes = bytes;
+        } else {
+            if (bytes > maxBytes) {
+                return;
+            }
+            entry = new Entry();
+            entry.content = content;
+            entry.bytes = bytes;
+            entry.frequency = 1;
+            entries.put(id, entry);
+            byFrequency.computeIfAbsent(1, f -> new LinkedHashSet<>()).add(id);
+            usedBytes += bytes;
+        }
+        if (evict) {
+            evictExcept(id);
+        }
+        if (usedBytes > maxBytes) {
+            // 覆盖后的内容本身超过上限
+            invalidate(id);
+        }
+    }
+
+    /**
+     * 按访问次数从少到多淘汰，直到不超过上限；刚写入的条目不参与淘汰
+     */
+    private void evictExcept(Long keep) {
+        Iterator<Map.Entry<Integer, LinkedHashSet<Long>>> buckets = byFrequency.entrySet().iterator();
+        while (usedBytes > maxBytes && buckets.hasNext()) {
+            LinkedHashSet<Long> bucket = buckets.next().getValue();
+            Iterator<Long> ids = bucket.iterator();
+            while (usedBytes > maxBytes && ids.hasNext()) {
+                Long id = ids.next();
+                if (id.equals(keep)) {
+                    continue;
+                }
+                ids.remove();
+                usedBytes -= entries.remove(id).bytes;
+                evictions.incrementAndGet();
+            }
+            if (bucket.isEmpty()) {
+                buckets.remove();
+            }
+        }
+    }
+
+    private void touch(Long id, Entry entry) {
+        unlink(id, entry.frequency);
+        if (entry.frequency < Integer.MAX_VALUE) {
+            entry.frequency++;
+        }
+        byFrequency.computeIfAbsent(entry.frequency, f -> new LinkedHashSet<>()).add(id);
+        if (++accessesSinceAging >= Math.max(MIN_AGING_INTERVAL, (long) entries.size() * AGING_FACTOR)) {
+            age();
+        }
+    }
+
+    private void unlink(Long id, int frequency) {
+        LinkedHashSet<Long> bucket = byFrequency.get(frequency);
+        if (bucket != null) {
+            bucket.remove(id);
+            if (bucket.isEmpty()) {
+                byFrequency.remove(frequency);
+            }
+        }
+    }
+
+    /**
+     * 全部访问次数减半（至少为 1），保持同一次数内的先后顺序
+     */
+    private void age() {
+        accessesSinceAging = 0;
+        TreeMap<Integer, LinkedHashSet<Long>> aged = new TreeMap<>();
+        for (Map.Entry<Integer, LinkedHashSet<Long>> bucket : byFrequency.entrySet()) {
+            int frequency = Math.max(1, bucket.getKey() / 2);
+            LinkedHashSet<Long> target = aged.computeIfAbsent(frequency, f -> new LinkedHashSet<>());
+            for (Long id : bucket.getValue()) {
+                entries.get(id).frequency = frequency;
+                target.add(id);
+            }
+        }
+        byFrequency.clear();
+        byFrequency.putAll(aged);
+    }
+
+    /**
+     * 估算条目占用的字节数：按每个字符 2 字节计（中文文本的实际占用），加上固定开销
+     */
+    private static long sizeOf(String content) {
+        return 2L * content.length() + ENTRY_OVERHEAD_BYTES;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.chatbot.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 用 JDBC 批量写入 segment_vectors：片段ID由调用方给定，插入或覆盖都是一条语句，
+ * 不需要像 JPA merge 那样先按主键查询一次。在外层事务中调用时加入该事务。
+ */
+@Component
+public class SegmentVectorWriter {
+
+    // 用行别名引用待插入的值（MySQL 8.0.19+，取代已弃用的 values(列)）
+    private static final String UPSERT_SQL =
+            "insert into segment_vectors (segment_id, vector, vector_model) values (?, ?, ?) as new "
+                    + "on duplicate key update vector = new.vector, vector_model = new.vector_model";
+    private static final String DELETE_SQL = "delete from segment_vectors where segment_id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * 写入（或覆盖）一批片段的向量
+     * @param segmentIds 片段ID，与 vectors 一一对应
+     * @param model 嵌入模式与模型
+     */
+    public void upsert(List<Long> segmentIds, List<float[]> vectors, String model) {
+        if (segmentIds.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(segmentIds.size());
+        for (int i = 0; i < segmentIds.size(); i++) {
+            rows.add(new Object[]{segmentIds.get(i), EmbeddingService.serializeVector(vectors.get(i)), model});
+        }
+        jdbcTemplate.batchUpdate(UPSERT_SQL, rows);
+    }
+
+    /**
+     * 删除这些片段的向量（片段改为共用其它片段的向量，或内容已变化）
+     */
+    public void delete(Collection<Long> segmentIds) {
+        if (segmentIds.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(segmentIds.size());
+        for (Long id : segmentIds) {
+            rows.add(new Object[]{id});
+        }
+        jdbcTemplate.batchUpdate(DELETE_SQL, rows);
+    }
+}
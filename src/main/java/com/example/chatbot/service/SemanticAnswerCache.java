@@ -0,0 +1,188 @@
+package com.example.chatbot.service;
+
+import com.example.chatbot.index.VectorOps;
+import com.example.chatbot.service.IntentRecognitionService.Intent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语义回答缓存：以问题向量为键，新问题与某个已缓存问题的余弦相似度达到阈值时直接返回缓存的回答，
+ * 以及生成该回答时识别出的意图，命中时可以跳过意图识别。
+ *
+ * 知识库版本（单调递增）变化后全部条目失效；每个条目记录检索范围（例如只检索某个用户文档时的用户ID），
+ * 只有范围相同的条目才会命中（范围中同时包含聊天模式，不同模型生成的回答互不共享）。
+ * 条目数有上限，超出时淘汰最久未命中的条目。查找是对全部条目的线性点积扫描，条目数在千级时开销远小于一次嵌入调用。
+ */
+public class SemanticAnswerCache {
+
+    private final int maxSize;
+    private final float similarityThreshold;
+    private final long ttlMillis;
+
+    // 由自身加锁保护
+    private final List<Entry> entries = new ArrayList<>();
+    private long knowledgeVersion = Long.MIN_VALUE;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * 命中的缓存条目：回答文本和生成该回答时识别出的意图
+     */
+    public record Hit(String answer, Intent intent) {
+    }
+
+    /**
+     * @param similarityThreshold 命中所需的最低余弦相似度
+     * @param ttlMillis 条目的最长存活时间，0 表示不过期
+     */
+    public SemanticAnswerCache(int maxSize, float similarityThreshold, long ttlMillis) {
+        this.maxSize = Math.max(1, maxSize);
+        this.similarityThreshold = similarityThreshold;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * 查找语义相近的已缓存问题
+     * @param questionVector 问题向量（无需预先归一化）
+     * @param scope 检索范围标识，可为 null
+     * @param currentVersion 当前知识库版本
+     * @return 缓存的回答和意图，未命中返回 null
+     */
+    public Hit lookup(float[] questionVector, String scope, long currentVersion) {
+        float[] query = VectorOps.normalize(questionVector);
+        if (query == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            invalidateIfStale(currentVersion);
+            Entry best = null;
+            float bestScore = similarityThreshold;
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                Entry e = entries.get(i);
+                if (ttlMillis > 0 && now - e.createdAt > ttlMillis) {
+                    entries.remove(i);
+                    continue;
+                }
+                if (e.vector.length != query.length || !Objects.equals(e.scope, scope)) {
+                    continue;
+                }
+                float score = VectorOps.dot(query, e.vector);
+                if (score >= bestScore) {
+                    best = e;
+                    bestScore = score;
+                }
+            }
+            if (best == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            best.lastHit = now;
+            hits.incrementAndGet();
+            return new Hit(best.answer, best.intent);
+        }
+    }
+
+    /**
+     * 写入一个问题的回答；已有语义相同的条目时覆盖它
+     * @param version 生成回答之前读取的知识库版本，早于当前版本时回答可能已过时，不写入
+     * @param intent 生成回答时识别出的意图
+     */
+    public void put(float[] questionVector, String scope, long version, String answer, Intent intent) {
+        float[] vector = VectorOps.normalize(questionVector);
+        if (vector == null || answer == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            invalidateIfStale(version);
+            if (version < knowledgeVersion) {
+                // 回答生成期间知识库已经变化，丢弃
+                return;
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = entries.get(i);
+                if (e.vector.length == vector.length && Objects.equals(e.scope, scope)
+                        && VectorOps.dot(vector, e.vector) >= similarityThreshold) {
+                    entries.set(i, new Entry(vector, scope, answer, intent, now));
+                    return;
+                }
+            }
+            if (entries.size() >= maxSize) {
+                int eldest = 0;
+                for (int i = 1; i < entries.size(); i++) {
+                    if (entries.get(i).lastHit < entries.get(eldest).lastHit) {
+                        eldest = i;
+                    }
+                }
+                entries.remove(eldest);
+            }
+            entries.add(new Entry(vector, scope, answer, intent, now));
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * 命中统计：命中、未命中、因知识库变化失效的次数、当前条目数和命中率
+     */
+    public Map<String, Object> stats() {
+        long h = hits.get();
+        long m = misses.get();
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("invalidations", invalidations.get());
+        stats.put("size", size);
+        stats.put("maxSize", maxSize);
+        stats.put("similarityThreshold", similarityThreshold);
+        stats.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        return stats;
+    }
+
+    /**
+     * 知识库版本前进时清空全部条目（调用方持有锁）
+     */
+    private void invalidateIfStale(long currentVersion) {
+        if (currentVersion > knowledgeVersion) {
+            if (!entries.isEmpty()) {
+                entries.clear();
+                invalidations.incrementAndGet();
+            }
+            knowledgeVersion = currentVersion;
+        }
+    }
+
+    private static final class Entry {
+        final float[] vector;
+        final String scope;
+        final String answer;
+        final Intent intent;
+        final long createdAt;
+        long lastHit;
+
+        Entry(float[] vector, String scope, String answer, Intent intent, long createdAt) {
+            this.vector = vector;
+            this.scope = scope;
+            this.answer = answer;
+            this.intent = intent;
+            this.createdAt = createdAt;
+            this.lastHit = createdAt;
+        }
+    }
+}
@@ -1,44 +1,48 @@
 package com.example.chatbot.util;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
-import org.apache.poi.xwpf.usermodel.XWPFDocument;
-import org.apache.poi.xwpf.usermodel.XWPFParagraph;
-import org.springframework.web.multipart.MultipartFile;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
- * 文档解析工具：将 txt/pdf/docx 转为纯文本
+ * 文档解析工具：将 txt/pdf/docx 转为纯文本。
+ *
+ * {@link #open(File)} 逐块读取文本（txt 按缓冲区、pdf 按页区间、docx 按段落），
+ * 内存占用与文档大小无关；parseXxx 方法读取全文，只适合小文件。
  */
 public class DocumentParser {
 
+    // txt 每块读取的字符数
+    private static final int TXT_BLOCK_CHARS = 64 * 1024;
+    // pdf 每块提取的页数
+    private static final int PDF_PAGES_PER_BLOCK = 8;
+
+    private static final String WORD_NAMESPACE = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
     /** 读取 txt 文件内容 */
     public static String parseTxt(File file) throws IOException {
-        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+        return readAll(openTxt(file));
     }
 
     /** 读取 PDF 文件内容 */
     public static String parsePdf(File file) throws IOException {
-        try (PDDocument pdf = PDDocument.load(file)) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            return stripper.getText(pdf);
-        }
+        return readAll(openPdf(file, PDF_PAGES_PER_BLOCK));
     }
 
     /** 读取 DOCX 文件内容 */
     public static String parseDocx(File file) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file);
-             XWPFDocument doc = new XWPFDocument(fis)) {
-            StringBuilder sb = new StringBuilder();
-            for (XWPFParagraph p : doc.getParagraphs()) {
-                sb.append(p.getText()).append("\n");
-            }
-            return sb.toString();
-        }
+        return readAll(openDocx(file));
     }
 
     /**
@@ -46,15 +50,169 @@ public class DocumentParser {
      * @param file 本地 File 对象
      */
     public static String parseToText(File file) throws IOException {
+        return readAll(open(file));
+    }
+
+    /**
+     * 根据文件后缀打开逐块读取的文本流
+     * @param file 本地 File 对象
+     */
+    public static TextBlockReader open(File file) throws IOException {
         String name = file.getName().toLowerCase();
         if (name.endsWith(".txt")) {
-            return parseTxt(file);
+            return openTxt(file);
         } else if (name.endsWith(".pdf")) {
-            return parsePdf(file);
+            return openPdf(file, PDF_PAGES_PER_BLOCK);
         } else if (name.endsWith(".docx")) {
-            return parseDocx(file);
+            return openDocx(file);
         } else {
             throw new UnsupportedOperationException("不支持的文件格式：" + name);
         }
     }
+
+    /**
+     * 按 UTF-8 解码逐块读取 txt，非法字节替换为 U+FFFD（与 new String(bytes, UTF-8) 一致）
+     */
+    public static TextBlockReader openTxt(File file) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file.toPath()),
+                StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE)), TXT_BLOCK_CHARS);
+        char[] buffer = new char[TXT_BLOCK_CHARS];
+        return new TextBlockReader() {
+            @Override
+            public String nextBlock() throws IOException {
+                int n = reader.read(buffer, 0, buffer.length);
+                return n < 0 ? null : new String(buffer, 0, n);
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * 按页区间逐块提取 PDF 文本。文档结构缓存在临时文件中而不是堆内存里
+     * @param pagesPerBlock 每块提取的页数
+     */
+    public static TextBlockReader openPdf(File file, int pagesPerBlock) throws IOException {
+        PDDocument pdf = PDDocument.load(file, MemoryUsageSetting.setupTempFileOnly());
+        int pageCount = pdf.getNumberOfPages();
+        int step = Math.max(1, pagesPerBlock);
+        PDFTextStripper stripper;
+        try {
+            stripper = new PDFTextStripper();
+        } catch (IOException | RuntimeException e) {
+            pdf.close();
+            throw e;
+        }
+        return new TextBlockReader() {
+            // 下一块的起始页（从 1 开始）
+            private int nextPage = 1;
+
+            @Override
+            public String nextBlock() throws IOException {
+                if (nextPage > pageCount) {
+                    return null;
+                }
+                stripper.setStartPage(nextPage);
+                stripper.setEndPage(Math.min(pageCount, nextPage + step - 1));
+                nextPage += step;
+                return stripper.getText(pdf);
+            }
+
+            @Override
+            public void close() throws IOException {
+                pdf.close();
+            }
+        };
+    }
+
+    /**
+     * 用 StAX 流式读取 DOCX 正文（word/document.xml），每个段落一块，段落末尾带换行
+     */
+    public static TextBlockReader openDocx(File file) throws IOException {
+        ZipFile zip = new ZipFile(file);
+        XMLStreamReader xml;
+        try {
+            ZipEntry entry = zip.getEntry("word/document.xml");
+            if (entry == null) {
+                throw new IOException("不是有效的 DOCX 文件：缺少 word/document.xml");
+            }
+            XMLInputFactory factory = XMLInputFactory.newFactory();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            xml = factory.createXMLStreamReader(new BufferedInputStream(zip.getInputStream(entry)));
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        } catch (XMLStreamException e) {
+            zip.close();
+            throw new IOException("解析 DOCX 失败: " + e.getMessage(), e);
+        }
+        return new TextBlockReader() {
+            private final StringBuilder paragraph = new StringBuilder();
+            // 段落嵌套深度（文本框内的段落嵌在外层段落里，并入外层段落）
+            private int paragraphDepth;
+            private boolean inText;
+
+            @Override
+            public String nextBlock() throws IOException {
+                try {
+                    while (xml.hasNext()) {
+                        int event = xml.next();
+                        if (event == XMLStreamConstants.START_ELEMENT && WORD_NAMESPACE.equals(xml.getNamespaceURI())) {
+                            switch (xml.getLocalName()) {
+                                case "p" -> {
+                                    if (paragraphDepth++ == 0) {
+                                        paragraph.setLength(0);
+                                    }
+                                }
+                                case "t" -> inText = true;
+                                case "tab" -> paragraph.append('\t');
+                                case "br", "cr" -> paragraph.append('\n');
+                                default -> { }
+                            }
+                        } else if (event == XMLStreamConstants.END_ELEMENT && WORD_NAMESPACE.equals(xml.getNamespaceURI())) {
+                            if ("t".equals(xml.getLocalName())) {
+                                inText = false;
+                            } else if ("p".equals(xml.getLocalName()) && paragraphDepth > 0 && --paragraphDepth == 0) {
+                                return paragraph.append('\n').toString();
+                            }
+                        } else if (inText && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                                || event == XMLStreamConstants.SPACE)) {
+                            paragraph.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                        }
+                    }
+                    return null;
+                } catch (XMLStreamException e) {
+                    throw new IOException("解析 DOCX 失败: " + e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    xml.close();
+                } catch (XMLStreamException ignored) {
+                    // 关闭 zip 时会一并释放输入流
+                } finally {
+                    zip.close();
+                }
+            }
+        };
+    }
+
+    private static String readAll(TextBlockReader blocks) throws IOException {
+        try (blocks) {
+            StringBuilder sb = new StringBuilder();
+            String block;
+            while ((block = blocks.nextBlock()) != null) {
+                sb.append(block);
+            }
+            return sb.toString();
+        }
+    }
 }
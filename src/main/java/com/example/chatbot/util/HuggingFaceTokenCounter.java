@@ -0,0 +1,45 @@
+package com.example.chatbot.util;
+
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.ToIntFunction;
+
+/**
+ * 用 Hugging Face tokenizer 计算文本的 token 数（不含 [CLS]/[SEP] 等特殊 token，不截断），
+ * 供分段器按嵌入模型的上下文长度切分
+ */
+public class HuggingFaceTokenCounter implements ToIntFunction<String>, AutoCloseable {
+
+    private final HuggingFaceTokenizer tokenizer;
+
+    /**
+     * @param tokenizer 本地 tokenizer.json 文件或其所在目录，或 Hugging Face Hub 上的模型名
+     *                  （例如 sentence-transformers/all-MiniLM-L6-v2）
+     */
+    public HuggingFaceTokenCounter(String tokenizer) throws IOException {
+        Path path = Paths.get(tokenizer);
+        HuggingFaceTokenizer.Builder builder = HuggingFaceTokenizer.builder()
+                .optAddSpecialTokens(false)
+                .optTruncation(false);
+        if (Files.exists(path)) {
+            builder.optTokenizerPath(path);
+        } else {
+            builder.optTokenizerName(tokenizer);
+        }
+        this.tokenizer = builder.build();
+    }
+
+    @Override
+    public int applyAsInt(String text) {
+        return tokenizer.encode(text).getIds().length;
+    }
+
+    @Override
+    public void close() {
+        tokenizer.close();
+    }
+}
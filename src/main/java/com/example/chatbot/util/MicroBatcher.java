@@ -0,0 +1,174 @@
+package com.example.chatbot.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * 微批处理器：把并发到达的单条请求合并成批次，一次交给批处理函数。
+ *
+ * 工作线程取到一条请求后，最多再等待 maxWait 收集后续请求，凑满 maxBatchSize 或等待超时即处理这一批；
+ * 请求稀疏时单条请求最多多等 maxWait，请求密集时批次自然变大。
+ * 多个工作线程可以同时处理不同批次（例如每个线程对应一个推理实例）。
+ *
+ * @param <I> 单条请求的输入类型
+ * @param <O> 单条请求的输出类型，批处理函数的输出必须与输入一一对应
+ */
+public class MicroBatcher<I, O> implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(MicroBatcher.class.getName());
+
+    private final String name;
+    private final Function<List<I>, List<O>> batchFunction;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request<I, O>> queue;
+    private final Thread[] workers;
+    private volatile boolean closed;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    /**
+     * @param name 工作线程名前缀
+     * @param workerCount 同时处理批次的线程数
+     * @param queueCapacity 等待中的请求数上限，队列满时 submit 直接失败
+     * @param batchFunction 批处理函数，返回结果与输入按位置一一对应
+     */
+    public MicroBatcher(String name, int workerCount, int maxBatchSize, Duration maxWait, int queueCapacity,
+                        Function<List<I>, List<O>> batchFunction) {
+        this.name = name;
+        this.batchFunction = batchFunction;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxWaitNanos = Math.max(0, maxWait.toNanos());
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.workers = new Thread[Math.max(1, workerCount)];
+        for (int i = 0; i < workers.length; i++) {
+            Thread t = new Thread(this::runWorker, name + "-" + (i + 1));
+            t.setDaemon(true);
+            workers[i] = t;
+            t.start();
+        }
+    }
+
+    /**
+     * 提交一条请求
+     * @return 该请求所在批次处理完成后完成的 future；批处理函数抛出异常时以该异常失败
+     */
+    public CompletableFuture<O> submit(I input) {
+        Request<I, O> request = new Request<>(input);
+        if (closed) {
+            request.future.completeExceptionally(new RejectedExecutionException(name + " 已关闭"));
+        } else if (!queue.offer(request)) {
+            request.future.completeExceptionally(new RejectedExecutionException(name + " 等待队列已满"));
+        } else if (closed && queue.remove(request)) {
+            // 与 close 并发时，关闭后才入队的请求不会再被处理
+            request.future.completeExceptionally(new RejectedExecutionException(name + " 已关闭"));
+        }
+        return request.future;
+    }
+
+    /**
+     * 批处理统计：批次数、请求数、平均批大小、失败批次数、当前排队数
+     */
+    public Map<String, Object> stats() {
+        long b = batches.get();
+        long n = items.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("batches", b);
+        stats.put("items", n);
+        stats.put("averageBatchSize", b == 0 ? 0.0 : (double) n / b);
+        stats.put("failedBatches", failedBatches.get());
+        stats.put("queued", queue.size());
+        stats.put("maxBatchSize", maxBatchSize);
+        return stats;
+    }
+
+    /**
+     * 停止工作线程，尚未处理的请求以 CancellationException 失败
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        Request<I, O> request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(new CancellationException(name + " 已关闭"));
+        }
+    }
+
+    private void runWorker() {
+        List<Request<I, O>> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    Request<I, O> next = queue.poll();
+                    if (next == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0 || (next = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                            break;
+                        }
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                for (Request<I, O> request : batch) {
+                    request.future.completeExceptionally(new CancellationException(name + " 已关闭"));
+                }
+                return;
+            }
+            process(batch);
+            batch.clear();
+        }
+    }
+
+    private void process(List<Request<I, O>> batch) {
+        List<I> inputs = new ArrayList<>(batch.size());
+        for (Request<I, O> request : batch) {
+            inputs.add(request.input);
+        }
+        batches.incrementAndGet();
+        items.addAndGet(batch.size());
+        try {
+            List<O> outputs = batchFunction.apply(inputs);
+            if (outputs == null || outputs.size() != inputs.size()) {
+                throw new IllegalStateException("批处理返回 " + (outputs == null ? 0 : outputs.size())
+                        + " 个结果，输入为 " + inputs.size() + " 个");
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(outputs.get(i));
+            }
+        } catch (Throwable e) {
+            failedBatches.incrementAndGet();
+            logger.warning(name + " 批处理失败（" + batch.size() + " 条请求）: " + e.getMessage());
+            for (Request<I, O> request : batch) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class Request<I, O> {
+        final I input;
+        final CompletableFuture<O> future = new CompletableFuture<>();
+
+        Request(I input) {
+            this.input = input;
+        }
+    }
+}
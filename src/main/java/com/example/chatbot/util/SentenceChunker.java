@@ -0,0 +1,303 @@
+package com.example.chatbot.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.ToIntFunction;
+
+/**
+ * 按句子切分的流式分段器：边读边切，每次 next 返回一个片段，任何时候只缓存当前片段附近的文本。
+ *
+ * 在中英文句末标点（。！？；!?; 以及后跟空白的 .）和换行处断句，尽量把整句放进同一个片段，
+ * 片段长度（字符数，或由 measure 给出的 token 数）不超过 maxLength；相邻片段重叠末尾不超过 overlap 的若干整句。
+ * 没有标点的超长文本在 maxSentenceChars 处（优先在逗号、空白处）强制断开，
+ * 单句超过 maxLength 时再对半拆分，保证片段不超出嵌入模型的上下文长度。
+ */
+public class SentenceChunker implements Iterator<String> {
+
+    private static final String SENTENCE_ENDS = "。！？；!?;…";
+    private static final String CLOSING_MARKS = "”’\"'）)】]」』》";
+    private static final String SOFT_BREAKS = "，,、：: \t";
+
+    private final Reader reader;
+    private final int maxLength;
+    private final int overlap;
+    private final ToIntFunction<String> measure;
+    private final int maxSentenceChars;
+
+    private final char[] buffer = new char[8192];
+    private int bufferPos;
+    private int bufferEnd;
+    private boolean eof;
+    // 强制断开的超长句子剩下的部分
+    private final StringBuilder carry = new StringBuilder();
+
+    // 已读出、尚未放入片段的句子
+    private final Deque<Sentence> pending = new ArrayDeque<>();
+    // 上一个片段末尾要重复到下一个片段开头的句子
+    private List<Sentence> overlapTail = List.of();
+    private String next;
+
+    /**
+     * 按字符数切分
+     * @param maxChars 每个片段最多字符数
+     * @param overlapChars 相邻片段最多重叠的字符数
+     */
+    public SentenceChunker(Reader reader, int maxChars, int overlapChars) {
+        this(reader, maxChars, overlapChars, String::length, maxChars);
+    }
+
+    /**
+     * @param reader 文本来源，由调用方关闭
+     * @param maxLength 每个片段的最大长度（measure 的单位）
+     * @param overlap 相邻片段最多重叠的长度（measure 的单位），0 表示不重叠
+     * @param measure 文本长度的计算方式，例如字符数或 token 数；对句子依次求和作为片段长度
+     * @param maxSentenceChars 单句最多字符数，超过时强制断开
+     */
+    public SentenceChunker(Reader reader, int maxLength, int overlap, ToIntFunction<String> measure,
+                           int maxSentenceChars) {
+        this.reader = reader;
+        this.maxLength = Math.max(1, maxLength);
+        this.overlap = Math.max(0, Math.min(overlap, this.maxLength / 2));
+        this.measure = measure;
+        this.maxSentenceChars = Math.max(2, maxSentenceChars);
+    }
+
+    /**
+     * 按字符数切分一段内存中的文本
+     */
+    public static SentenceChunker of(CharSequence text, int maxChars, int overlapChars) {
+        return new SentenceChunker(new Reader() {
+            private int position;
+
+            @Override
+            public int read(char[] cbuf, int off, int len) {
+                if (position >= text.length()) {
+                    return -1;
+                }
+                int n = Math.min(len, text.length() - position);
+                for (int i = 0; i < n; i++) {
+                    cbuf[off + i] = text.charAt(position++);
+                }
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        }, maxChars, overlapChars);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = nextChunk();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String chunk = next;
+        next = null;
+        return chunk;
+    }
+
+    /**
+     * 组装下一个片段：以上一片段的重叠句子开头，依次加入句子直到再加一句就超长
+     */
+    private String nextChunk() throws IOException {
+        List<Sentence> chunk = new ArrayList<>(overlapTail);
+        int length = 0;
+        for (Sentence s : chunk) {
+            length += s.length;
+        }
+        // 是否已加入新的非空白句子；只有重叠句子和空白的片段不输出
+        boolean hasNew = false;
+        while (true) {
+            Sentence sentence = nextSentence();
+            if (sentence == null) {
+                break;
+            }
+            if (length + sentence.length > maxLength) {
+                if (hasNew) {
+                    pending.addFirst(sentence);
+                    break;
+                }
+                // 重叠部分加上这一句超长时，减少重叠
+                while (!chunk.isEmpty() && length + sentence.length > maxLength) {
+                    length -= chunk.remove(0).length;
+                }
+            }
+            chunk.add(sentence);
+            length += sentence.length;
+            hasNew |= !sentence.text.isBlank();
+        }
+        if (!hasNew) {
+            return null;
+        }
+        overlapTail = tailWithin(chunk, overlap);
+
+        StringBuilder sb = new StringBuilder();
+        for (Sentence s : chunk) {
+            sb.append(s.text);
+        }
+        return sb.toString().strip();
+    }
+
+    /**
+     * 片段末尾总长度不超过 limit 的若干整句
+     */
+    private static List<Sentence> tailWithin(List<Sentence> chunk, int limit) {
+        int length = 0;
+        int from = chunk.size();
+        while (from > 1 && length + chunk.get(from - 1).length <= limit) {
+            length += chunk.get(--from).length;
+        }
+        return from == chunk.size() ? List.of() : new ArrayList<>(chunk.subList(from, chunk.size()));
+    }
+
+    /**
+     * 下一个不超过 maxLength 的句子
+     */
+    private Sentence nextSentence() throws IOException {
+        if (!pending.isEmpty()) {
+            return pending.poll();
+        }
+        String text = readSentence();
+        if (text == null) {
+            return null;
+        }
+        int length = measure.applyAsInt(text);
+        if (length <= maxLength || text.length() < 2) {
+            return new Sentence(text, length);
+        }
+        // 单句超长：对半拆分直到每段都不超长
+        split(text, length);
+        return pending.poll();
+    }
+
+    private void split(String text, int length) {
+        if (length <= maxLength || text.length() < 2) {
+            pending.add(new Sentence(text, length));
+            return;
+        }
+        int mid = splitPoint(text);
+        String left = text.substring(0, mid);
+        String right = text.substring(mid);
+        split(left, measure.applyAsInt(left));
+        split(right, measure.applyAsInt(right));
+    }
+
+    /**
+     * 离中点最近的逗号或空白之后的位置，没有时取中点（不拆开代理对）
+     */
+    private static int splitPoint(String text) {
+        int mid = text.length() / 2;
+        for (int d = 0; d < mid; d++) {
+            if (SOFT_BREAKS.indexOf(text.charAt(mid - 1 - d)) >= 0) {
+                return mid - d;
+            }
+            if (mid + d < text.length() - 1 && SOFT_BREAKS.indexOf(text.charAt(mid + d)) >= 0) {
+                return mid + d + 1;
+            }
+        }
+        return Character.isHighSurrogate(text.charAt(mid - 1)) ? mid - 1 : mid;
+    }
+
+    /**
+     * 读出下一个句子（含句末标点、其后的引号括号和空白）
+     * @return 已读完时返回 null
+     */
+    private String readSentence() throws IOException {
+        StringBuilder sb = new StringBuilder(carry);
+        carry.setLength(0);
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                return sb.length() == 0 ? null : sb.toString();
+            }
+            sb.append((char) c);
+            boolean end = c == '\n' || SENTENCE_ENDS.indexOf(c) >= 0;
+            if (c == '.') {
+                int following = peek();
+                end = following < 0 || Character.isWhitespace(following);
+            }
+            if (end) {
+                int following;
+                while ((following = peek()) >= 0
+                        && (CLOSING_MARKS.indexOf(following) >= 0 || following == ' ' || following == '\t')) {
+                    sb.append((char) read());
+                }
+                return sb.toString();
+            }
+            if (sb.length() >= maxSentenceChars) {
+                return forceBreak(sb);
+            }
+        }
+    }
+
+    /**
+     * 在后半段最后一个逗号或空白处断开超长句子，其余部分留给下一句
+     */
+    private String forceBreak(StringBuilder sb) {
+        int cut = sb.length();
+        for (int i = sb.length() - 1; i >= sb.length() / 2; i--) {
+            if (SOFT_BREAKS.indexOf(sb.charAt(i)) >= 0) {
+                cut = i + 1;
+                break;
+            }
+        }
+        if (cut == sb.length() && Character.isHighSurrogate(sb.charAt(cut - 1))) {
+            cut--;
+        }
+        carry.append(sb, cut, sb.length());
+        return sb.substring(0, cut);
+    }
+
+    private int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer[bufferPos++];
+    }
+
+    private int peek() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer[bufferPos];
+    }
+
+    private boolean fill() throws IOException {
+        while (bufferPos == bufferEnd) {
+            if (eof) {
+                return false;
+            }
+            int n = reader.read(buffer, 0, buffer.length);
+            if (n < 0) {
+                eof = true;
+                return false;
+            }
+            bufferPos = 0;
+            bufferEnd = n;
+        }
+        return true;
+    }
+
+    private record Sentence(String text, int length) {
+    }
+}
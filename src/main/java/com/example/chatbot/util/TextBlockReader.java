@@ -0,0 +1,53 @@
+package com.example.chatbot.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 逐块读取文档文本：每次返回一小段（若干页、一个段落或一个缓冲区的文本），
+ * 调用方可以边读边分段、嵌入，不必先把整个文档读成一个字符串。
+ */
+public interface TextBlockReader extends Closeable {
+
+    /**
+     * 读取下一块文本
+     * @return 下一块文本，已读完时返回 null
+     */
+    String nextBlock() throws IOException;
+
+    /**
+     * 把各块文本首尾相接，作为一个 Reader 读取；关闭该 Reader 即关闭本对象
+     */
+    default Reader asReader() {
+        TextBlockReader blocks = this;
+        return new Reader() {
+            private String current = "";
+            private int position;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                while (position == current.length()) {
+                    String next = blocks.nextBlock();
+                    if (next == null) {
+                        return -1;
+                    }
+                    current = next;
+                    position = 0;
+                }
+                int n = Math.min(length, current.length() - position);
+                current.getChars(position, position + n, buffer, offset);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                blocks.close();
+            }
+        };
+    }
+}
@@ -1,6 +1,12 @@
 package com.example.chatbot.util;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
 
 /**
@@ -22,4 +28,39 @@ public class TextUtils {
         }
         return chunks;
     }
+
+    /**
+     * 边读边按最大长度切分，切分结果与 {@link #chunkText(String, int)} 相同，但不需要先把全文读成一个字符串
+     * @param reader 文本来源，由调用方关闭
+     * @param chunkSize 每块最大字符数，例如 500
+     */
+    public static List<String> chunkText(Reader reader, int chunkSize) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        char[] buffer = new char[chunkSize];
+        int filled = 0;
+        int n;
+        while ((n = reader.read(buffer, filled, chunkSize - filled)) >= 0) {
+            filled += n;
+            if (filled == chunkSize) {
+                chunks.add(new String(buffer, 0, filled));
+                filled = 0;
+            }
+        }
+        if (filled > 0) {
+            chunks.add(new String(buffer, 0, filled));
+        }
+        return chunks;
+    }
+
+    /**
+     * 片段内容的 SHA-256 摘要（64 位十六进制），内容完全相同的片段摘要相同
+     */
+    public static String contentHash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("JDK 不支持 SHA-256", e);
+        }
+    }
 }
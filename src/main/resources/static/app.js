@@ -432,7 +432,7 @@ document.addEventListener('DOMContentLoaded', function() {
             .then(data => {
                 console.log('文件上传成功, 服务器响应:', data);
                 // 上传成功，更新状态显示
-                uploadStatus.textContent = '文件上传成功!';
+                uploadStatus.textContent = data.message || '文件上传成功!';
                 uploadStatus.style.color = 'green';
                 // 清空文件选择输入框
                 fileInput.value = '';
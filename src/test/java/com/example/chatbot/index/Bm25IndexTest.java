@@ -0,0 +1,83 @@
+package com.example.chatbot.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * BM25 关键词索引测试：中文按字符二元组切分后的排序、更新和删除
+ */
+public class Bm25IndexTest {
+
+    @Test
+    public void testCjkBigramTokenization() {
+        Map<Object, Integer> terms = Bm25Index.termFrequencies("向量检索，向量。GPU-4090 Model");
+        // 向量 ×2、量检、检索、gpu、4090、model
+        assertEquals(6, terms.size());
+        assertEquals(2, terms.values().stream().mapToInt(Integer::intValue).max().getAsInt());
+        assertTrue(terms.containsKey("gpu"));
+        assertTrue(terms.containsKey("4090"));
+        assertTrue(terms.containsKey("model"));
+        // 单个汉字保留为单字词项
+        assertEquals(1, Bm25Index.termFrequencies("猫").size());
+    }
+
+    @Test
+    public void testCjkRanking() {
+        Bm25Index index = new Bm25Index();
+        index.add(1, "今天天气很好，适合出门散步。");
+        index.add(2, "向量数据库用于相似度检索，向量检索速度很快。");
+        index.add(3, "关系数据库支持事务和索引。");
+        index.add(4, "检索增强生成先检索相关文档，再交给大模型回答。");
+
+        List<SearchHit> hits = index.search("向量检索", 10, null);
+        assertEquals(2L, hits.get(0).id());
+        // 只包含“检索”的片段排在后面，不相关的片段不出现
+        assertTrue(hits.stream().anyMatch(h -> h.id() == 4L));
+        assertTrue(hits.stream().noneMatch(h -> h.id() == 1L));
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).score() >= hits.get(i).score());
+        }
+
+        // 字符顺序不同的二元组不匹配
+        assertTrue(index.search("索检量向", 10, null).isEmpty());
+    }
+
+    @Test
+    public void testRareTermOutranksCommonTerm() {
+        Bm25Index index = new Bm25Index();
+        for (long id = 0; id < 20; id++) {
+            index.add(id, "系统说明文档第" + id + "节");
+        }
+        index.add(100, "系统说明：熔断策略");
+
+        List<SearchHit> hits = index.search("熔断系统", 3, null);
+        assertEquals(100L, hits.get(0).id());
+    }
+
+    @Test
+    public void testUpdateRemoveAndFilter() {
+        Bm25Index index = new Bm25Index();
+        index.add(1, "苹果手机");
+        index.add(2, "苹果电脑");
+        index.add(1, "香蕉牛奶");
+        assertEquals(2, index.size());
+        assertEquals(List.of(2L), ids(index.search("苹果", 10, null)));
+
+        index.remove(2);
+        assertTrue(index.search("苹果", 10, null).isEmpty());
+        assertEquals(1, index.size());
+
+        index.add(3, "香蕉蛋糕");
+        assertEquals(List.of(3L), ids(index.search("香蕉", 10, id -> id != 1)));
+    }
+
+    private static List<Long> ids(List<SearchHit> hits) {
+        return hits.stream().map(SearchHit::id).collect(Collectors.toList());
+    }
+}
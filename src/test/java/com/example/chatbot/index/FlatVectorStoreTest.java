@@ -0,0 +1,221 @@
+package com.example.chatbot.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongPredicate;
+
+import static com.example.chatbot.index.IndexTestData.randomVector;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 向量存储精确检索与 Top-K 收集器测试：结果与暴力排序逐条比对，以及写入期间的无锁读取
+ */
+public class FlatVectorStoreTest {
+
+    private static final int DIMENSION = 24;
+
+    @Test
+    public void testTopKCollectorMatchesSortedScores() {
+        Random random = new Random(7);
+        for (int k : new int[]{1, 5, 64}) {
+            float[] scores = new float[500];
+            TopKCollector top = new TopKCollector(k);
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = random.nextFloat();
+                top.offer(i, scores[i]);
+            }
+            Integer[] expected = sortedByScore(scores);
+
+            float[] drained = new float[top.size()];
+            int[] ordinals = top.drainDescending(drained);
+            assertEquals(k, ordinals.length);
+            for (int i = 0; i < k; i++) {
+                assertEquals(expected[i], ordinals[i]);
+                assertEquals(scores[expected[i]], drained[i]);
+            }
+            assertEquals(0, top.size());
+        }
+    }
+
+    @Test
+    public void testTopKCollectorMerge() {
+        Random random = new Random(11);
+        float[] scores = new float[300];
+        TopKCollector left = new TopKCollector(10);
+        TopKCollector right = new TopKCollector(10);
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextFloat();
+            (i % 2 == 0 ? left : right).offer(i, scores[i]);
+        }
+        left.merge(right);
+
+        Integer[] expected = sortedByScore(scores);
+        int[] ordinals = left.drainDescending(new float[left.size()]);
+        for (int i = 0; i < ordinals.length; i++) {
+            assertEquals(expected[i], ordinals[i]);
+        }
+    }
+
+    @Test
+    public void testSearchExactMatchesBruteForce() {
+        Random random = new Random(42);
+        FlatVectorStore store = new FlatVectorStore();
+        List<float[]> vectors = new ArrayList<>();
+        // 超过一个数据块（1024 个向量）
+        for (int i = 0; i < 3000; i++) {
+            float[] v = randomVector(random, DIMENSION);
+            vectors.add(v);
+            store.add(i, v);
+        }
+        // 覆盖一部分、删除一部分，检索结果只能包含有效向量
+        for (int i = 0; i < 3000; i += 7) {
+            float[] v = randomVector(random, DIMENSION);
+            vectors.set(i, v);
+            store.add(i, v);
+        }
+        for (int i = 3; i < 3000; i += 11) {
+            store.remove(i);
+            vectors.set(i, null);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int q = 0; q < 20; q++) {
+                float[] query = randomVector(random, DIMENSION);
+                long[] expected = bruteForce(vectors, query, 10, null);
+                assertArrayEquals(expected, ids(store.searchExact(query, 10, -1f)));
+                assertArrayEquals(expected, ids(store.searchExact(query, 10, -1f, pool)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSearchExactWithAllowedOrdinals() {
+        Random random = new Random(3);
+        FlatVectorStore store = new FlatVectorStore();
+        List<float[]> vectors = new ArrayList<>();
+        BitSet allowed = new BitSet();
+        for (int i = 0; i < 2000; i++) {
+            float[] v = randomVector(random, DIMENSION);
+            vectors.add(v);
+            int ordinal = store.add(i, v);
+            if (i % 3 == 0) {
+                allowed.set(ordinal);
+            }
+        }
+        float[] query = randomVector(random, DIMENSION);
+        long[] expected = bruteForce(vectors, query, 10, id -> id % 3 == 0);
+        assertArrayEquals(expected, ids(store.searchExact(query, 10, -1f, allowed, null)));
+    }
+
+    @Test
+    public void testSizeAndOrdinalAfterOverwriteAndRemove() {
+        FlatVectorStore store = new FlatVectorStore();
+        int first = store.add(5, new float[]{1, 0});
+        int second = store.add(5, new float[]{0, 1});
+        assertEquals(1, store.size());
+        assertEquals(second, store.ordinalOf(5));
+        assertEquals(FlatVectorStore.NO_ID, store.idAt(first));
+        assertEquals(-1, store.add(6, new float[]{0, 0}));
+
+        assertTrue(store.remove(5));
+        assertEquals(0, store.size());
+        assertEquals(-1, store.ordinalOf(5));
+    }
+
+    @Test
+    public void testOrdinalLookupsDuringConcurrentWrites() throws Exception {
+        FlatVectorStore store = new FlatVectorStore();
+        Random random = new Random(5);
+        int stable = 500;
+        int[] ordinals = new int[stable];
+        for (int i = 0; i < stable; i++) {
+            ordinals[i] = store.add(i, randomVector(random, DIMENSION));
+        }
+
+        // 写线程持续新增和删除其他片段，触发 ID 表扩容；读线程不持锁查询，已有片段的序号必须始终可见
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Integer>> reads = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                reads.add(readers.submit(() -> {
+                    int n = 0;
+                    while (!stop.get() || n == 0) {
+                        int i = n % stable;
+                        assertEquals(ordinals[i], store.ordinalOf(i));
+                        assertTrue(store.size() >= stable);
+                        n++;
+                    }
+                    return n;
+                }));
+            }
+            Random writes = new Random(6);
+            for (long id = stable; id < stable + 20000; id++) {
+                store.add(id, randomVector(writes, DIMENSION));
+                if (id % 3 == 0) {
+                    store.remove(id - 1);
+                }
+            }
+            stop.set(true);
+            for (Future<Integer> read : reads) {
+                assertTrue(read.get(10, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+        for (int i = 0; i < stable; i++) {
+            assertEquals(ordinals[i], store.ordinalOf(i));
+        }
+    }
+
+    private static Integer[] sortedByScore(float[] scores) {
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+        return order;
+    }
+
+    /**
+     * 对全部有效向量计算余弦相似度后排序取前 k 个
+     */
+    static long[] bruteForce(List<float[]> vectors, float[] query, int k, LongPredicate filter) {
+        float[] q = VectorOps.normalize(query);
+        List<Long> ids = new ArrayList<>();
+        Map<Long, Float> scores = new HashMap<>();
+        for (long id = 0; id < vectors.size(); id++) {
+            float[] v = vectors.get((int) id);
+            if (v == null || (filter != null && !filter.test(id))) {
+                continue;
+            }
+            ids.add(id);
+            scores.put(id, VectorOps.dot(q, VectorOps.normalize(v)));
+        }
+        ids.sort(Comparator.comparing(scores::get, Comparator.reverseOrder()));
+        return ids.stream().limit(k).mapToLong(Long::longValue).toArray();
+    }
+
+    static long[] ids(List<SearchHit> hits) {
+        return hits.stream().mapToLong(SearchHit::id).toArray();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.chatbot.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static com.example.chatbot.index.IndexTestData.K;
+import static com.example.chatbot.index.IndexTestData.SIZE;
+import static com.example.chatbot.index.IndexTestData.clusteredStore;
+import static com.example.chatbot.index.IndexTestData.queries;
+import static com.example.chatbot.index.IndexTestData.recall;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * HNSW 图索引测试：以精确检索的 Top-10 为基准的召回率，包括并发构建、删除部分向量之后以及按墓碑比例重建
+ */
+public class HnswIndexTest {
+
+    @Test
+    public void testRecall() {
+        Random random = new Random(1);
+        FlatVectorStore store = clusteredStore(random);
+        HnswIndex index = new HnswIndex(store, 16, 100, 64);
+        for (int ordinal = 0; ordinal < store.ordinalCount(); ordinal++) {
+            index.add(ordinal);
+        }
+        List<float[]> queries = queries(random);
+
+        double recall = recall(store, queries, q -> index.search(q, K, -1f));
+        assertTrue(recall >= 0.9, "HNSW recall@10 = " + recall);
+    }
+
+    @Test
+    public void testConcurrentBuild() {
+        Random random = new Random(5);
+        FlatVectorStore store = clusteredStore(random);
+        List<float[]> queries = queries(random);
+        // 小 M 让邻接表频繁写满，并发插入时新节点与邻居互相连接不能越界
+        for (int round = 0; round < 3; round++) {
+            HnswIndex small = new HnswIndex(store, 2, 16, 16);
+            IntStream.range(0, store.ordinalCount()).parallel().forEach(small::add);
+            assertEquals(SIZE, small.size());
+        }
+
+        HnswIndex index = new HnswIndex(store, 16, 100, 64);
+        IntStream.range(0, store.ordinalCount()).parallel().forEach(index::add);
+        double recall = recall(store, queries, q -> index.search(q, K, -1f));
+        assertTrue(recall >= 0.9, "并发构建的 HNSW recall@10 = " + recall);
+    }
+
+    @Test
+    public void testRecallAfterDeletes() {
+        Random random = new Random(2);
+        FlatVectorStore store = clusteredStore(random);
+        HnswIndex index = new HnswIndex(store, 16, 100, 64);
+        for (int ordinal = 0; ordinal < store.ordinalCount(); ordinal++) {
+            index.add(ordinal);
+        }
+        List<float[]> queries = queries(random);
+        // 删除每个查询当前最相似的若干向量，墓碑不能挤占结果
+        for (float[] query : queries) {
+            for (SearchHit hit : store.searchExact(query, 5, -1f)) {
+                store.remove(hit.id());
+            }
+        }
+        for (long id = 0; id < SIZE; id += 5) {
+            store.remove(id);
+        }
+
+        double recall = recall(store, queries, q -> index.search(q, K, -1f));
+        assertTrue(recall >= 0.85, "HNSW recall@10 after deletes = " + recall);
+    }
+
+    @Test
+    public void testRebuildAfterMostVectorsAreDeleted() {
+        Random random = new Random(6);
+        FlatVectorStore store = clusteredStore(random);
+        HnswIndex index = new HnswIndex(store, 8, 64, 32);
+        for (int ordinal = 0; ordinal < store.ordinalCount(); ordinal++) {
+            index.add(ordinal);
+        }
+        for (long id = 0; id < SIZE; id++) {
+            if (id % 10 < 7) {
+                store.remove(id);
+            }
+        }
+        assertEquals(0.7, index.tombstoneRatio(), 0.01);
+
+        // 重建后的图只包含有效向量
+        HnswIndex rebuilt = new HnswIndex(store, 8, 64, 32);
+        for (int ordinal = 0; ordinal < store.ordinalCount(); ordinal++) {
+            if (store.idAt(ordinal) != FlatVectorStore.NO_ID) {
+                rebuilt.add(ordinal);
+            }
+        }
+        assertEquals(0.0, rebuilt.tombstoneRatio(), 1e-9);
+        List<float[]> queries = queries(random);
+        double recall = recall(store, queries, q -> rebuilt.search(q, K, -1f));
+        assertTrue(recall >= 0.9, "重建后的 HNSW recall@10 = " + recall);
+    }
+}
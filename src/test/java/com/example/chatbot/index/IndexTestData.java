@@ -0,0 +1,83 @@
+package com.example.chatbot.index;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 索引测试共用的数据生成与召回率计算
+ */
+final class IndexTestData {
+
+    static final int DIMENSION = 32;
+    static final int SIZE = 4000;
+    static final int CLUSTERS = 40;
+    static final int QUERIES = 50;
+    static final int K = 10;
+
+    private IndexTestData() {
+    }
+
+    /**
+     * 平均 recall@K：近似结果中属于精确 Top-K 的比例；结果中出现已删除的片段直接判失败
+     */
+    static double recall(FlatVectorStore store, List<float[]> queries, Function<float[], List<SearchHit>> searcher) {
+        double total = 0;
+        for (float[] query : queries) {
+            Set<Long> expected = new HashSet<>();
+            for (SearchHit hit : store.searchExact(query, K, -1f)) {
+                expected.add(hit.id());
+            }
+            int found = 0;
+            for (SearchHit hit : searcher.apply(query)) {
+                assertTrue(store.ordinalOf(hit.id()) >= 0, "已删除的片段 " + hit.id() + " 出现在结果中");
+                if (expected.contains(hit.id())) {
+                    found++;
+                }
+            }
+            total += (double) found / expected.size();
+        }
+        return total / queries.size();
+    }
+
+    /**
+     * 围绕若干随机中心生成的向量，接近真实语料的聚簇分布
+     */
+    static FlatVectorStore clusteredStore(Random random) {
+        float[][] centers = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centers[c] = randomVector(random, DIMENSION);
+        }
+        FlatVectorStore store = new FlatVectorStore();
+        for (int i = 0; i < SIZE; i++) {
+            float[] center = centers[random.nextInt(CLUSTERS)];
+            float[] v = new float[DIMENSION];
+            for (int d = 0; d < DIMENSION; d++) {
+                v[d] = center[d] + 0.5f * (float) random.nextGaussian();
+            }
+            store.add(i, v);
+        }
+        return store;
+    }
+
+    static List<float[]> queries(Random random) {
+        List<float[]> queries = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            queries.add(randomVector(random, DIMENSION));
+        }
+        return queries;
+    }
+
+    static float[] randomVector(Random random, int dimension) {
+        float[] v = new float[dimension];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = (float) random.nextGaussian();
+        }
+        return v;
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.chatbot.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.example.chatbot.index.IndexTestData.K;
+import static com.example.chatbot.index.IndexTestData.SIZE;
+import static com.example.chatbot.index.IndexTestData.clusteredStore;
+import static com.example.chatbot.index.IndexTestData.queries;
+import static com.example.chatbot.index.IndexTestData.recall;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * IVF 倒排索引测试：以精确检索的 Top-10 为基准的召回率，包括 PQ 编码和删除部分向量之后
+ */
+public class IvfIndexTest {
+
+    @Test
+    public void testRecall() {
+        Random random = new Random(3);
+        FlatVectorStore store = clusteredStore(random);
+        IvfIndex index = IvfIndex.build(store, 0, 16, 0, 1, 7L);
+        assertNotNull(index);
+        List<float[]> queries = queries(random);
+
+        double recall = recall(store, queries, q -> index.search(q, K, -1f));
+        assertTrue(recall >= 0.9, "IVF recall@10 = " + recall);
+    }
+
+    @Test
+    public void testPqRecallAfterDeletes() {
+        Random random = new Random(4);
+        FlatVectorStore store = clusteredStore(random);
+        IvfIndex index = IvfIndex.build(store, 0, 16, 8, 8, 7L);
+        assertNotNull(index);
+        assertTrue(index.usesProductQuantization());
+        List<float[]> queries = queries(random);
+        for (long id = 0; id < SIZE; id += 4) {
+            store.remove(id);
+        }
+
+        double recall = recall(store, queries, q -> index.search(q, K, -1f));
+        assertTrue(recall >= 0.8, "IVF-PQ recall@10 after deletes = " + recall);
+    }
+}
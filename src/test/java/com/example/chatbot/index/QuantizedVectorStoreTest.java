@@ -0,0 +1,109 @@
+package com.example.chatbot.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static com.example.chatbot.index.IndexTestData.DIMENSION;
+import static com.example.chatbot.index.IndexTestData.K;
+import static com.example.chatbot.index.IndexTestData.clusteredStore;
+import static com.example.chatbot.index.IndexTestData.queries;
+import static com.example.chatbot.index.IndexTestData.randomVector;
+import static com.example.chatbot.index.IndexTestData.recall;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * int8 量化检索测试：原始向量来自存储或向量文件时的召回率与精确得分，以及未写入文件的向量
+ */
+public class QuantizedVectorStoreTest {
+
+    private static final String MODEL = "test-model";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRecallWithVectorsInStore() {
+        Random random = new Random(8);
+        FlatVectorStore store = clusteredStore(random);
+        QuantizedVectorStore quantized = new QuantizedVectorStore(store);
+        for (int ordinal = 0; ordinal < store.ordinalCount(); ordinal++) {
+            quantized.add(ordinal);
+        }
+        List<float[]> queries = queries(random);
+
+        double recall = recall(store, queries, q -> quantized.search(q, K, -1f, 4, null));
+        assertTrue(recall >= 0.95, "int8 recall@10 = " + recall);
+    }
+
+    @Test
+    public void testRescoreFromVectorFile() throws IOException {
+        Random random = new Random(9);
+        FlatVectorStore exact = clusteredStore(random);
+        FlatVectorStore ids = FlatVectorStore.withoutVectors();
+        try (VectorFile file = VectorFile.create(dir.resolve("vectors.bin"), MODEL)) {
+            QuantizedVectorStore quantized = new QuantizedVectorStore(ids, file);
+            for (int ordinal = 0; ordinal < exact.ordinalCount(); ordinal++) {
+                long id = exact.idAt(ordinal);
+                float[] vector = exact.vector(ordinal);
+                int idOrdinal = ids.add(id, vector);
+                quantized.add(idOrdinal, vector, file.append(id, vector));
+                if (ordinal == 100) {
+                    // 已映射的窗口之后追加的记录也能读出
+                    assertArrayEquals(vector, quantized.vector(idOrdinal), 1e-6f);
+                }
+            }
+            assertFalse(ids.storesVectors());
+            assertThrows(IllegalStateException.class, () -> ids.vector(0));
+
+            for (float[] query : queries(random)) {
+                List<SearchHit> expected = exact.searchExact(query, K, -1f);
+                List<SearchHit> hits = quantized.search(query, K, -1f, 4, null);
+                assertEquals(K, hits.size());
+                // 命中的结果得分是从文件读出的原始向量的精确得分
+                for (SearchHit hit : hits) {
+                    assertEquals(exact.dot(VectorOps.normalize(query), exact.ordinalOf(hit.id())), hit.score(), 1e-5f);
+                }
+                assertEquals(expected.get(0).id(), hits.get(0).id());
+            }
+        }
+    }
+
+    @Test
+    public void testLoadFromFileAndHeapFallback() throws IOException {
+        Random random = new Random(10);
+        Path path = dir.resolve("vectors.bin");
+        try (VectorFile file = VectorFile.create(path, MODEL)) {
+            for (long id = 0; id < 50; id++) {
+                file.append(id, randomVector(random, DIMENSION));
+            }
+            file.appendDelete(7);
+        }
+
+        FlatVectorStore ids = FlatVectorStore.withoutVectors();
+        try (VectorFile file = VectorFile.openExisting(path, MODEL)) {
+            QuantizedVectorStore quantized = new QuantizedVectorStore(ids, file);
+            assertEquals(49, file.load(ids, null, quantized::add).count());
+            assertEquals(49, ids.size());
+
+            // 追加文件失败的向量保留在堆内
+            float[] unsaved = randomVector(random, DIMENSION);
+            quantized.add(ids.add(1000, unsaved), unsaved, -1);
+            List<SearchHit> hits = quantized.search(unsaved, 1, 0.99f, 4, null);
+            assertEquals(1000L, hits.get(0).id());
+            assertEquals(1f, hits.get(0).score(), 1e-5f);
+
+            // 已删除的片段不出现在结果中
+            float[] deleted = file.read(7);
+            assertTrue(quantized.search(deleted, 5, -1f, 4, null).stream().noneMatch(h -> h.id() == 7L));
+        }
+    }
+}
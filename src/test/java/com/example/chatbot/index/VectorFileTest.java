@@ -0,0 +1,187 @@
+package com.example.chatbot.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 向量文件测试：写入后重新打开加载，包括删除、重复片段记录、末尾不完整的记录、dirty 标志和模型标识
+ */
+public class VectorFileTest {
+
+    private static final String MODEL = "test-model";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testWriteAndReopen() throws IOException {
+        Path path = dir.resolve("vectors.bin");
+        try (VectorFile file = VectorFile.create(path, MODEL)) {
+            file.append(1, new float[]{1, 2, 3});
+            file.append(2, new float[]{0, 1, 0});
+            file.append(3, new float[]{3, 0, 4});
+            // 覆盖 1，删除 2，4 与 3 内容相同
+            file.append(1, new float[]{0, 0, 5});
+            file.appendDelete(2);
+            file.appendAlias(4, 3);
+        }
+
+        FlatVectorStore store = new FlatVectorStore();
+        Map<Long, Long> aliases = new HashMap<>();
+        try (VectorFile file = VectorFile.openExisting(path, MODEL)) {
+            assertNotNull(file);
+            assertEquals(2, file.load(store, aliases));
+        }
+        assertEquals(2, store.size());
+        assertEquals(-1, store.ordinalOf(2));
+        assertArrayEquals(new float[]{0, 0, 1}, store.vector(store.ordinalOf(1)));
+        assertArrayEquals(new float[]{0.6f, 0, 0.8f}, store.vector(store.ordinalOf(3)), 1e-6f);
+        assertEquals(Map.of(4L, 3L), aliases);
+    }
+
+    @Test
+    public void testOpenWithOtherModelOrMissingFile() throws IOException {
+        Path path = dir.resolve("vectors.bin");
+        assertNull(VectorFile.openExisting(path, MODEL));
+        try (VectorFile file = VectorFile.create(path, MODEL)) {
+            file.append(1, new float[]{1, 0});
+        }
+        assertNull(VectorFile.openExisting(path, "other-model"));
+    }
+
+    @Test
+    public void testTornTailIsDiscarded() throws IOException {
+        Path path = dir.resolve("vectors.bin");
+        try (VectorFile file = VectorFile.create(path, MODEL)) {
+            file.append(1, new float[]{1, 0, 0, 0});
+            file.append(2, new float[]{0, 1, 0, 0});
+        }
+        long complete = Files.size(path);
+        // 模拟写入下一条记录到一半时崩溃
+        Files.write(path, new byte[]{1, 0, 0, 0, 3, 0, 0}, StandardOpenOption.APPEND);
+
+        FlatVectorStore store = new FlatVectorStore();
+        try (VectorFile file = VectorFile.openExisting(path, MODEL)) {
+            assertNotNull(file);
+            assertEquals(2, file.load(store, null));
+            assertEquals(complete, Files.size(path));
+            // 截断后继续追加的记录可以正常读出
+            file.append(3, new float[]{0, 0, 1, 0});
+        }
+
+        FlatVectorStore reloaded = new FlatVectorStore();
+        try (VectorFile file = VectorFile.openExisting(path, MODEL)) {
+            assertNotNull(file);
+            assertEquals(3, file.load(reloaded, null));
+        }
+        assertArrayEquals(new float[]{0, 0, 1, 0}, reloaded.vector(reloaded.ordinalOf(3)));
+    }
+
+    @Test
+    public void testRewriteKeepsOnlyLiveRecords() throws IOException {
+        Path path = dir.resolve("vectors.bin");
+        FlatVectorStore store = new FlatVectorStore();
+        VectorFile file = VectorFile.create(path, MODEL);
+        for (long id = 0; id < 100; id++) {
+            float[] v = {id + 1, 1};
+            file.append(id, v);
+            store.add(id, v);
+        }
+        for (long id = 0; id < 100; id += 2) {
+            file.appendDelete(id);
+            store.remove(id);
+        }
+        long before = Files.size(path);
+        file = file.rewrite(store, Map.of(200L, 1L));
+        file.close();
+        assertTrue(Files.size(path) < before);
+
+        FlatVectorStore reloaded = new FlatVectorStore();
+        Map<Long, Long> aliases = new HashMap<>();
+        try (VectorFile reopened = VectorFile.openExisting(path, MODEL)) {
+            assertNotNull(reopened);
+            assertEquals(50, reopened.load(reloaded, aliases));
+        }
+        assertEquals(Map.of(200L, 1L), aliases);
+        for (long id = 1; id < 100; id += 2) {
+            assertArrayEquals(store.vector(store.ordinalOf(id)), reloaded.vector(reloaded.ordinalOf(id)), 1e-6f);
+        }
+    }
+
+    @Test
+    public void testSummaryOfLiveIds() throws IOException {
+        Path path = dir.resolve("vectors.bin");
+        try (VectorFile file = VectorFile.create(path, MODEL)) {
+            file.append(5, new float[]{1, 0});
+            file.append(9, new float[]{0, 1});
+            file.append(12, new float[]{1, 1});
+            file.append(20, new float[]{1, 2});
+            file.appendDelete(20);
+            file.appendAlias(30, 5);
+        }
+        try (VectorFile file = VectorFile.openExisting(path, MODEL)) {
+            assertNotNull(file);
+            assertEquals(new VectorFile.Summary(3, 12, 26), file.load(new FlatVectorStore(), null, null));
+        }
+    }
+
+    @Test
+    public void testDirtyFlagSurvivesReopen() throws IOException {
+        Path path = dir.resolve("vectors.bin");
+        try (VectorFile file = VectorFile.create(path, MODEL)) {
+            file.append(1, new float[]{1, 0});
+            assertFalse(file.isDirty());
+            file.markDirty();
+            assertTrue(file.isDirty());
+            // 标记后继续追加不影响标志
+            file.append(2, new float[]{0, 1});
+        }
+        try (VectorFile file = VectorFile.openExisting(path, MODEL)) {
+            assertNotNull(file);
+            assertTrue(file.isDirty());
+            assertEquals(2, file.load(new FlatVectorStore(), null));
+            // 重写后的文件是干净的
+            FlatVectorStore store = new FlatVectorStore();
+            store.add(1, new float[]{1, 0});
+            file.rewrite(store, Map.of()).close();
+        }
+        try (VectorFile file = VectorFile.openExisting(path, MODEL)) {
+            assertNotNull(file);
+            assertFalse(file.isDirty());
+        }
+    }
+
+    @Test
+    public void testLongModelIdIsHashed() throws IOException {
+        String prefix = "djl|" + "sentence-transformers/paraphrase-multilingual-MiniLM-L12-v2".repeat(2);
+        String modelA = prefix + "|a";
+        String modelB = prefix + "|b";
+        // 前 48 字节相同的两个标识不能被当成同一个模型
+        assertNotEquals(new String(VectorFile.encodeModelId(modelA)), new String(VectorFile.encodeModelId(modelB)));
+        assertEquals(new String(VectorFile.encodeModelId(MODEL)).trim(), MODEL);
+
+        Path path = dir.resolve("vectors.bin");
+        try (VectorFile file = VectorFile.create(path, modelA)) {
+            file.append(1, new float[]{1, 0});
+        }
+        assertNull(VectorFile.openExisting(path, modelB));
+        try (VectorFile file = VectorFile.openExisting(path, modelA)) {
+            assertNotNull(file);
+        }
+    }
+}
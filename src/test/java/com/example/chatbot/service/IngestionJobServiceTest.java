@@ -0,0 +1,172 @@
+package com.example.chatbot.service;
+
+import com.example.chatbot.model.Document;
+import com.example.chatbot.model.IngestionJob;
+import com.example.chatbot.repository.IngestionJobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 后台导入任务测试：提交后执行并记录进度和结果、失败记录原因、启动时重新提交未完成的任务、只有本人或管理员可查询
+ */
+public class IngestionJobServiceTest {
+
+    private KnowledgeService knowledgeService;
+    private IngestionJobRepository jobRepository;
+    // 模拟任务表，保存的是副本
+    private final Map<Long, IngestionJob> table = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private IngestionJobService service;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        knowledgeService = mock(KnowledgeService.class);
+        jobRepository = mock(IngestionJobRepository.class);
+        when(jobRepository.save(any(IngestionJob.class))).thenAnswer(invocation -> {
+            IngestionJob job = invocation.getArgument(0);
+            if (job.getId() == null) {
+                job.setId(nextId.getAndIncrement());
+            }
+            table.put(job.getId(), job.copy());
+            return job;
+        });
+        when(jobRepository.findById(anyLong())).thenAnswer(invocation ->
+                Optional.ofNullable(table.get((Long) invocation.getArgument(0))));
+        when(jobRepository.findByStatusInOrderByIdAsc(anyCollection())).thenReturn(List.of());
+        when(knowledgeService.isCurrentUserOwnerOrAdmin(7L)).thenReturn(true);
+        Document doc = new Document();
+        doc.setId(10L);
+        doc.setUserId(7L);
+        doc.setFilename("手册.txt");
+        when(knowledgeService.importFile(any(), eq(7L))).thenReturn(doc);
+
+        service = new IngestionJobService();
+        ReflectionTestUtils.setField(service, "workers", 1);
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+        ReflectionTestUtils.setField(service, "progressSaveIntervalMillis", 0L);
+        ReflectionTestUtils.setField(service, "knowledgeService", knowledgeService);
+        ReflectionTestUtils.setField(service, "jobRepository", jobRepository);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void testSubmittedJobCompletesWithProgress() throws Exception {
+        when(knowledgeService.processDocument(eq(10L), any())).thenAnswer(invocation -> {
+            KnowledgeService.ProcessingListener listener = invocation.getArgument(1);
+            listener.onChunked(3);
+            listener.onIndexed(2);
+            listener.onIndexed(1);
+            return List.of(new EmbeddingService.ChunkFailure(2, 102L, "嵌入失败"));
+        });
+        service.init();
+
+        IngestionJob submitted = service.submit(upload(), 7L);
+        assertEquals(IngestionJob.QUEUED, submitted.getStatus());
+        assertEquals(10L, submitted.getDocumentId());
+
+        Map<String, Object> status = awaitFinished(submitted.getId());
+        assertEquals(IngestionJob.COMPLETED, status.get("status"));
+        assertEquals(3, status.get("totalSegments"));
+        assertEquals(3, status.get("processedSegments"));
+        assertEquals(1, status.get("failedSegments"));
+        assertEquals(1.0, status.get("progress"));
+        assertEquals(1, status.get("attempts"));
+    }
+
+    @Test
+    public void testFailedJobRecordsReason() throws Exception {
+        when(knowledgeService.processDocument(eq(10L), any())).thenThrow(new IllegalStateException("文件已损坏"));
+        service.init();
+
+        IngestionJob submitted = service.submit(upload(), 7L);
+        Map<String, Object> status = awaitFinished(submitted.getId());
+        assertEquals(IngestionJob.FAILED, status.get("status"));
+        assertEquals("文件已损坏", status.get("message"));
+    }
+
+    @Test
+    public void testOnlyOwnerOrAdminCanSeeJob() throws Exception {
+        when(knowledgeService.processDocument(eq(10L), any())).thenReturn(List.of());
+        service.init();
+        IngestionJob submitted = service.submit(upload(), 7L);
+        awaitFinished(submitted.getId());
+
+        // 其他用户查询时与任务不存在一样
+        when(knowledgeService.isCurrentUserOwnerOrAdmin(7L)).thenReturn(false);
+        assertNull(service.status(submitted.getId()));
+        assertNull(service.status(999L));
+    }
+
+    @Test
+    public void testUnfinishedJobsAreResubmittedOnStartup() throws Exception {
+        IngestionJob interrupted = job(IngestionJob.RUNNING, 1);
+        IngestionJob exhausted = job(IngestionJob.QUEUED, 3);
+        when(jobRepository.findByStatusInOrderByIdAsc(anyCollection())).thenReturn(List.of(interrupted, exhausted));
+        when(knowledgeService.processDocument(eq(10L), any())).thenReturn(List.of());
+
+        service.init();
+
+        verify(knowledgeService, timeout(5000)).processDocument(eq(10L), any());
+        Map<String, Object> status = awaitFinished(interrupted.getId());
+        assertEquals(IngestionJob.COMPLETED, status.get("status"));
+        assertEquals(2, status.get("attempts"));
+        // 达到最多执行次数的任务直接标记失败，不再执行
+        assertEquals(IngestionJob.FAILED, table.get(exhausted.getId()).getStatus());
+        assertTrue(table.get(exhausted.getId()).getMessage().contains("不再重试"));
+    }
+
+    private IngestionJob job(String status, int attempts) {
+        IngestionJob job = new IngestionJob();
+        job.setId(nextId.getAndIncrement());
+        job.setDocumentId(10L);
+        job.setUserId(7L);
+        job.setFilename("手册.txt");
+        job.setStatus(status);
+        job.setAttempts(attempts);
+        job.setCreatedAt(LocalDateTime.now());
+        return job;
+    }
+
+    private Map<String, Object> awaitFinished(Long jobId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            Map<String, Object> status = service.status(jobId);
+            if (status != null && (IngestionJob.COMPLETED.equals(status.get("status"))
+                    || IngestionJob.FAILED.equals(status.get("status")))) {
+                return status;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("导入任务 " + jobId + " 未在限定时间内结束");
+    }
+
+    private static MockMultipartFile upload() {
+        return new MockMultipartFile("file", "手册.txt", "text/plain", "内容".getBytes());
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.chatbot.service;
+
+import com.example.chatbot.model.Segment;
+import com.example.chatbot.repository.SegmentRepository;
+import com.example.chatbot.util.TextBlockReader;
+import com.example.chatbot.util.TextUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 导入流水线测试：新文档的嵌入、重复内容共用向量、嵌入失败，以及重新导入时复用已有片段并删除多余的旧片段
+ */
+public class IngestionPipelineTest {
+
+    private static final String MODEL = "test:model";
+    private static final Long DOCUMENT_ID = 10L;
+
+    private EmbeddingService embeddingService;
+    private SegmentRepository segmentRepository;
+    private SegmentVectorWriter vectorWriter;
+    private TransactionTemplate transaction;
+    private final AtomicLong nextId = new AtomicLong(100);
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        embeddingService = mock(EmbeddingService.class);
+        segmentRepository = mock(SegmentRepository.class);
+        vectorWriter = mock(SegmentVectorWriter.class);
+        transaction = mock(TransactionTemplate.class);
+        when(embeddingService.vectorModelId()).thenReturn(MODEL);
+        when(embeddingService.findCanonicalSegments(anyList(), eq(MODEL))).thenReturn(Map.of());
+        when(embeddingService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return texts.stream().map(IngestionPipelineTest::vector).collect(Collectors.toList());
+        });
+        when(embeddingService.aliasesOf(anyLong())).thenReturn(List.of());
+        when(segmentRepository.saveAllAndFlush(anyList())).thenAnswer(invocation -> {
+            List<Segment> segments = invocation.getArgument(0);
+            for (Segment segment : segments) {
+                if (segment.getId() == null) {
+                    segment.setId(nextId.getAndIncrement());
+                }
+            }
+            return segments;
+        });
+        doAnswer(invocation -> {
+            ((Consumer<TransactionStatus>) invocation.getArgument(0)).accept(null);
+            return null;
+        }).when(transaction).executeWithoutResult(any());
+    }
+
+    @Test
+    public void testNewDocumentEmbedsDistinctChunksOnce() throws Exception {
+        AtomicInteger chunked = new AtomicInteger();
+        AtomicInteger indexed = new AtomicInteger();
+        KnowledgeService.ProcessingListener listener = new KnowledgeService.ProcessingListener() {
+            @Override
+            public void onChunked(int segments) {
+                chunked.addAndGet(segments);
+            }
+
+            @Override
+            public void onIndexed(int segments) {
+                indexed.addAndGet(segments);
+            }
+        };
+
+        List<EmbeddingService.ChunkFailure> failures =
+                pipeline("甲\n乙\n丙\n甲\n丁", List.of(), listener).run();
+
+        assertTrue(failures.isEmpty());
+        assertEquals(5, chunked.get());
+        assertEquals(5, indexed.get());
+        // 第二个“甲”不再嵌入，共用第一个“甲”的向量
+        verify(embeddingService, times(4)).storeVector(anyLong(), any());
+        verify(embeddingService).registerAlias(103L, 100L);
+        verify(embeddingService, times(5)).indexLexical(anyLong(), any());
+        verify(segmentRepository, never()).deleteAllByIdInBatch(any());
+    }
+
+    @Test
+    public void testEmbeddingFailureIsReported() throws Exception {
+        when(embeddingService.embedAll(anyList())).thenThrow(new IllegalStateException("模型不可用"));
+
+        List<EmbeddingService.ChunkFailure> failures = pipeline("甲\n乙", List.of(), null).run();
+
+        assertEquals(2, failures.size());
+        assertEquals(0, failures.get(0).chunkIndex());
+        assertTrue(failures.get(0).reason().contains("模型不可用"));
+        verify(embeddingService).removeVector(100L);
+        verify(embeddingService).removeVector(101L);
+    }
+
+    @Test
+    public void testReimportRemovesStaleSegmentsAndHandsOverSharedVectors() throws Exception {
+        // 上次导入留下 4 个片段，本次文档只剩前两段
+        List<Segment> existing = List.of(segment(1L, "甲"), segment(2L, "乙"), segment(3L, "丙"), segment(4L, "丁"));
+        when(embeddingService.findCanonicalSegments(anyList(), eq(MODEL))).thenReturn(
+                Map.of(TextUtils.contentHash("甲"), 1L, TextUtils.contentHash("乙"), 2L));
+        // 其它文档的片段 50、51 共用片段 4 的向量
+        when(embeddingService.aliasesOf(4L)).thenReturn(List.of(50L, 51L));
+        when(embeddingService.getVector(4L)).thenReturn(vector("丁"));
+
+        List<EmbeddingService.ChunkFailure> failures = pipeline("甲\n乙", new ArrayList<>(existing), null).run();
+
+        assertTrue(failures.isEmpty());
+        // 已有当前模型向量的片段不重新嵌入
+        verify(embeddingService, never()).embedAll(anyList());
+        verify(vectorWriter).upsert(eq(List.of(50L)), any(), eq(MODEL));
+        verify(vectorWriter).delete(List.of(3L, 4L));
+        verify(segmentRepository).deleteAllByIdInBatch(List.of(3L, 4L));
+        verify(embeddingService).storeVector(eq(50L), any());
+        verify(embeddingService).registerAlias(51L, 50L);
+        verify(embeddingService).forgetSegment(3L);
+        verify(embeddingService).forgetSegment(4L);
+        verify(embeddingService, never()).forgetSegment(1L);
+    }
+
+    private IngestionPipeline pipeline(String text, List<Segment> existing,
+                                       KnowledgeService.ProcessingListener listener) {
+        return new IngestionPipeline(DOCUMENT_ID, blocks(text), IngestionPipelineTest::lines, 2, 2, existing,
+                embeddingService, segmentRepository, vectorWriter, transaction, listener);
+    }
+
+    /**
+     * 按行分段的分段器
+     */
+    private static Iterator<String> lines(Reader reader) {
+        return new BufferedReader(reader).lines().filter(line -> !line.isEmpty()).iterator();
+    }
+
+    /**
+     * 每个字符一块，分段时跨块拼接
+     */
+    private static TextBlockReader blocks(String text) {
+        Iterator<String> chars = text.chars().mapToObj(c -> String.valueOf((char) c)).iterator();
+        return new TextBlockReader() {
+            @Override
+            public String nextBlock() {
+                return chars.hasNext() ? chars.next() : null;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static Segment segment(Long id, String content) {
+        Segment segment = new Segment();
+        segment.setId(id);
+        segment.setDocumentId(DOCUMENT_ID);
+        segment.setContent(content);
+        segment.setContentHash(TextUtils.contentHash(content));
+        return segment;
+    }
+
+    private static float[] vector(String text) {
+        return new float[]{text.hashCode() % 7 + 8, 1};
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.chatbot.service;
+
+import com.example.chatbot.index.FlatVectorStore;
+import com.example.chatbot.model.EmbeddingCacheEntry;
+import com.example.chatbot.repository.EmbeddingCacheRepository;
+import com.example.chatbot.util.TextUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 持久化嵌入缓存测试：命中的文本不再推理，新向量按模型写回，零向量和维度不符的缓存被忽略
+ */
+public class PersistentEmbeddingCacheTest {
+
+    private static final String MODEL_ID = "djl:test-model";
+
+    private EmbeddingService service;
+    private DjlEmbeddingEngine engine;
+    private EmbeddingCacheRepository repository;
+
+    @BeforeEach
+    public void setUp() {
+        engine = mock(DjlEmbeddingEngine.class);
+        repository = mock(EmbeddingCacheRepository.class);
+        when(engine.embedBatch(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            List<float[]> vectors = new ArrayList<>();
+            for (String text : texts) {
+                vectors.add(text.startsWith("零") ? new float[3] : new float[]{text.length(), 1, 0});
+            }
+            return vectors;
+        });
+        when(repository.findByModelIdAndContentHashIn(eq(MODEL_ID), anyCollection())).thenReturn(List.of());
+
+        service = new EmbeddingService(null);
+        ReflectionTestUtils.setField(service, "embeddingMode", "djl");
+        ReflectionTestUtils.setField(service, "djlModelUrl", "djl://models/test-model");
+        ReflectionTestUtils.setField(service, "embedBatchSize", 16);
+        ReflectionTestUtils.setField(service, "persistentCacheEnabled", true);
+        ReflectionTestUtils.setField(service, "vectorStore", new FlatVectorStore());
+        ReflectionTestUtils.setField(service, "djlEngine", engine);
+        ReflectionTestUtils.setField(service, "embeddingCacheRepository", repository);
+    }
+
+    @Test
+    public void testCachedTextsSkipInference() {
+        when(repository.findByModelIdAndContentHashIn(eq(MODEL_ID), anyCollection()))
+                .thenReturn(List.of(entry("缓存文本", new float[]{9, 9, 9})));
+
+        List<float[]> vectors = service.embedBatch(List.of("缓存文本", "新文本", "零向量文本"));
+
+        assertArrayEquals(new float[]{9, 9, 9}, vectors.get(0));
+        assertArrayEquals(new float[]{3, 1, 0}, vectors.get(1));
+        verify(engine).embedBatch(List.of("新文本", "零向量文本"));
+
+        // 只写回新生成的非零向量
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<EmbeddingCacheEntry>> saved = ArgumentCaptor.forClass(List.class);
+        verify(repository).saveAll(saved.capture());
+        assertEquals(1, saved.getValue().size());
+        EmbeddingCacheEntry entry = saved.getValue().get(0);
+        assertEquals(TextUtils.contentHash("新文本"), entry.getContentHash());
+        assertEquals(MODEL_ID, entry.getModelId());
+        assertEquals(3, entry.getDimension());
+        assertArrayEquals(new float[]{3, 1, 0}, EmbeddingService.deserializeVector(entry.getVector()));
+    }
+
+    @Test
+    public void testAllCachedMakesNoInferenceCall() {
+        when(repository.findByModelIdAndContentHashIn(eq(MODEL_ID), anyCollection()))
+                .thenReturn(List.of(entry("甲", new float[]{1, 0, 0}), entry("乙", new float[]{0, 1, 0})));
+
+        List<float[]> vectors = service.embedBatch(List.of("甲", "乙", "甲"));
+
+        assertArrayEquals(new float[]{1, 0, 0}, vectors.get(2));
+        verify(engine, never()).embedBatch(anyList());
+        verify(repository, never()).saveAll(any());
+    }
+
+    @Test
+    public void testCacheWithOtherDimensionIsIgnored() {
+        FlatVectorStore store = new FlatVectorStore();
+        store.add(1L, new float[]{1, 0, 0});
+        ReflectionTestUtils.setField(service, "vectorStore", store);
+        when(repository.findByModelIdAndContentHashIn(eq(MODEL_ID), anyCollection()))
+                .thenReturn(List.of(entry("旧维度", new float[]{1, 1})));
+
+        assertArrayEquals(new float[]{3, 1, 0}, service.embedBatch(List.of("旧维度")).get(0));
+        verify(engine).embedBatch(List.of("旧维度"));
+    }
+
+    @Test
+    public void testCacheFailuresDoNotBreakEmbedding() {
+        when(repository.findByModelIdAndContentHashIn(eq(MODEL_ID), anyCollection()))
+                .thenThrow(new IllegalStateException("数据库不可用"));
+        when(repository.saveAll(any())).thenThrow(new IllegalStateException("数据库不可用"));
+
+        assertArrayEquals(new float[]{2, 1, 0}, service.embedBatch(List.of("文本")).get(0));
+    }
+
+    private static EmbeddingCacheEntry entry(String text, float[] vector) {
+        EmbeddingCacheEntry entry = new EmbeddingCacheEntry();
+        entry.setContentHash(TextUtils.contentHash(text));
+        entry.setModelId(MODEL_ID);
+        entry.setDimension(vector.length);
+        entry.setVector(EmbeddingService.serializeVector(vector));
+        return entry;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.chatbot.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 查询向量缓存测试：并发请求合并、LRU 淘汰和零向量不缓存
+ */
+public class QueryEmbeddingCacheTest {
+
+    @Test
+    public void testConcurrentRequestsShareOneLoad() throws Exception {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<float[]>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> cache.get("model|问题", () -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new float[]{1, 2, 3};
+                })));
+            }
+            // 等其余请求都合并到进行中的那次计算上再放行
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((long) cache.stats().get("coalesced") < threads - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            for (Future<float[]> result : results) {
+                assertArrayEquals(new float[]{1, 2, 3}, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+            assertEquals((long) threads - 1, cache.stats().get("coalesced"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureIsSharedAndNotCached() throws Exception {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<float[]> first = executor.submit(() -> cache.get("k", () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("嵌入服务不可用");
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            // 第二个请求合并到进行中的计算后，再让计算失败
+            Thread waiter = new Thread(() -> {
+                long deadline = System.currentTimeMillis() + 5000;
+                while ((long) cache.stats().get("coalesced") < 1 && System.currentTimeMillis() < deadline) {
+                    Thread.onSpinWait();
+                }
+                release.countDown();
+            });
+            waiter.start();
+            // 等待中的请求收到同一个异常
+            assertThrows(IllegalStateException.class, () -> cache.get("k", () -> new float[]{9}));
+            assertThrows(Exception.class, () -> first.get(5, TimeUnit.SECONDS));
+            waiter.join();
+        } finally {
+            executor.shutdownNow();
+        }
+        // 失败不缓存，下一次重新计算
+        assertArrayEquals(new float[]{4}, cache.get("k", () -> new float[]{4}));
+    }
+
+    @Test
+    public void testLruEvictionAndZeroVectors() {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(2);
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("a", () -> vector(loads, 1));
+        cache.get("b", () -> vector(loads, 2));
+        cache.get("a", () -> vector(loads, 1));
+        cache.get("c", () -> vector(loads, 3));
+        assertEquals(3, loads.get());
+
+        // b 最久未使用，已被淘汰
+        cache.get("a", () -> vector(loads, 1));
+        assertEquals(3, loads.get());
+        cache.get("b", () -> vector(loads, 2));
+        assertEquals(4, loads.get());
+
+        // 零向量（嵌入失败）不缓存
+        cache.get("z", () -> vector(loads, 0));
+        cache.get("z", () -> vector(loads, 0));
+        assertEquals(6, loads.get());
+    }
+
+    @Test
+    public void testReturnsCopies() {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(2);
+        float[] first = cache.get("a", () -> new float[]{1, 2});
+        first[0] = 100;
+        assertArrayEquals(new float[]{1, 2}, cache.get("a", () -> new float[]{7, 7}));
+    }
+
+    private static float[] vector(AtomicInteger loads, float value) {
+        loads.incrementAndGet();
+        return new float[]{value, value};
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.chatbot.service;
+
+import com.example.chatbot.index.FlatVectorStore;
+import com.example.chatbot.index.QuantizedVectorStore;
+import com.example.chatbot.model.ReindexCheckpoint;
+import com.example.chatbot.repository.ReindexCheckpointRepository;
+import com.example.chatbot.repository.SegmentContent;
+import com.example.chatbot.repository.SegmentRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 重新索引测试：分页嵌入、重复内容共用向量后整体切换，以及切换期间在线检索和补写在线写入
+ */
+public class ReindexServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testPagesAreEmbeddedAndSwappedIn() throws Exception {
+        EmbeddingService embeddingService = mock(EmbeddingService.class);
+        SegmentRepository segmentRepository = mock(SegmentRepository.class);
+        ReindexCheckpointRepository checkpointRepository = mock(ReindexCheckpointRepository.class);
+        when(embeddingService.getVectorModelId()).thenReturn("test|model");
+        when(embeddingService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            List<float[]> vectors = new ArrayList<>();
+            for (String text : texts) {
+                vectors.add(new float[]{text.length(), 1});
+            }
+            return vectors;
+        });
+        when(checkpointRepository.save(any(ReindexCheckpoint.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(segmentRepository.count()).thenReturn(4L);
+        // 两页：第二页的片段 3 与第一页的片段 1 内容相同
+        when(segmentRepository.findContentAfter(anyLong(), any(Pageable.class))).thenAnswer(invocation -> {
+            long after = invocation.getArgument(0);
+            if (after == 0) {
+                return List.of(content(1L, "向量"), content(2L, "关键词检索"));
+            }
+            if (after == 2) {
+                return List.of(content(3L, "向量"), content(4L, "重新索引任务"));
+            }
+            return Collections.emptyList();
+        });
+
+        ReindexService service = new ReindexService();
+        ReflectionTestUtils.setField(service, "pageSize", 2);
+        ReflectionTestUtils.setField(service, "embeddingService", embeddingService);
+        ReflectionTestUtils.setField(service, "segmentRepository", segmentRepository);
+        ReflectionTestUtils.setField(service, "checkpointRepository", checkpointRepository);
+        ReflectionTestUtils.setField(service, "jdbcTemplate", mock(JdbcTemplate.class));
+        ReflectionTestUtils.setField(service, "segmentVectorWriter", mock(SegmentVectorWriter.class));
+
+        ReindexCheckpoint started = service.start();
+        assertTrue(started != null);
+        awaitFinished(service);
+
+        ArgumentCaptor<FlatVectorStore> store = ArgumentCaptor.forClass(FlatVectorStore.class);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<Long, Long>> aliases = ArgumentCaptor.forClass(Map.class);
+        verify(embeddingService).beginRebuild();
+        verify(embeddingService).swapInRebuiltIndex(store.capture(), aliases.capture());
+        verify(embeddingService, never()).abandonRebuild();
+
+        assertEquals(3, store.getValue().size());
+        assertEquals(-1, store.getValue().ordinalOf(3L));
+        assertEquals(Map.of(3L, 1L), aliases.getValue());
+        assertEquals(ReindexCheckpoint.COMPLETED, service.status().get("status"));
+        assertEquals(4L, service.status().get("processedSegments"));
+        assertEquals(1L, service.status().get("duplicateSegments"));
+    }
+
+    @Test
+    public void testSwapKeepsSearchAvailableAndReplaysLiveWrites() throws Exception {
+        swapUnderConcurrentSearches(false);
+    }
+
+    @Test
+    public void testSwapInInt8FileMode() throws Exception {
+        // 切换后原始向量只保存在新的向量文件中
+        EmbeddingService service = swapUnderConcurrentSearches(true);
+        assertFalse(((FlatVectorStore) ReflectionTestUtils.getField(service, "vectorStore")).storesVectors());
+    }
+
+    private EmbeddingService swapUnderConcurrentSearches(boolean rescoreFromFile) throws Exception {
+        EmbeddingService service = new EmbeddingService(null);
+        ReflectionTestUtils.setField(service, "indexType", "int8");
+        ReflectionTestUtils.setField(service, "int8RescoreFactor", 4);
+        ReflectionTestUtils.setField(service, "int8RescoreFromFile", rescoreFromFile);
+        ReflectionTestUtils.setField(service, "embeddingMode", "ollama");
+        ReflectionTestUtils.setField(service, "embedModel", "test-model");
+        ReflectionTestUtils.setField(service, "vectorFilePath", dir.resolve("vectors.bin").toString());
+        ReflectionTestUtils.setField(service, "searchPool", new ForkJoinPool(2));
+        FlatVectorStore initial = rescoreFromFile ? FlatVectorStore.withoutVectors() : new FlatVectorStore();
+        ReflectionTestUtils.setField(service, "vectorStore", initial);
+        ReflectionTestUtils.setField(service, "quantizedStore", new QuantizedVectorStore(initial));
+        for (long id = 0; id < 200; id++) {
+            service.storeVector(id, vector(id));
+        }
+
+        FlatVectorStore rebuilt = new FlatVectorStore();
+        for (long id = 0; id < 200; id++) {
+            rebuilt.add(id, vector(id + 1000));
+        }
+        service.beginRebuild();
+        // 重建期间在线写入的片段在切换时补写
+        service.storeVector(500L, vector(500));
+        long versionBefore = service.getKnowledgeVersion();
+
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService searcher = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> searches = searcher.submit(() -> {
+                int n = 0;
+                while (!stop.get() || n == 0) {
+                    assertEquals(1, service.searchTopKWithThreshold(vector(n % 200), 1, -1f).size());
+                    n++;
+                }
+                return n;
+            });
+            service.swapInRebuiltIndex(rebuilt, new HashMap<>(Map.of(900L, 1L)));
+            stop.set(true);
+            assertTrue(searches.get(10, TimeUnit.SECONDS) > 0);
+        } finally {
+            searcher.shutdownNow();
+        }
+
+        assertTrue(service.getKnowledgeVersion() > versionBefore);
+        assertEquals(List.of(500L), service.searchExact(vector(500), 1, 0.99f));
+        assertEquals(List.of(7L), service.searchTopKWithThreshold(vector(1007), 1, 0.99f));
+        assertArrayEquals(rebuilt.vector(rebuilt.ordinalOf(7L)), service.getVector(7L), 1e-6f);
+        return service;
+    }
+
+    private static float[] vector(long seed) {
+        return new float[]{(float) Math.cos(seed * 0.37), (float) Math.sin(seed * 0.37), (float) Math.cos(seed * 0.11)};
+    }
+
+    private static void awaitFinished(ReindexService service) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Boolean.TRUE.equals(service.status().get("running")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        service.shutdown();
+    }
+
+    private static SegmentContent content(Long id, String text) {
+        return new SegmentContent() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getContent() {
+                return text;
+            }
+        };
+    }
+}
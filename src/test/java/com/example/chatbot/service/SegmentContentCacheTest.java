@@ -0,0 +1,97 @@
+package com.example.chatbot.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 片段内容缓存测试：按访问次数淘汰、字节上限和预热
+ */
+public class SegmentContentCacheTest {
+
+    // 10 个字符的内容按 2 × 10 + 128 字节估算
+    private static final String CONTENT = "0123456789";
+    private static final long ENTRY_BYTES = 2L * CONTENT.length() + SegmentContentCache.ENTRY_OVERHEAD_BYTES;
+
+    @Test
+    public void testEvictsLeastFrequentlyUsedFirst() {
+        SegmentContentCache cache = new SegmentContentCache(3 * ENTRY_BYTES);
+        cache.put(1L, CONTENT);
+        cache.put(2L, CONTENT);
+        cache.put(3L, CONTENT);
+        // 1 访问两次，3 访问一次，2 只有写入时的一次
+        cache.getAll(List.of(1L, 1L, 3L));
+
+        cache.put(4L, CONTENT);
+        assertEquals(Map.of(1L, CONTENT, 3L, CONTENT, 4L, CONTENT), cache.getAll(List.of(1L, 2L, 3L, 4L)));
+        assertEquals(1L, cache.stats().get("evictions"));
+    }
+
+    @Test
+    public void testEqualFrequencyEvictsOldestFirst() {
+        SegmentContentCache cache = new SegmentContentCache(2 * ENTRY_BYTES);
+        cache.put(1L, CONTENT);
+        cache.put(2L, CONTENT);
+        cache.put(3L, CONTENT);
+        assertEquals(Map.of(2L, CONTENT, 3L, CONTENT), cache.getAll(List.of(1L, 2L, 3L)));
+
+        // 2、3 都被访问过一次，先进入该访问次数的 2 先被淘汰
+        cache.put(4L, CONTENT);
+        assertEquals(Map.of(3L, CONTENT, 4L, CONTENT), cache.getAll(List.of(2L, 3L, 4L)));
+    }
+
+    @Test
+    public void testBulkLoadDoesNotEvictHotEntries() {
+        SegmentContentCache cache = new SegmentContentCache(4 * ENTRY_BYTES);
+        cache.put(1L, CONTENT);
+        for (int i = 0; i < 5; i++) {
+            cache.getAll(List.of(1L));
+        }
+        for (long id = 100; id < 120; id++) {
+            cache.put(id, CONTENT);
+        }
+        assertTrue(cache.getAll(List.of(1L)).containsKey(1L));
+        assertEquals(4, cache.stats().get("size"));
+    }
+
+    @Test
+    public void testByteLimitAndOversizedContent() {
+        SegmentContentCache cache = new SegmentContentCache(3 * ENTRY_BYTES);
+        cache.put(1L, CONTENT);
+        // 超过上限的内容不缓存，也不淘汰其它条目
+        cache.put(2L, CONTENT.repeat(20));
+        assertEquals(Map.of(1L, CONTENT), cache.getAll(List.of(1L, 2L)));
+        assertTrue((long) cache.stats().get("usedBytes") <= 3 * ENTRY_BYTES);
+
+        // 覆盖为更长的内容后占用随之变化
+        cache.put(1L, CONTENT + CONTENT);
+        assertEquals(2L * 20 + SegmentContentCache.ENTRY_OVERHEAD_BYTES, cache.stats().get("usedBytes"));
+    }
+
+    @Test
+    public void testPutIfAbsentAndInvalidate() {
+        SegmentContentCache cache = new SegmentContentCache(10 * ENTRY_BYTES);
+        cache.put(1L, "新内容");
+        cache.putIfAbsent(1L, "数据库中读到的旧内容");
+        assertEquals(Map.of(1L, "新内容"), cache.getAll(List.of(1L)));
+
+        cache.invalidate(1L);
+        assertTrue(cache.getAll(List.of(1L)).isEmpty());
+        assertEquals(0L, cache.stats().get("usedBytes"));
+    }
+
+    @Test
+    public void testOfferStopsWhenFull() {
+        SegmentContentCache cache = new SegmentContentCache(2 * ENTRY_BYTES);
+        assertTrue(cache.offer(1L, CONTENT));
+        assertFalse(cache.offer(2L, CONTENT));
+        // 缓存已满时预热不再写入，也不淘汰已有条目
+        assertFalse(cache.offer(3L, CONTENT));
+        assertEquals(Map.of(1L, CONTENT, 2L, CONTENT), cache.getAll(List.of(1L, 2L, 3L)));
+    }
+}
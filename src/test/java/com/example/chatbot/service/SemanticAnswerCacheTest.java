@@ -0,0 +1,87 @@
+package com.example.chatbot.service;
+
+import com.example.chatbot.service.IntentRecognitionService.Intent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 语义回答缓存测试：相似度阈值、范围隔离、知识库版本失效、淘汰和过期
+ */
+public class SemanticAnswerCacheTest {
+
+    private static final String LOCAL = "mode:local";
+    private static final String REMOTE = "mode:remote";
+
+    @Test
+    public void testSimilarQuestionHitsWithIntent() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(10, 0.95f, 0);
+        cache.put(new float[]{1, 0, 0}, LOCAL, 1, "回答", Intent.ACCEPT);
+
+        // 未归一化、方向几乎相同的问题向量命中
+        SemanticAnswerCache.Hit hit = cache.lookup(new float[]{2, 0.1f, 0}, LOCAL, 1);
+        assertNotNull(hit);
+        assertEquals("回答", hit.answer());
+        assertEquals(Intent.ACCEPT, hit.intent());
+        // 相似度不足不命中
+        assertNull(cache.lookup(new float[]{1, 1, 0}, LOCAL, 1));
+        assertNull(cache.lookup(new float[]{0, 0, 0}, LOCAL, 1));
+        assertEquals(1L, cache.stats().get("hits"));
+    }
+
+    @Test
+    public void testScopesAreIsolated() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(10, 0.95f, 0);
+        cache.put(new float[]{1, 0}, LOCAL, 1, "本地模型的回答", Intent.ACCEPT);
+        cache.put(new float[]{1, 0}, REMOTE + "|user:7", 1, "远程模型给用户 7 的回答", Intent.ACCEPT);
+
+        assertEquals("本地模型的回答", cache.lookup(new float[]{1, 0}, LOCAL, 1).answer());
+        assertEquals("远程模型给用户 7 的回答", cache.lookup(new float[]{1, 0}, REMOTE + "|user:7", 1).answer());
+        assertNull(cache.lookup(new float[]{1, 0}, REMOTE, 1));
+        assertNull(cache.lookup(new float[]{1, 0}, REMOTE + "|user:8", 1));
+    }
+
+    @Test
+    public void testKnowledgeVersionInvalidates() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(10, 0.95f, 0);
+        cache.put(new float[]{1, 0}, LOCAL, 1, "旧回答", Intent.ACCEPT);
+        assertNull(cache.lookup(new float[]{1, 0}, LOCAL, 2));
+        assertEquals(1L, cache.stats().get("invalidations"));
+
+        // 在版本 2 之前开始生成的回答不再写入
+        cache.put(new float[]{1, 0}, LOCAL, 1, "过时的回答", Intent.ACCEPT);
+        assertNull(cache.lookup(new float[]{1, 0}, LOCAL, 2));
+        cache.put(new float[]{1, 0}, LOCAL, 2, "新回答", Intent.ACCEPT);
+        assertEquals("新回答", cache.lookup(new float[]{1, 0}, LOCAL, 2).answer());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyHitAndOverwritesSameQuestion() throws InterruptedException {
+        SemanticAnswerCache cache = new SemanticAnswerCache(2, 0.95f, 0);
+        cache.put(new float[]{1, 0, 0}, LOCAL, 1, "a", Intent.ACCEPT);
+        Thread.sleep(2);
+        cache.put(new float[]{0, 1, 0}, LOCAL, 1, "b", Intent.ACCEPT);
+        Thread.sleep(2);
+        cache.lookup(new float[]{1, 0, 0}, LOCAL, 1);
+        Thread.sleep(2);
+        cache.put(new float[]{0, 0, 1}, LOCAL, 1, "c", Intent.ACCEPT);
+
+        assertNull(cache.lookup(new float[]{0, 1, 0}, LOCAL, 1));
+        assertEquals("a", cache.lookup(new float[]{1, 0, 0}, LOCAL, 1).answer());
+
+        cache.put(new float[]{1, 0.01f, 0}, LOCAL, 1, "a2", Intent.ACCEPT);
+        assertEquals("a2", cache.lookup(new float[]{1, 0, 0}, LOCAL, 1).answer());
+        assertEquals(2, cache.stats().get("size"));
+    }
+
+    @Test
+    public void testExpiredEntriesAreDropped() throws InterruptedException {
+        SemanticAnswerCache cache = new SemanticAnswerCache(10, 0.95f, 5);
+        cache.put(new float[]{1, 0}, LOCAL, 1, "回答", Intent.ACCEPT);
+        Thread.sleep(20);
+        assertNull(cache.lookup(new float[]{1, 0}, LOCAL, 1));
+        assertEquals(0, cache.stats().get("size"));
+    }
+}
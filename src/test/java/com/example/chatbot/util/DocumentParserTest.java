@@ -0,0 +1,162 @@
+package com.example.chatbot.util;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 文档解析测试：txt/pdf/docx 逐块读取的内容与全文一致，以及块拼接成 Reader
+ */
+public class DocumentParserTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testTxtBlocksMatchWholeFileDecoding() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < 30000; i++) {
+            bytes.writeBytes(("第" + i + "行😀\n").getBytes(StandardCharsets.UTF_8));
+        }
+        // 非法的 UTF-8 字节替换为 U+FFFD
+        bytes.write(0xC3);
+        bytes.write('x');
+        File file = dir.resolve("large.TXT").toFile();
+        Files.write(file.toPath(), bytes.toByteArray());
+
+        List<String> blocks = readBlocks(DocumentParser.open(file));
+        assertTrue(blocks.size() > 1);
+        assertEquals(new String(bytes.toByteArray(), StandardCharsets.UTF_8), String.join("", blocks));
+        assertTrue(String.join("", blocks).endsWith("�x"));
+    }
+
+    @Test
+    public void testPdfIsReadInPageRanges() throws IOException {
+        File file = dir.resolve("doc.pdf").toFile();
+        try (PDDocument pdf = new PDDocument()) {
+            for (int page = 1; page <= 10; page++) {
+                PDPage p = new PDPage();
+                pdf.addPage(p);
+                try (PDPageContentStream content = new PDPageContentStream(pdf, p)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(72, 700);
+                    content.showText("Page " + page + " content");
+                    content.endText();
+                }
+            }
+            pdf.save(file);
+        }
+
+        List<String> blocks = readBlocks(DocumentParser.openPdf(file, 4));
+        assertEquals(3, blocks.size());
+        assertTrue(blocks.get(0).contains("Page 4 content") && !blocks.get(0).contains("Page 5 content"));
+        assertTrue(blocks.get(2).contains("Page 10 content"));
+        String text = DocumentParser.parseToText(file);
+        for (int page = 1; page <= 10; page++) {
+            assertTrue(text.contains("Page " + page + " content"), text);
+        }
+        assertTrue(text.indexOf("Page 2 content") < text.indexOf("Page 9 content"));
+    }
+
+    @Test
+    public void testDocxIsReadByParagraph() throws IOException {
+        File file = dir.resolve("doc.docx").toFile();
+        try (XWPFDocument docx = new XWPFDocument(); OutputStream out = Files.newOutputStream(file.toPath())) {
+            docx.createParagraph().createRun().setText("第一段：检索增强生成。");
+            XWPFRun run = docx.createParagraph().createRun();
+            run.setText("名称");
+            run.addTab();
+            run.setText("数值");
+            run.addBreak();
+            run.setText("换行后的文字");
+            // 同一段落中的多个 run 拼接在一起
+            XWPFRun first = docx.createParagraph().createRun();
+            first.setText("前半句，");
+            first.getParagraph().createRun().setText("后半句。");
+            docx.write(out);
+        }
+
+        List<String> blocks = readBlocks(DocumentParser.open(file));
+        assertEquals(List.of("第一段：检索增强生成。\n", "名称\t数值\n换行后的文字\n", "前半句，后半句。\n"), blocks);
+        assertEquals(String.join("", blocks), DocumentParser.parseDocx(file));
+    }
+
+    @Test
+    public void testInvalidDocxAndUnsupportedFormat() throws IOException {
+        File docx = dir.resolve("broken.docx").toFile();
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(docx.toPath()))) {
+            zip.putNextEntry(new ZipEntry("word/other.xml"));
+            zip.write("<x/>".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        assertThrows(IOException.class, () -> DocumentParser.open(docx));
+
+        File xlsx = dir.resolve("table.xlsx").toFile();
+        Files.write(xlsx.toPath(), new byte[]{1});
+        assertThrows(UnsupportedOperationException.class, () -> DocumentParser.open(xlsx));
+    }
+
+    @Test
+    public void testAsReaderConcatenatesBlocksAndCloses() throws IOException {
+        Iterator<String> source = List.of("向量", "", "检索", "增强生成").iterator();
+        AtomicBoolean closed = new AtomicBoolean();
+        TextBlockReader blocks = new TextBlockReader() {
+            @Override
+            public String nextBlock() {
+                return source.hasNext() ? source.next() : null;
+            }
+
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+
+        StringBuilder text = new StringBuilder();
+        try (Reader reader = blocks.asReader()) {
+            char[] buffer = new char[3];
+            int n;
+            while ((n = reader.read(buffer, 0, buffer.length)) >= 0) {
+                text.append(buffer, 0, n);
+            }
+        }
+        assertEquals("向量检索增强生成", text.toString());
+        assertTrue(closed.get());
+    }
+
+    private static List<String> readBlocks(TextBlockReader reader) throws IOException {
+        List<String> blocks = new ArrayList<>();
+        try (reader) {
+            String block;
+            while ((block = reader.nextBlock()) != null) {
+                blocks.add(block);
+            }
+        }
+        return blocks;
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.chatbot.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 微批处理器测试：请求合批、结果按位置对应、失败传播、队列满拒绝和关闭
+ */
+public class MicroBatcherTest {
+
+    @Test
+    public void testQueuedRequestsAreBatchedInOrder() throws Exception {
+        CountDownLatch firstBatchStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        try (MicroBatcher<Integer, String> batcher = new MicroBatcher<>("test-batcher", 1, 8,
+                Duration.ofMillis(20), 100, inputs -> {
+            batchSizes.add(inputs.size());
+            firstBatchStarted.countDown();
+            await(release);
+            return inputs.stream().map(i -> "v" + i).collect(Collectors.toList());
+        })) {
+            // 第一条请求占住工作线程，其余请求排队后按 maxBatchSize 合批
+            CompletableFuture<String> first = batcher.submit(0);
+            assertTrue(firstBatchStarted.await(5, TimeUnit.SECONDS));
+            List<CompletableFuture<String>> rest = new ArrayList<>();
+            for (int i = 1; i <= 20; i++) {
+                rest.add(batcher.submit(i));
+            }
+            release.countDown();
+
+            assertEquals("v0", first.get(5, TimeUnit.SECONDS));
+            for (int i = 0; i < rest.size(); i++) {
+                assertEquals("v" + (i + 1), rest.get(i).get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(List.of(1, 8, 8, 4), batchSizes);
+            assertEquals(21L, batcher.stats().get("items"));
+            assertEquals(4L, batcher.stats().get("batches"));
+        }
+    }
+
+    @Test
+    public void testBatchFailureFailsEveryRequest() throws Exception {
+        try (MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>("test-batcher", 1, 4,
+                Duration.ofMillis(50), 10, inputs -> {
+            if (inputs.contains(-1)) {
+                throw new IllegalArgumentException("坏请求");
+            }
+            return inputs.subList(0, inputs.size() - 1);
+        })) {
+            CompletableFuture<Integer> bad = batcher.submit(-1);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> bad.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalArgumentException.class, e.getCause());
+
+            // 结果数与输入数不一致时整批失败
+            CompletableFuture<Integer> mismatched = batcher.submit(1);
+            e = assertThrows(ExecutionException.class, () -> mismatched.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+            assertEquals(2L, batcher.stats().get("failedBatches"));
+        }
+    }
+
+    @Test
+    public void testFullQueueRejectsAndCloseCancelsPending() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>("test-batcher", 1, 1,
+                Duration.ZERO, 2, inputs -> {
+            started.countDown();
+            await(release);
+            return inputs;
+        });
+        try {
+            batcher.submit(0);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Integer> queued1 = batcher.submit(1);
+            CompletableFuture<Integer> queued2 = batcher.submit(2);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> batcher.submit(3).get());
+            assertInstanceOf(RejectedExecutionException.class, e.getCause());
+
+            batcher.close();
+            assertThrows(CancellationException.class, () -> queued1.getNow(null));
+            assertThrows(CancellationException.class, () -> queued2.getNow(null));
+            e = assertThrows(ExecutionException.class, () -> batcher.submit(4).get());
+            assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        } finally {
+            release.countDown();
+            batcher.close();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
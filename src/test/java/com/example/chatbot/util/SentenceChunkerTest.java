@@ -0,0 +1,95 @@
+package com.example.chatbot.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 按句子分段测试：片段长度上限、相邻片段重叠和代理对
+ */
+public class SentenceChunkerTest {
+
+    @Test
+    public void testChunksRespectMaxLengthAndKeepSentences() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            text.append("这是第").append(i).append("句话，用来测试分段。");
+        }
+        List<String> chunks = chunk(text, 60, 0);
+
+        assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            assertTrue(chunk.length() <= 60, "片段超长: " + chunk.length());
+            // 每个片段以完整句子结尾
+            assertTrue(chunk.endsWith("。"), chunk);
+        }
+        assertEquals(text.toString(), String.join("", chunks));
+    }
+
+    @Test
+    public void testOverlapRepeatsTrailingSentences() {
+        String text = "第一句。第二句。第三句。第四句。第五句。第六句。第七句。第八句。";
+        List<String> chunks = chunk(text, 12, 4);
+
+        assertTrue(chunks.size() > 1);
+        for (int i = 1; i < chunks.size(); i++) {
+            String previous = chunks.get(i - 1);
+            String current = chunks.get(i);
+            assertTrue(current.length() <= 12);
+            // 下一个片段以上一片段的最后一整句开头，重叠部分不超过上限
+            String lastSentence = previous.substring(previous.lastIndexOf('。', previous.length() - 2) + 1);
+            assertTrue(lastSentence.length() <= 4);
+            assertTrue(current.startsWith(lastSentence), previous + " -> " + current);
+        }
+    }
+
+    @Test
+    public void testLongSentenceWithoutPunctuationIsForceBroken() {
+        String text = "字".repeat(250);
+        List<String> chunks = chunk(text, 50, 0);
+
+        for (String chunk : chunks) {
+            assertTrue(chunk.length() <= 50);
+        }
+        assertEquals(text, String.join("", chunks));
+    }
+
+    @Test
+    public void testSurrogatePairsAreNeverSplit() {
+        // 每个表情占两个 char，奇数上限会落在代理对中间
+        String text = "😀".repeat(100) + "。" + "𠀀".repeat(60);
+        for (int max : new int[]{7, 9, 31}) {
+            List<String> chunks = chunk(text, max, 0);
+            for (String chunk : chunks) {
+                assertTrue(chunk.length() <= max);
+                assertFalse(Character.isLowSurrogate(chunk.charAt(0)), "片段以低位代理开头");
+                assertFalse(Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)), "片段以高位代理结尾");
+            }
+            assertEquals(text, String.join("", chunks));
+        }
+    }
+
+    @Test
+    public void testTokenMeasureAndReaderInput() {
+        // 以空白分隔的单词数作为长度
+        String text = "one two three. four five six. seven eight nine. ten eleven twelve.";
+        SentenceChunker chunker = new SentenceChunker(new StringReader(text), 6, 0,
+                s -> s.isBlank() ? 0 : s.trim().split("\\s+").length, 1000);
+        List<String> chunks = new ArrayList<>();
+        chunker.forEachRemaining(chunks::add);
+
+        assertEquals(List.of("one two three. four five six.", "seven eight nine. ten eleven twelve."), chunks);
+    }
+
+    private static List<String> chunk(CharSequence text, int maxChars, int overlapChars) {
+        List<String> chunks = new ArrayList<>();
+        SentenceChunker.of(text, maxChars, overlapChars).forEachRemaining(chunks::add);
+        return chunks;
+    }
+}